@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.ipk_gatersleben.bit.bi.isa4j.util.Utf8Buffer;
+
+/**
+ * JMH benchmark of {@link StudyOrAssayTableObject#getFields()} and
+ * {@link StudyOrAssayTableObject#getHeaders()} per component type, next to the
+ * {@link RowRenderer} that replaced them on the write path. Every object has
+ * three Characteristics (or ParameterValues with units) and a Comment. Lives in
+ * the components package because the methods are package-private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComponentFieldsBenchmark {
+
+	private StudyOrAssayTableObject object;
+
+	private Utf8Buffer out;
+
+	private RowRenderer renderer;
+
+	@Param({ "Source", "Sample", "Material", "DataFile", "Process" })
+	public String type;
+
+	@Benchmark
+	public Map<String, String[]> getFields() {
+		return this.object.getFields();
+	}
+
+	@Benchmark
+	public Map<String, String[]> getHeaders() {
+		return this.object.getHeaders();
+	}
+
+	@Benchmark
+	public int render() {
+		this.out.clear();
+		this.renderer.render(this.object, this.out);
+		return this.out.size();
+	}
+
+	@Setup
+	public void setup() {
+		Ontology uo = new Ontology("UO", null, null, "Units of Measurement Ontology");
+		List<Characteristic> characteristics = new ArrayList<Characteristic>();
+		characteristics.add(new Characteristic("Organism", new OntologyAnnotation("Arabidopsis thaliana",
+				"http://purl.obolibrary.org/obo/NCBITaxon_3702", new Ontology("NCBITaxon", null, null, null))));
+		characteristics.add(new Characteristic("Growth Facility", new OntologyAnnotation("small LemnaTec phytochamber")));
+		characteristics.add(new Characteristic("Observation Unit Type", new OntologyAnnotation("plant")));
+
+		switch (this.type) {
+		case "Source":
+			this.object = new Source("Plant_1", characteristics);
+			break;
+		case "Sample":
+			this.object = new Sample("1135FA-1", characteristics);
+			break;
+		case "Material":
+			this.object = new Material("Extract Name", "extract-1", characteristics);
+			break;
+		case "DataFile":
+			this.object = new DataFile("Raw Data File", "1135FA_images/fluo/side/54/1135FA1001 side.fluo das_54 DEG_000.png");
+			break;
+		case "Process":
+			Process process = new Process(new Protocol("Watering"));
+			process.addParameterValue(new ParameterValue(new ProtocolParameter("Irrigation Type"), "automated (LemnaTec target weight)"));
+			process.addParameterValue(new ParameterValue(new ProtocolParameter("Volume"), 80.4,
+					new OntologyAnnotation("g", "http://purl.obolibrary.org/obo/UO_0000021", uo)));
+			process.addParameterValue(new ParameterValue(new ProtocolParameter("Imaging Angle"), 90.0,
+					new OntologyAnnotation("degree", "http://purl.obolibrary.org/obo/UO_0000185", uo)));
+			this.object = process;
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown type: " + this.type);
+		}
+		((Commentable) this.object).comments().add(new Comment("Image analysis tool", "IAP"));
+		this.renderer = new RowRenderer(ColumnPlan.compile(this.object));
+		this.out = new Utf8Buffer(1024);
+	}
+
+}
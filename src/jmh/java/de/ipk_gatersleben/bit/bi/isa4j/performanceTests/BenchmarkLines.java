@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.performanceTests;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.ipk_gatersleben.bit.bi.isa4j.components.Characteristic;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Factor;
+import de.ipk_gatersleben.bit.bi.isa4j.components.FactorValue;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Ontology;
+import de.ipk_gatersleben.bit.bi.isa4j.components.OntologyAnnotation;
+import de.ipk_gatersleben.bit.bi.isa4j.components.ParameterValue;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Process;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Protocol;
+import de.ipk_gatersleben.bit.bi.isa4j.components.ProtocolParameter;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Sample;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Source;
+
+/**
+ * Builds the lines of the Study files of {@link PerformanceTester} for the
+ * benchmarks: "minimal" (Source, Process, Sample), "reduced" (with an organism
+ * Characteristic) and "realWorld" (9 Characteristics, the growth parameters of
+ * growth_parameters.csv and alternating FactorValues). The objects shared by
+ * all lines (Protocols, Ontologies, Characteristics...) are created once.
+ */
+class BenchmarkLines {
+
+	static final String[] COMPLEXITIES = { "minimal", "reduced", "realWorld" };
+
+	private List<Characteristic> commonCharacteristics;
+
+	private final String complexity;
+
+	private FactorValue[][] factorValues;
+
+	private List<ParameterValue> growthParameterValues;
+
+	private Characteristic organism;
+
+	private final Protocol protocol;
+
+	private Characteristic sampleCharacteristic;
+
+	BenchmarkLines(String complexity) throws IOException {
+		this.complexity = complexity;
+		switch (complexity) {
+		case "minimal":
+			this.protocol = new Protocol("sample collection");
+			break;
+		case "reduced":
+			this.protocol = new Protocol("sample collection");
+			Ontology ncbitaxon = new Ontology("NCBITaxon", null, null, "NCBI Taxonomy");
+			this.organism = new Characteristic("Organism", new OntologyAnnotation("Homo Sapiens",
+					"http://purl.bioontology.org/ontology/NCBITAXON/9606", ncbitaxon));
+			break;
+		case "realWorld":
+			this.protocol = new Protocol("Growth");
+			this.setUpRealWorld();
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown complexity: " + complexity);
+		}
+	}
+
+	/**
+	 * @param i the number of the line, part of the names
+	 * @return the first object of the line
+	 */
+	Source line(int i) {
+		switch (this.complexity) {
+		case "minimal": {
+			Source source = new Source("source_material-" + i);
+			Sample sample = new Sample("sample_material-" + i);
+			link(source, new Process(this.protocol), sample);
+			return source;
+		}
+		case "reduced": {
+			Source source = new Source("source_material-" + i);
+			Sample sample = new Sample("sample_material-" + i);
+			sample.addCharacteristic(this.organism);
+			link(source, new Process(this.protocol), sample);
+			return source;
+		}
+		default: {
+			Source source = new Source("Plant_" + i);
+			Sample sample = new Sample("1135FA-" + i);
+			Process process = new Process(this.protocol);
+			link(source, process, sample);
+			source.setCharacteristics(this.commonCharacteristics);
+			process.setParameterValues(this.growthParameterValues);
+			sample.addCharacteristic(this.sampleCharacteristic);
+			sample.setFactorValues(Arrays.asList(this.factorValues[i % 2]));
+			return source;
+		}
+		}
+	}
+
+	/**
+	 * @return n lines, numbered from 0
+	 */
+	List<Source> lines(int n) {
+		List<Source> lines = new ArrayList<Source>(n);
+		for (int i = 0; i < n; i++)
+			lines.add(this.line(i));
+		return lines;
+	}
+
+	private static void link(Source source, Process process, Sample sample) {
+		process.setInput(source);
+		process.setOutput(sample);
+	}
+
+	private void setUpRealWorld() throws IOException {
+		Map<String, Ontology> ontologies = new HashMap<String, Ontology>();
+		ontologies.put("AGRO", new Ontology("AGRO", new URL("http://purl.obolibrary.org/obo/agro/releases/2018-05-14/agro.owl"), "2018-05-14", "Agronomy Ontology"));
+		ontologies.put("UO", new Ontology("UO", new URL("http://data.bioontology.org/ontologies/UO"), "38802", "Units of Measurement Ontology"));
+
+		Factor soilCover = new Factor("Soil Cover");
+		Factor plantMovement = new Factor("Plant Movement");
+		this.factorValues = new FactorValue[][] {
+				{ new FactorValue(soilCover, "covered"), new FactorValue(plantMovement, "rotating") },
+				{ new FactorValue(soilCover, "uncovered"), new FactorValue(plantMovement, "stationary") } };
+
+		this.commonCharacteristics = List.of(
+				new Characteristic("Species", new OntologyAnnotation("thaliana")),
+				new Characteristic("Infraspecific Name", new OntologyAnnotation(" ")),
+				new Characteristic("Biological Material Latitude", new OntologyAnnotation("51.827721")),
+				new Characteristic("Biological Material Longitude", new OntologyAnnotation("11.27778")),
+				new Characteristic("Material Source ID", new OntologyAnnotation("http://eurisco.ipk-gatersleben.de/apex/f?p=103:16:::NO::P16_EURISCO_ACC_ID:1668187")),
+				new Characteristic("Seed Origin", new OntologyAnnotation("http://arabidopsis.info/StockInfo?NASC_id=22680")),
+				new Characteristic("Growth Facility", new OntologyAnnotation("small LemnaTec phytochamber")),
+				new Characteristic("Material Source Latitude", new OntologyAnnotation("51.827721")),
+				new Characteristic("Material Source Longitude", new OntologyAnnotation("11.27778")));
+		this.sampleCharacteristic = new Characteristic("Observation Unit Type", new OntologyAnnotation("plant"));
+
+		// Name => [Value, Value REF, Value Accession, Unit, Unit REF, Unit Accession]
+		this.growthParameterValues = new ArrayList<ParameterValue>();
+		try (BufferedReader csvReader = new BufferedReader(new InputStreamReader(
+				PerformanceTester.class.getResourceAsStream("growth_parameters.csv")))) {
+			String row = csvReader.readLine(); // Skip the first line (headers)
+			while ((row = csvReader.readLine()) != null) {
+				String[] data = row.split(";", -1);
+				ProtocolParameter parameter = new ProtocolParameter(data[0]);
+				this.protocol.addParameter(parameter);
+				OntologyAnnotation unit = null;
+				OntologyAnnotation value;
+				if (!data[4].isEmpty()) {
+					unit = data[5].isEmpty() ? new OntologyAnnotation(data[4])
+							: new OntologyAnnotation(data[4], data[6], ontologies.get(data[5]));
+					value = new OntologyAnnotation(data[1]);
+				} else if (!data[2].isEmpty()) {
+					value = new OntologyAnnotation(data[1], data[3], ontologies.get(data[2]));
+				} else {
+					value = new OntologyAnnotation(data[1]);
+				}
+				this.growthParameterValues.add(new ParameterValue(parameter, value, unit));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.performanceTests;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.ipk_gatersleben.bit.bi.isa4j.components.Assay;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Comment;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Factor;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Investigation;
+import de.ipk_gatersleben.bit.bi.isa4j.components.OntologyAnnotation;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Person;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Protocol;
+import de.ipk_gatersleben.bit.bi.isa4j.components.ProtocolParameter;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Publication;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Study;
+
+/**
+ * JMH benchmark of {@link Investigation#writeToStream} with growing numbers of
+ * studies and of contacts (of the investigation and of every study), writing
+ * to a null stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvestigationBenchmark {
+
+	@Param({ "5", "50" })
+	public int contacts;
+
+	private Investigation investigation;
+
+	@Param({ "1", "10", "100" })
+	public int studies;
+
+	@Setup
+	public void setup() {
+		this.investigation = new Investigation("i1");
+		this.investigation.setTitle("Benchmark investigation");
+		this.investigation.comments().add(new Comment("MIAPPE version", "1.1"));
+		for (int c = 0; c < this.contacts; c++)
+			this.investigation.addContact(contact(c));
+		for (int s = 0; s < this.studies; s++) {
+			Study study = new Study("s" + s, "s_study" + s + ".txt");
+			study.setTitle("Study " + s);
+			study.addFactor(new Factor("Soil Cover"));
+			study.addPublication(new Publication("Publication " + s, "Doe J"));
+			Protocol growth = new Protocol("Growth " + s);
+			growth.addParameter(new ProtocolParameter("Volume"));
+			study.addProtocol(growth);
+			study.addProtocol(new Protocol("Phenotyping " + s));
+			study.addAssay(new Assay("a_assay" + s + ".txt"));
+			for (int c = 0; c < this.contacts; c++)
+				study.addContact(contact(c));
+			this.investigation.addStudy(study);
+		}
+	}
+
+	private static Person contact(int c) {
+		Person person = new Person("Doe " + c, "Jane", "jane.doe" + c + "@example.org", "IPK Gatersleben",
+				"Corrensstr. 3, 06466 Seeland");
+		person.addRole(new OntologyAnnotation("data curator"));
+		return person;
+	}
+
+	@Benchmark
+	public void writeToStream() throws IOException {
+		this.investigation.writeToStream(OutputStream.nullOutputStream());
+	}
+
+}
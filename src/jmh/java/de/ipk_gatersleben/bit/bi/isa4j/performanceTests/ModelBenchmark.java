@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.performanceTests;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.ipk_gatersleben.bit.bi.isa4j.components.Assay;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Characteristic;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Comment;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Investigation;
+import de.ipk_gatersleben.bit.bi.isa4j.components.OntologyAnnotation;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Protocol;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Source;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Study;
+
+/**
+ * JMH benchmark of the add methods of the model and their uniqueness checks,
+ * the JMH counterpart of {@link UniquenessCheckTester}: every invocation adds
+ * the given number of items to a new object.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+	@Param({ "10", "100", "1000", "10000" })
+	public int items;
+
+	private String[] names;
+
+	private final OntologyAnnotation value = new OntologyAnnotation("value");
+
+	@Benchmark
+	public Source addCharacteristicsAndComments() {
+		Source source = new Source("source");
+		for (String name : this.names) {
+			source.addCharacteristic(new Characteristic(name, this.value));
+			source.comments().add(new Comment(name, "value"));
+		}
+		return source;
+	}
+
+	@Benchmark
+	public Study addProtocolsAndAssays() {
+		Study study = new Study("s1");
+		for (String name : this.names) {
+			study.addProtocol(new Protocol(name));
+			study.addAssay(new Assay("a_" + name + ".txt"));
+		}
+		return study;
+	}
+
+	@Benchmark
+	public Investigation addStudies() {
+		Investigation investigation = new Investigation("i1");
+		for (String name : this.names)
+			investigation.addStudy(new Study(name));
+		return investigation;
+	}
+
+	@Setup
+	public void setup() {
+		this.names = new String[this.items];
+		for (int i = 0; i < this.items; i++)
+			this.names[i] = "Item " + i;
+	}
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.performanceTests;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.ipk_gatersleben.bit.bi.isa4j.constants.Symbol;
+import de.ipk_gatersleben.bit.bi.isa4j.util.StringUtil;
+
+/**
+ * JMH benchmark of {@link StringUtil#sanitize(String)} against the previous
+ * implementation with two regular expressions, for typical clean values and for
+ * values with tabs and line breaks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SanitizeBenchmark {
+
+	@Param({ "clean", "dirty" })
+	public String kind;
+
+	private String[] inputs;
+
+	@Setup
+	public void setup() {
+		this.inputs = new String[64];
+		for (int i = 0; i < this.inputs.length; i++) {
+			if (this.kind.equals("clean"))
+				this.inputs[i] = "sample_material-" + i + " (Arabidopsis thaliana, Col-0)";
+			else
+				this.inputs[i] = "sample_material-" + i + "\t(Arabidopsis thaliana,\r\nCol-0)\n";
+		}
+	}
+
+	@Benchmark
+	public int sanitize() {
+		int length = 0;
+		for (String input : this.inputs)
+			length += StringUtil.sanitize(input).length();
+		return length;
+	}
+
+	@Benchmark
+	public int sanitizeRegex() {
+		int length = 0;
+		for (String input : this.inputs)
+			length += input.replaceAll(Symbol.TAB.toString(), Symbol.SPACE.toString())
+					.replaceAll(Symbol.ENTER.toString(), Symbol.SPACE.toString()).length();
+		return length;
+	}
+
+}
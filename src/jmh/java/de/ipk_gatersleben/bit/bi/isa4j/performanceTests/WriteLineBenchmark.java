@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.performanceTests;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.ipk_gatersleben.bit.bi.isa4j.components.Source;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Study;
+
+/**
+ * JMH benchmark of {@link Study#writeLine} at the complexities of
+ * {@link PerformanceTester}, writing to a null stream so that the disk is not
+ * measured. "writeLine" renders prepared lines, "buildAndWriteLine" also creates
+ * the objects of every line like PerformanceTester does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteLineBenchmark {
+
+	/**
+	 * Number of prepared lines, a power of two
+	 */
+	private static final int LINES = 1024;
+
+	@Param({ "minimal", "reduced", "realWorld" })
+	public String complexity;
+
+	private BenchmarkLines builder;
+
+	private List<Source> lines;
+
+	private int next;
+
+	private Study study;
+
+	@Benchmark
+	public void buildAndWriteLine() throws IOException {
+		this.study.writeLine(this.builder.line(this.next++));
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		this.builder = new BenchmarkLines(this.complexity);
+		this.lines = this.builder.lines(LINES);
+		this.study = new Study("s1", "s_study.txt");
+		this.study.setOutputStream(OutputStream.nullOutputStream());
+		this.study.writeHeadersFromExample(this.lines.get(0));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		this.study.releaseStream();
+	}
+
+	@Benchmark
+	public void writeLine() throws IOException {
+		this.study.writeLine(this.lines.get(this.next++ & (LINES - 1)));
+	}
+
+}
@@ -0,0 +1,348 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ipk_gatersleben.bit.bi.isa4j.constants.Props;
+import de.ipk_gatersleben.bit.bi.isa4j.util.AtomicFile;
+import de.ipk_gatersleben.bit.bi.isa4j.util.FsyncPolicy;
+
+/**
+ * Writes a whole ISA-Tab archive at once: the investigation file and the files
+ * of all {@link Study}s and {@link Assay}s for which lines were registered with
+ * {@link #setLines(WideTableFile, Iterable)}. Every file is written by its own
+ * task on an executor, so the total time is roughly that of the largest file
+ * (given enough threads). The file names of the Studies and Assays are relative
+ * to the directory of the investigation file, as they are printed in the
+ * investigation file (e.g. as Study File Name), absolute names are kept.
+ *
+ * If any file fails, all other tasks are cancelled and the error is thrown.
+ *
+ * In atomic mode (see {@link #setAtomicPublication(FsyncPolicy)}) all files are
+ * written to temporary files first and only published once every file is
+ * complete: the Study and Assay files, then the investigation file, then a
+ * commit marker ({@link Props#COMMIT_MARKER}) listing all files in the directory
+ * of the investigation file. The marker is deleted before writing starts, so a
+ * reader that finds it knows that the whole archive is complete and consistent.
+ * If writing fails, the previous files are left untouched.
+ */
+public class ArchiveWriter {
+
+	private static final Logger logger = LoggerFactory.getLogger(ArchiveWriter.class);
+
+	/**
+	 * Policy of the atomic mode, null to write files in place
+	 */
+	private FsyncPolicy fsyncPolicy;
+
+	private final Investigation investigation;
+
+	private final Map<WideTableFile, Iterable<? extends StudyOrAssayTableObject>> lines = new LinkedHashMap<WideTableFile, Iterable<? extends StudyOrAssayTableObject>>();
+
+	/**
+	 * @param investigation the investigation to write
+	 */
+	public ArchiveWriter(Investigation investigation) {
+		this.investigation = Objects.requireNonNull(investigation, "Investigation cannot be null");
+	}
+
+	/**
+	 * Write all files of the archive atomically and publish them together with a
+	 * commit marker, or in place again (the default) with null.
+	 *
+	 * @param policy when the content of the files is forced to the storage device,
+	 *               e.g. {@link FsyncPolicy#ON_CLOSE}, or null to write in place
+	 */
+	public void setAtomicPublication(FsyncPolicy policy) {
+		this.fsyncPolicy = policy;
+	}
+
+	/**
+	 * Register the lines of a Study or Assay file. The lines are only iterated when
+	 * the archive is written, so they can be created lazily (e.g. while reading from
+	 * a database). The headers are taken from the first line.
+	 *
+	 * @param file  a Study of the investigation or an Assay of one of its Studies
+	 * @param lines the first objects of the lines, in the order they should be written
+	 */
+	public void setLines(WideTableFile file, Iterable<? extends StudyOrAssayTableObject> lines) {
+		Objects.requireNonNull(file, "File cannot be null");
+		Objects.requireNonNull(lines, "Lines cannot be null");
+		Study study = file instanceof Assay ? ((Assay) file).getStudy() : (Study) file;
+		if (study == null || study.getInvestigation() != this.investigation)
+			throw new IllegalArgumentException(file + " is not part of " + this.investigation);
+		this.lines.put(file, lines);
+	}
+
+	/**
+	 * Write the archive with a fixed number of threads.
+	 *
+	 * @param investigationFile the path of the investigation file
+	 * @param nThreads          the maximum number of files written at the same time
+	 * @return the time taken for every file, in the order the files were registered
+	 *         (investigation file first)
+	 * @throws IOException if a file cannot be written
+	 * @throws IllegalArgumentException if two registered files have the same path
+	 */
+	public Map<String, Duration> write(String investigationFile, int nThreads) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		try {
+			return this.write(investigationFile, executor);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Write the archive on the given executor, one task per file. Returns when all
+	 * files are written or throws as soon as one of them fails, after cancelling
+	 * the others and waiting for them to stop.
+	 *
+	 * @param investigationFile the path of the investigation file
+	 * @param executor          the executor to write the files on
+	 * @return the time taken for every file, in the order the files were registered
+	 *         (investigation file first)
+	 * @throws IOException if a file cannot be written
+	 * @throws IllegalArgumentException if two registered files have the same path
+	 */
+	public Map<String, Duration> write(String investigationFile, ExecutorService executor) throws IOException {
+		Objects.requireNonNull(investigationFile, "Investigation file cannot be null");
+		logger.debug("{}: Writing archive with {} Study/Assay files.", this.investigation, this.lines.size());
+		FsyncPolicy policy = this.fsyncPolicy;
+		Map<WideTableFile, String> paths = this.resolvePaths(investigationFile);
+		Path marker = Paths.get(investigationFile).toAbsolutePath().resolveSibling(Props.COMMIT_MARKER);
+		if (policy != null)
+			Files.deleteIfExists(marker);
+		PreparedFiles prepared = new PreparedFiles();
+		// Tasks hold the read lock while writing, so that no task is still writing when this method returns
+		ReadWriteLock running = new ReentrantReadWriteLock();
+
+		Map<String, Duration> timings = new LinkedHashMap<String, Duration>();
+		timings.put(investigationFile, null);
+		for (WideTableFile file : this.lines.keySet())
+			timings.put(file.getFileName(), null);
+
+		CompletionService<Timing> completion = new ExecutorCompletionService<Timing>(executor);
+		Map<Future<Timing>, String> tasks = new LinkedHashMap<Future<Timing>, String>();
+		try {
+			tasks.put(completion.submit(this.timed(investigationFile, running, () -> {
+				if (policy == null)
+					this.investigation.writeToFile(investigationFile);
+				else
+					prepared.add(this.investigation.writeToTemporaryFiles(investigationFile, policy), true);
+				return null;
+			})), investigationFile);
+			for (Map.Entry<WideTableFile, Iterable<? extends StudyOrAssayTableObject>> entry : this.lines.entrySet()) {
+				WideTableFile file = entry.getKey();
+				Iterable<? extends StudyOrAssayTableObject> lines = entry.getValue();
+				String path = paths.get(file);
+				tasks.put(completion.submit(this.timed(file.getFileName(), running, () -> {
+					prepared.add(writeFile(file, path, lines, policy), false);
+					return null;
+				})), file.getFileName());
+			}
+
+			for (int i = 0; i < tasks.size(); i++) {
+				Future<Timing> done = completion.take();
+				try {
+					Timing timing = done.get();
+					timings.put(timing.fileName, timing.duration);
+				} catch (ExecutionException e) {
+					String fileName = tasks.get(done);
+					logger.error("{}: Writing '{}' failed, cancelling the other files.", this.investigation, fileName);
+					if (e.getCause() instanceof IOException)
+						throw new IOException("Writing '" + fileName + "' failed: " + e.getCause().getMessage(), e.getCause());
+					if (e.getCause() instanceof RuntimeException)
+						throw (RuntimeException) e.getCause();
+					throw new IllegalStateException("Writing '" + fileName + "' failed", e.getCause());
+				}
+			}
+			if (policy != null)
+				prepared.publish(marker, policy);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing the archive");
+		} finally {
+			for (Future<Timing> task : tasks.keySet())
+				task.cancel(true);
+			running.writeLock().lock();
+			prepared.abort();
+		}
+		return Collections.unmodifiableMap(timings);
+	}
+
+	/**
+	 * Write all lines to a file, stop early if the task is cancelled. In atomic
+	 * mode, the file is only prepared.
+	 * 
+	 * @param path the path of the file, resolved against the directory of the
+	 *             investigation file
+	 * @return the prepared temporary files in atomic mode, an empty list otherwise
+	 */
+	private static List<AtomicFile> writeFile(WideTableFile file, String path,
+			Iterable<? extends StudyOrAssayTableObject> lines, FsyncPolicy policy) throws IOException {
+		file.openFile(path, policy == null ? file.getAtomicPublication() : policy);
+		try {
+			for (StudyOrAssayTableObject line : lines) {
+				if (Thread.currentThread().isInterrupted())
+					throw new InterruptedIOException("Writing '" + file.getFileName() + "' was cancelled");
+				file.writeLine(line);
+			}
+		} catch (IOException | RuntimeException e) {
+			try {
+				AtomicChannels.abort(file.closeFile(false), e);
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+		return file.closeFile(policy == null);
+	}
+
+	/**
+	 * Resolve the file names of the registered files against the directory of the
+	 * investigation file. Two Assays of different Studies can have the same file
+	 * name, and two names can lead to the same file, so it is checked that every
+	 * file is written only once.
+	 *
+	 * @return the paths of the registered files
+	 * @throws IllegalArgumentException if two files (or a file and the
+	 *                                  investigation file) have the same path
+	 */
+	private Map<WideTableFile, String> resolvePaths(String investigationFile) {
+		Path directory = Paths.get(investigationFile).getParent();
+		Map<Path, String> seen = new HashMap<Path, String>();
+		seen.put(Paths.get(investigationFile).toAbsolutePath().normalize(), investigationFile);
+		Map<WideTableFile, String> paths = new HashMap<WideTableFile, String>();
+		for (WideTableFile file : this.lines.keySet()) {
+			String path = directory == null ? file.getFileName() : directory.resolve(file.getFileName()).toString();
+			String other = seen.putIfAbsent(Paths.get(path).toAbsolutePath().normalize(), file.getFileName());
+			if (other != null)
+				throw new IllegalArgumentException(
+						"'" + file.getFileName() + "' of " + file + " is the same file as '" + other + "'");
+			paths.put(file, path);
+		}
+		return paths;
+	}
+
+	private Callable<Timing> timed(String fileName, ReadWriteLock running, Callable<Void> task) {
+		return () -> {
+			// The write lock is taken for good once the archive is done or has failed
+			if (!running.readLock().tryLock())
+				throw new InterruptedIOException("Writing '" + fileName + "' was cancelled");
+			try {
+				long start = System.nanoTime();
+				task.call();
+				Timing timing = new Timing();
+				timing.fileName = fileName;
+				timing.duration = Duration.ofNanos(System.nanoTime() - start);
+				logger.debug("{}: Wrote '{}' in {} ms.", this.investigation, fileName, timing.duration.toMillis());
+				return timing;
+			} finally {
+				running.readLock().unlock();
+			}
+		};
+	}
+
+	/**
+	 * The prepared files of the tasks in atomic mode. Files of tasks that finish
+	 * after the archive failed are aborted right away.
+	 */
+	private static class PreparedFiles {
+
+		private boolean closed = false;
+
+		private final List<AtomicFile> investigationFiles = new ArrayList<AtomicFile>(2);
+
+		private final List<AtomicFile> tableFiles = new ArrayList<AtomicFile>();
+
+		/**
+		 * Abort all files that were not published
+		 */
+		private synchronized void abort() {
+			if (this.closed)
+				return;
+			this.closed = true;
+			for (AtomicFile file : this.allFiles()) {
+				try {
+					file.abort();
+				} catch (IOException e) {
+					logger.warn("Could not delete temporary file of '{}'", file.getTarget(), e);
+				}
+			}
+		}
+
+		private synchronized void add(List<AtomicFile> files, boolean investigation) throws IOException {
+			if (this.closed) {
+				IOException cancelled = new InterruptedIOException("Archive was cancelled");
+				AtomicChannels.abort(files, cancelled);
+				throw cancelled;
+			}
+			(investigation ? this.investigationFiles : this.tableFiles).addAll(files);
+		}
+
+		private List<AtomicFile> allFiles() {
+			List<AtomicFile> files = new ArrayList<AtomicFile>(this.tableFiles);
+			files.addAll(this.investigationFiles);
+			return files;
+		}
+
+		/**
+		 * Publish the Study and Assay files, then the investigation file and write the
+		 * commit marker
+		 */
+		private synchronized void publish(Path marker, FsyncPolicy policy) throws IOException {
+			List<AtomicFile> files = this.allFiles();
+			AtomicChannels.publish(files);
+			this.closed = true;
+
+			StringBuilder content = new StringBuilder();
+			for (AtomicFile file : files)
+				content.append(marker.getParent().relativize(file.getTarget().toAbsolutePath())).append('\n');
+			try (AtomicFile file = AtomicFile.create(marker, policy)) {
+				ByteBuffer bytes = ByteBuffer.wrap(content.toString().getBytes(Props.DEFAULT_CHARSET));
+				while (bytes.hasRemaining())
+					file.write(bytes);
+				file.commit();
+			}
+			logger.debug("Published {} files with commit marker '{}'.", files.size(), marker);
+		}
+	}
+
+	private static class Timing {
+		private Duration duration;
+		private String fileName;
+	}
+
+}
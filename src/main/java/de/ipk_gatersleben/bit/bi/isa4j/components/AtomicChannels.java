@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.util.List;
+
+import de.ipk_gatersleben.bit.bi.isa4j.constants.Props;
+import de.ipk_gatersleben.bit.bi.isa4j.util.AtomicFile;
+import de.ipk_gatersleben.bit.bi.isa4j.util.BlockGzipChannel;
+import de.ipk_gatersleben.bit.bi.isa4j.util.FsyncPolicy;
+
+/**
+ * Opening, preparing and publishing of the {@link AtomicFile}s behind the
+ * channel of an investigation, Study or Assay file: one for plain files, two
+ * (file and line index) for block-gzip compressed ones.
+ */
+final class AtomicChannels {
+
+	/**
+	 * Abort all files, keeping the first error
+	 */
+	static void abort(List<AtomicFile> files, Throwable cause) {
+		for (AtomicFile file : files) {
+			try {
+				file.abort();
+			} catch (IOException e) {
+				cause.addSuppressed(e);
+			}
+		}
+	}
+
+	/**
+	 * Open a channel that writes to temporary files, compressed if the file name
+	 * ends with {@link Props#GZIP_SUFFIX}
+	 *
+	 * @param fileName the file to publish to
+	 * @param policy   when to force the content to the storage device
+	 * @param files    receives the temporary files, in the order they are published
+	 * @return the channel to write to
+	 */
+	static WritableByteChannel open(String fileName, FsyncPolicy policy, List<AtomicFile> files) throws IOException {
+		AtomicFile file = AtomicFile.create(Paths.get(fileName), policy);
+		files.add(file);
+		if (!fileName.endsWith(Props.GZIP_SUFFIX))
+			return file;
+		try {
+			AtomicFile index = AtomicFile.create(Paths.get(fileName + Props.GZIP_INDEX_SUFFIX), policy);
+			files.add(index);
+			return new BlockGzipChannel(file, index);
+		} catch (IOException e) {
+			abort(files, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Finish writing to the channel and prepare the files for publication. All
+	 * files are aborted if this fails.
+	 */
+	static void prepare(WritableByteChannel channel, List<AtomicFile> files) throws IOException {
+		try {
+			if (channel instanceof BlockGzipChannel)
+				((BlockGzipChannel) channel).finish();
+			for (AtomicFile file : files)
+				file.prepare();
+		} catch (IOException | RuntimeException e) {
+			abort(files, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Publish prepared files, the files that are not published yet are aborted if
+	 * this fails
+	 */
+	static void publish(List<AtomicFile> files) throws IOException {
+		try {
+			for (AtomicFile file : files)
+				file.publish();
+		} catch (IOException | RuntimeException e) {
+			abort(files, e);
+			throw e;
+		}
+	}
+
+	private AtomicChannels() {
+	}
+
+}
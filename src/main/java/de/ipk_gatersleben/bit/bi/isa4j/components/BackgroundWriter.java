@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ipk_gatersleben.bit.bi.isa4j.util.Utf8Buffer;
+
+/**
+ * Writes filled buffers to a channel on a dedicated I/O thread, so that building
+ * and rendering lines is not blocked by the disk or a slow stream. Buffers are
+ * handed over through a bounded queue: if the I/O thread falls behind by more
+ * than the queue capacity, {@link #submit(Utf8Buffer)} blocks until a buffer was
+ * written (backpressure). Written buffers are recycled, so apart from the
+ * buffers in the queue no memory is allocated.
+ *
+ * An error of the I/O thread is reported on the next call of
+ * {@link #checkFailure()}, {@link #submit(Utf8Buffer)} or {@link #close()}.
+ */
+class BackgroundWriter {
+
+	private static final Logger logger = LoggerFactory.getLogger(BackgroundWriter.class);
+
+	/**
+	 * Marks the end of the queue, the I/O thread stops when it takes this buffer
+	 */
+	private static final Utf8Buffer POISON = new Utf8Buffer(0);
+
+	private final int bufferCapacity;
+
+	private final WritableByteChannel channel;
+
+	private volatile Exception failure;
+
+	private final BlockingQueue<Utf8Buffer> filled;
+
+	private final BlockingQueue<Utf8Buffer> free;
+
+	private final String name;
+
+	private final Thread thread;
+
+	/**
+	 * @param channel        the channel to write to
+	 * @param name           name of the file or stream, used for the thread name and messages
+	 * @param queueCapacity  the maximum number of filled buffers waiting to be written
+	 * @param bufferCapacity initial capacity of newly allocated buffers
+	 */
+	BackgroundWriter(WritableByteChannel channel, String name, int queueCapacity, int bufferCapacity) {
+		this.channel = channel;
+		this.name = name;
+		this.bufferCapacity = bufferCapacity;
+		this.filled = new ArrayBlockingQueue<Utf8Buffer>(queueCapacity + 1);
+		this.free = new ArrayBlockingQueue<Utf8Buffer>(queueCapacity + 1);
+		this.thread = new Thread(this::run, "isa4j-writer-" + name);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Throw the error of the I/O thread, if there was one
+	 *
+	 * @throws IOException if writing in the background failed
+	 */
+	void checkFailure() throws IOException {
+		if (this.failure != null)
+			throw new IOException("Writing to '" + this.name + "' in the background failed", this.failure);
+	}
+
+	/**
+	 * Wait until all submitted buffers are written and stop the I/O thread. The
+	 * channel is not closed.
+	 *
+	 * @throws IOException if writing in the background failed
+	 */
+	void close() throws IOException {
+		try {
+			this.filled.put(POISON);
+			this.thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for '" + this.name + "' to be written");
+		}
+		this.checkFailure();
+	}
+
+	private void run() {
+		try {
+			while (true) {
+				Utf8Buffer buffer = this.filled.take();
+				if (buffer == POISON)
+					return;
+				// After a failure the remaining buffers are only recycled, so that producers don't block
+				if (this.failure == null) {
+					try {
+						BufferFlushEvent event = new BufferFlushEvent();
+						event.begin();
+						long bytes = buffer.size();
+						buffer.writeTo(this.channel);
+						event.end();
+						if (event.shouldCommit()) {
+							event.fileName = this.name;
+							event.bytes = bytes;
+							event.background = true;
+							event.commit();
+						}
+					} catch (IOException | RuntimeException e) {
+						logger.error("{}: Writing in the background failed", this.name, e);
+						this.failure = e;
+					}
+				}
+				buffer.clear();
+				this.free.offer(buffer);
+			}
+		} catch (InterruptedException e) {
+			this.failure = new InterruptedIOException("I/O thread was interrupted");
+		}
+	}
+
+	/**
+	 * Hand over a filled buffer to be written in the background. Blocks if the queue
+	 * is full.
+	 *
+	 * @param buffer the buffer to write, must not be used by the caller anymore
+	 * @return an empty buffer to continue with
+	 * @throws IOException if writing in the background failed
+	 */
+	Utf8Buffer submit(Utf8Buffer buffer) throws IOException {
+		this.checkFailure();
+		try {
+			this.filled.put(buffer);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for '" + this.name + "' to be written");
+		}
+		Utf8Buffer next = this.free.poll();
+		return next != null ? next : new Utf8Buffer(this.bufferCapacity);
+	}
+
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of handing a buffer of rendered lines to the file or
+ * stream of an investigation, Study or Assay file (including compression)
+ */
+@Name("de.ipk_gatersleben.bit.bi.isa4j.BufferFlush")
+@Label("Buffer Flush")
+@Category({ "isa4j", "Write Path" })
+@Description("Writing of a buffer of rendered lines to the file or stream")
+@StackTrace(false)
+final class BufferFlushEvent extends jdk.jfr.Event {
+
+	@Label("Background")
+	@Description("Written by the I/O thread of the async mode")
+	boolean background;
+
+	@Label("Size")
+	@DataAmount
+	long bytes;
+
+	@Label("File")
+	String fileName;
+
+}
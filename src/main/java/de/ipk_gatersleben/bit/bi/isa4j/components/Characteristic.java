@@ -14,6 +14,12 @@ import de.ipk_gatersleben.bit.bi.isa4j.util.StringUtil;
 public class Characteristic {
 	
 	private String category;
+
+	/**
+	 * The indexes of the lists this characteristic was added to
+	 */
+	private final ItemIndex.Owners indexes = new ItemIndex.Owners();
+
 	private OntologyAnnotation value;
 	
 	public Characteristic(String category, OntologyAnnotation value) {
@@ -35,12 +41,21 @@ public class Characteristic {
 		return value;
 	}
 
+	/**
+	 * @return the indexes this characteristic was added to, see {@link ItemIndex}
+	 */
+	ItemIndex.Owners indexes() {
+		return this.indexes;
+	}
+
 	/**
 	 * Sets the category of this characteristic, i.e. the part that will be
 	 * printed in the header of the ISA file: Characteristic[category]
 	 * @param category the category to set
 	 */
 	public void setCategory(String category) {
+		if (this.category != null)
+			this.indexes.keyChanged();
 		this.category = StringUtil.sanitize(Objects.requireNonNull(category, "Characteristic category cannot be null"));
 	}
 
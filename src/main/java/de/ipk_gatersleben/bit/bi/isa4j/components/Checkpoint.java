@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+import java.util.Properties;
+
+import de.ipk_gatersleben.bit.bi.isa4j.constants.Props;
+
+/**
+ * A point up to which a {@link Study} or {@link Assay} file that is written in
+ * resume mode (see {@link WideTableFile#resumeFile(ColumnPlan)}) is known to be
+ * complete: the number of lines (without the header), the size of the file in
+ * bytes and a hash of the header. Checkpoints are recorded in a small sidecar
+ * file next to the Study or Assay file (see {@link Props#CHECKPOINT_SUFFIX}),
+ * which is deleted when the file is closed.
+ */
+public final class Checkpoint {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static final String OFFSET = "offset";
+
+	private static final String ROWS = "rows";
+
+	private static final String SCHEMA = "schema";
+
+	/**
+	 * Read the checkpoint of a sidecar file
+	 *
+	 * @return the checkpoint or an empty Optional if there is no sidecar file
+	 */
+	static Optional<Checkpoint> read(Path sidecar) throws IOException {
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(sidecar, Props.DEFAULT_CHARSET)) {
+			properties.load(reader);
+		} catch (NoSuchFileException e) {
+			return Optional.empty();
+		}
+		try {
+			return Optional.of(new Checkpoint(Long.parseLong(properties.getProperty(ROWS)),
+					Long.parseLong(properties.getProperty(OFFSET)), properties.getProperty(SCHEMA)));
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid checkpoint file " + sidecar, e);
+		}
+	}
+
+	/**
+	 * @return the hex encoded SHA-256 hash of the header line of the plan
+	 */
+	static String schemaHash(ColumnPlan plan) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(plan.getEncodedHeader());
+			char[] hex = new char[hash.length * 2];
+			for (int i = 0; i < hash.length; i++) {
+				hex[2 * i] = HEX[(hash[i] >> 4) & 0xF];
+				hex[2 * i + 1] = HEX[hash[i] & 0xF];
+			}
+			return new String(hex);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	private final long byteOffset;
+
+	private final long rowCount;
+
+	private final String schemaHash;
+
+	Checkpoint(long rowCount, long byteOffset, String schemaHash) {
+		this.rowCount = rowCount;
+		this.byteOffset = byteOffset;
+		this.schemaHash = schemaHash;
+	}
+
+	/**
+	 * @return the size of the file in bytes up to the end of the last line
+	 */
+	public long getByteOffset() {
+		return this.byteOffset;
+	}
+
+	/**
+	 * @return the number of lines in the file, without the header
+	 */
+	public long getRowCount() {
+		return this.rowCount;
+	}
+
+	/**
+	 * @return the hex encoded SHA-256 hash of the header line
+	 */
+	public String getSchemaHash() {
+		return this.schemaHash;
+	}
+
+	@Override
+	public String toString() {
+		return "<Checkpoint> " + this.rowCount + " rows, " + this.byteOffset + " bytes, schema " + this.schemaHash;
+	}
+
+	/**
+	 * Replace the sidecar file atomically with this checkpoint
+	 */
+	void write(Path sidecar) throws IOException {
+		String content = ROWS + "=" + this.rowCount + "\n" + OFFSET + "=" + this.byteOffset + "\n" + SCHEMA + "="
+				+ this.schemaHash + "\n";
+		Path temporary = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+		Files.write(temporary, content.getBytes(Props.DEFAULT_CHARSET));
+		Files.move(temporary, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
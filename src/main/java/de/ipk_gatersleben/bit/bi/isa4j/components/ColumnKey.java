@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.ipk_gatersleben.bit.bi.isa4j.constants.StudyAssayAttribute;
+import de.ipk_gatersleben.bit.bi.isa4j.util.StringUtil;
+
+/**
+ * The key of a named column group in a {@link Study} or {@link Assay} file, e.g.
+ * "Characteristics[Organism]" for the attribute
+ * {@link StudyAssayAttribute#CHARACTERISTICS} and the name "Organism".
+ *
+ * Keys are interned in a global symbol table, so every line of every file uses
+ * the same key (and the same header String) for the same column instead of
+ * building the header anew for every object. As the header Strings are
+ * canonical, {@link RowRenderer} can compare them with the {@link ColumnPlan} by
+ * identity in the common case.
+ *
+ * The table is bounded: once an attribute has {@link #MAX_INTERNED} names, keys
+ * for new names are still created but not kept.
+ */
+final class ColumnKey {
+
+	/**
+	 * Maximum number of names interned per attribute, so that generated names
+	 * (e.g. a Comment with a different name on every line) cannot fill the memory
+	 */
+	static final int MAX_INTERNED = 1 << 16;
+
+	private static final Map<StudyAssayAttribute, ConcurrentHashMap<String, ColumnKey>> table = new EnumMap<StudyAssayAttribute, ConcurrentHashMap<String, ColumnKey>>(
+			StudyAssayAttribute.class);
+
+	static {
+		for (StudyAssayAttribute attribute : StudyAssayAttribute.values())
+			table.put(attribute, new ConcurrentHashMap<String, ColumnKey>());
+	}
+
+	/**
+	 * Get the canonical key of a column group
+	 *
+	 * @param attribute the attribute with a wildcard for the name, e.g.
+	 *                  {@link StudyAssayAttribute#COMMENT}
+	 * @param name      the name to put into the attribute
+	 * @return the key
+	 */
+	static ColumnKey of(StudyAssayAttribute attribute, String name) {
+		ConcurrentHashMap<String, ColumnKey> names = table.get(attribute);
+		ColumnKey key = names.get(name);
+		if (key != null)
+			return key;
+		key = new ColumnKey(attribute, name);
+		if (names.size() >= MAX_INTERNED)
+			return key;
+		ColumnKey interned = names.putIfAbsent(name, key);
+		return interned == null ? key : interned;
+	}
+
+	private final StudyAssayAttribute attribute;
+
+	private final int hash;
+
+	private final String header;
+
+	private final String name;
+
+	private ColumnKey(StudyAssayAttribute attribute, String name) {
+		this.attribute = attribute;
+		this.name = name;
+		this.header = StringUtil.putNameInAttribute(attribute, name);
+		this.hash = this.header.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof ColumnKey))
+			return false;
+		ColumnKey other = (ColumnKey) obj;
+		return this.hash == other.hash && this.attribute == other.attribute && this.name.equals(other.name);
+	}
+
+	StudyAssayAttribute getAttribute() {
+		return this.attribute;
+	}
+
+	/**
+	 * @return the header of the column group as written to the file, e.g.
+	 *         "Characteristics[Organism]"
+	 */
+	String getHeader() {
+		return this.header;
+	}
+
+	String getName() {
+		return this.name;
+	}
+
+	@Override
+	public int hashCode() {
+		return this.hash;
+	}
+
+	@Override
+	public String toString() {
+		return this.header;
+	}
+
+}
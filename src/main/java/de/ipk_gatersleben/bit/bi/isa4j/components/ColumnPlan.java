@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import de.ipk_gatersleben.bit.bi.isa4j.constants.Symbol;
+import de.ipk_gatersleben.bit.bi.isa4j.util.Utf8Buffer;
+
+/**
+ * The compiled column layout of a {@link Study} or {@link Assay} file. A plan is
+ * created once from an exemplary line (see
+ * {@link WideTableFile#writeHeadersFromExample(StudyOrAssayTableObject)}) and
+ * describes for every object slot in the line (Source, Process, Sample...) which
+ * column groups it contributes and how many columns each group spans. Following
+ * lines are then rendered by walking this plan instead of building and comparing
+ * header maps for every line.
+ *
+ * A plan is immutable and can be shared by several files with the same schema,
+ * see {@link WideTableFile#writeHeaders(ColumnPlan)}.
+ */
+public final class ColumnPlan {
+
+	/**
+	 * Compile the column plan from an exemplary line.
+	 *
+	 * @param example the first object of the line (e.g. a {@link Source})
+	 * @return the compiled plan
+	 */
+	public static ColumnPlan compile(StudyOrAssayTableObject example) {
+		Objects.requireNonNull(example, "Cannot compile a column plan without an example");
+		HeaderCompilationEvent event = new HeaderCompilationEvent();
+		event.begin();
+		List<LinkedHashMap<String, String[]>> headerGroups = new ArrayList<LinkedHashMap<String, String[]>>();
+		while (example != null) {
+			headerGroups.add(example.getHeaders());
+			example = example.getNextStudyOrAssayTableObject();
+		}
+		ColumnPlan plan = new ColumnPlan(headerGroups);
+		event.end();
+		if (event.shouldCommit()) {
+			event.slots = plan.getSlotCount();
+			event.columns = plan.getColumnCount();
+			event.headerBytes = plan.getEncodedHeader().length;
+			event.commit();
+		}
+		return plan;
+	}
+
+	/**
+	 * All column headers of a line, e.g. {"Source Name", "Characteristics[Organism]", "Term Source REF"...}
+	 */
+	private final String[] columns;
+
+	/**
+	 * The header line as it is written to the file (without line break)
+	 */
+	private final String header;
+
+	/**
+	 * Group keys per slot, e.g. keys[0] = {"Source Name", "Characteristics[Organism]"}
+	 */
+	private final String[][] keys;
+
+	/**
+	 * Number of columns per group and slot, e.g. widths[0] = {1, 3}
+	 */
+	private final int[][] widths;
+
+	/**
+	 * The header line encoded in the default charset, including the line break
+	 */
+	private final byte[] encodedHeader;
+
+	private ColumnPlan(List<LinkedHashMap<String, String[]>> headerGroups) {
+		this.keys = new String[headerGroups.size()][];
+		this.widths = new int[headerGroups.size()][];
+
+		List<String> columns = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		for (int slot = 0; slot < headerGroups.size(); slot++) {
+			LinkedHashMap<String, String[]> groups = headerGroups.get(slot);
+			this.keys[slot] = new String[groups.size()];
+			this.widths[slot] = new int[groups.size()];
+			int group = 0;
+			for (Map.Entry<String, String[]> entry : groups.entrySet()) {
+				this.keys[slot][group] = entry.getKey();
+				this.widths[slot][group] = entry.getValue().length;
+				for (String column : entry.getValue()) {
+					if (columns.size() > 0)
+						sb.append(Symbol.TAB.toString());
+					sb.append(column);
+					columns.add(column);
+				}
+				group++;
+			}
+		}
+		this.header = sb.toString();
+		this.encodedHeader = Utf8Buffer.encode(this.header + Symbol.ENTER);
+		this.columns = columns.toArray(new String[0]);
+	}
+
+	/**
+	 * @return the total number of columns in a line
+	 */
+	public int getColumnCount() {
+		return this.columns.length;
+	}
+
+	String[] getColumns() {
+		return this.columns;
+	}
+
+	byte[] getEncodedHeader() {
+		return this.encodedHeader;
+	}
+
+	String getHeader() {
+		return this.header;
+	}
+
+	String[] getKeys(int slot) {
+		return this.keys[slot];
+	}
+
+	/**
+	 * @return the number of objects (Sources, Processes, Samples...) in a line
+	 */
+	public int getSlotCount() {
+		return this.keys.length;
+	}
+
+	int[] getWidths(int slot) {
+		return this.widths[slot];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("<ColumnPlan> [");
+		for (int slot = 0; slot < this.keys.length; slot++) {
+			if (slot > 0)
+				sb.append(", ");
+			sb.append("{");
+			for (int group = 0; group < this.keys[slot].length; group++) {
+				if (group > 0)
+					sb.append(", ");
+				sb.append(this.keys[slot][group]).append(" = ").append(this.widths[slot][group]);
+			}
+			sb.append("}");
+		}
+		return sb.append("]").toString();
+	}
+
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+
+/**
+ * Many lines of a {@link Study} or {@link Assay} file given as columns, e.g. a
+ * String[] of sample names, a double[] of volumes and a String[] of file paths,
+ * to be written with {@link WideTableFile#writeColumns(ColumnarLines)}.
+ *
+ * The structure of the lines is given by a template line built from the usual
+ * objects (Source-&gt;Process-&gt;Sample...) with all Characteristics,
+ * ParameterValues, FactorValues and Comments that have a column. For every line,
+ * the values of the columns are set on the template objects before it is
+ * rendered, so the output is the same as writing one line of objects per row and
+ * no objects are created per line. Everything that is not given as a column
+ * (Protocols, units, constant Characteristics...) is written as in the template.
+ *
+ * The template objects are changed while writing. An instance is not
+ * thread-safe.
+ */
+public class ColumnarLines {
+
+	private final List<IntConsumer> columns = new ArrayList<IntConsumer>();
+
+	private int rowCount = -1;
+
+	private final StudyOrAssayTableObject[] slots;
+
+	/**
+	 * @param template the first object of the template line, linked to all others
+	 */
+	public ColumnarLines(StudyOrAssayTableObject template) {
+		Objects.requireNonNull(template, "Template line cannot be null");
+		List<StudyOrAssayTableObject> slots = new ArrayList<StudyOrAssayTableObject>();
+		for (StudyOrAssayTableObject object = template; object != null; object = object.getNextStudyOrAssayTableObject())
+			slots.add(object);
+		this.slots = slots.toArray(new StudyOrAssayTableObject[0]);
+	}
+
+	private void addColumn(int length, IntConsumer column) {
+		if (this.rowCount >= 0 && length != this.rowCount)
+			throw new IllegalArgumentException("Column has " + length + " values, the other columns have " + this.rowCount);
+		this.rowCount = length;
+		this.columns.add(column);
+	}
+
+	/**
+	 * Set the values of all columns of a line on the template objects
+	 */
+	void apply(int row) {
+		for (IntConsumer column : this.columns)
+			column.accept(row);
+	}
+
+	private FactorValue getFactorValue(int slot, Factor factor) {
+		for (FactorValue factorValue : this.getSlot(slot, Sample.class).getFactorValues()) {
+			if (factorValue.getCategory() == factor)
+				return factorValue;
+		}
+		throw new IllegalArgumentException("Sample in slot " + slot + " has no FactorValue for " + factor);
+	}
+
+	private ParameterValue getParameterValue(int slot, ProtocolParameter parameter) {
+		for (ParameterValue parameterValue : this.getSlot(slot, Process.class).getParameterValues()) {
+			if (parameterValue.getCategory() == parameter)
+				return parameterValue;
+		}
+		throw new IllegalArgumentException("Process in slot " + slot + " has no ParameterValue for " + parameter);
+	}
+
+	/**
+	 * @return the number of lines, 0 if no column was set
+	 */
+	public int getRowCount() {
+		return Math.max(0, this.rowCount);
+	}
+
+	private <T> T getSlot(int slot, Class<T> type) {
+		StudyOrAssayTableObject object = this.slots[slot];
+		if (!type.isInstance(object))
+			throw new IllegalArgumentException("Slot " + slot + " holds " + object + ", not a " + type.getSimpleName());
+		return type.cast(object);
+	}
+
+	StudyOrAssayTableObject getTemplate() {
+		return this.slots[0];
+	}
+
+	/**
+	 * Column of {@link Characteristic} terms
+	 *
+	 * @param slot     the position of the Source, Sample or Material in the line
+	 * @param category the category of a Characteristic of the template object
+	 * @param terms    the terms, one per line
+	 */
+	public void setCharacteristics(int slot, String category, String[] terms) {
+		Characteristic characteristic = this.getSlot(slot, Source.class).getCharacteristics().stream()
+				.filter(c -> c.getCategory().equals(category)).findFirst()
+				.orElseThrow(() -> new IllegalArgumentException("Slot " + slot + " has no Characteristic " + category));
+		OntologyAnnotation cell = cell(characteristic.getValue());
+		characteristic.setValue(cell);
+		this.addColumn(terms.length, row -> cell.setTerm(terms[row]));
+	}
+
+	/**
+	 * Column of {@link Comment} values, set like {@link Comment#setValue(String)}
+	 *
+	 * @param slot   the position of the object in the line
+	 * @param name   the name of a Comment of the template object
+	 * @param values the values, one per line
+	 */
+	public void setComments(int slot, String name, String[] values) {
+		Comment comment = this.getSlot(slot, Commentable.class).comments().getByName(name)
+				.orElseThrow(() -> new IllegalArgumentException("Slot " + slot + " has no Comment " + name));
+		this.addColumn(values.length, row -> comment.setValue(values[row]));
+	}
+
+	/**
+	 * Column of numeric {@link FactorValue}s
+	 *
+	 * @param slot   the position of the Sample in the line
+	 * @param factor the factor of a FactorValue of the template Sample
+	 * @param values the values, one per line
+	 */
+	public void setFactorValues(int slot, Factor factor, double[] values) {
+		OntologyAnnotation cell = cell(this.getFactorValue(slot, factor));
+		this.addColumn(values.length, row -> cell.setTerm(String.valueOf(values[row])));
+	}
+
+	/**
+	 * Column of {@link FactorValue}s
+	 *
+	 * @param slot   the position of the Sample in the line
+	 * @param factor the factor of a FactorValue of the template Sample
+	 * @param values the values, one per line
+	 */
+	public void setFactorValues(int slot, Factor factor, String[] values) {
+		OntologyAnnotation cell = cell(this.getFactorValue(slot, factor));
+		this.addColumn(values.length, row -> cell.setTerm(values[row]));
+	}
+
+	/**
+	 * Column of names of Sources, Samples or Materials, or of paths of
+	 * {@link DataFile}s
+	 *
+	 * @param slot  the position of the object in the line
+	 * @param names the names or paths, one per line
+	 */
+	public void setNames(int slot, String[] names) {
+		StudyOrAssayTableObject object = this.slots[slot];
+		if (object instanceof Source) {
+			Source source = (Source) object;
+			this.addColumn(names.length, row -> source.setName(names[row]));
+		} else if (object instanceof DataFile) {
+			DataFile dataFile = (DataFile) object;
+			this.addColumn(names.length, row -> dataFile.setPath(names[row]));
+		} else {
+			throw new IllegalArgumentException("Slot " + slot + " holds " + object + ", which has no name");
+		}
+	}
+
+	/**
+	 * Column of numeric {@link ParameterValue}s
+	 *
+	 * @param slot      the position of the Process in the line
+	 * @param parameter the parameter of a ParameterValue of the template Process
+	 * @param values    the values, one per line
+	 */
+	public void setParameterValues(int slot, ProtocolParameter parameter, double[] values) {
+		OntologyAnnotation cell = cell(this.getParameterValue(slot, parameter));
+		this.addColumn(values.length, row -> cell.setTerm(String.valueOf(values[row])));
+	}
+
+	/**
+	 * Column of integer {@link ParameterValue}s
+	 *
+	 * @param slot      the position of the Process in the line
+	 * @param parameter the parameter of a ParameterValue of the template Process
+	 * @param values    the values, one per line
+	 */
+	public void setParameterValues(int slot, ProtocolParameter parameter, long[] values) {
+		OntologyAnnotation cell = cell(this.getParameterValue(slot, parameter));
+		this.addColumn(values.length, row -> cell.setTerm(String.valueOf(values[row])));
+	}
+
+	/**
+	 * Column of {@link ParameterValue}s
+	 *
+	 * @param slot      the position of the Process in the line
+	 * @param parameter the parameter of a ParameterValue of the template Process
+	 * @param values    the values, one per line
+	 */
+	public void setParameterValues(int slot, ProtocolParameter parameter, String[] values) {
+		OntologyAnnotation cell = cell(this.getParameterValue(slot, parameter));
+		this.addColumn(values.length, row -> cell.setTerm(values[row]));
+	}
+
+	/**
+	 * Create an annotation that is changed for every line, so that no annotation
+	 * is created per line. It keeps the source REF and accession of the template's
+	 * annotation, which determine the columns of the header.
+	 */
+	private static OntologyAnnotation cell(OntologyAnnotation template) {
+		if (template == null)
+			return new OntologyAnnotation("");
+		return new OntologyAnnotation("", template.getTermAccession(), template.getSourceREF());
+	}
+
+	/**
+	 * Give a value an annotation of its own, see {@link #cell(OntologyAnnotation)}
+	 */
+	private static OntologyAnnotation cell(Value<?> value) {
+		OntologyAnnotation cell = cell(value.getValue());
+		value.setValue(cell);
+		return cell;
+	}
+
+}
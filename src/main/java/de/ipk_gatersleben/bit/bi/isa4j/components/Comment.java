@@ -20,6 +20,11 @@ import de.ipk_gatersleben.bit.bi.isa4j.util.StringUtil;
  */
 public class Comment {
 
+	/**
+	 * The indexes of the lists this comment was added to
+	 */
+	private final ItemIndex.Owners indexes = new ItemIndex.Owners();
+
 	/**
 	 * The name of the {@link Comment}.
 	 */
@@ -57,6 +62,8 @@ public class Comment {
 	 * @param name name of the {@link Comment}. Cannot be null
 	 */
 	public void setName(String name) {
+		if (this.name != null)
+			this.indexes.keyChanged();
 		this.name = StringUtil.sanitize(Objects.requireNonNull(name, "Comment name cannot be null"));
 	}
 
@@ -78,6 +85,13 @@ public class Comment {
 		this.value = StringUtil.sanitize(value);
 	}
 
+	/**
+	 * @return the indexes this comment was added to, see {@link ItemIndex}
+	 */
+	ItemIndex.Owners indexes() {
+		return this.indexes;
+	}
+
 	@Override
 	public String toString() {
 		return "<Comment> '" + this.name + "': " + this.value + "'";
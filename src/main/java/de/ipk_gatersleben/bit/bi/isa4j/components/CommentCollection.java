@@ -8,6 +8,7 @@
 package de.ipk_gatersleben.bit.bi.isa4j.components;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -24,6 +25,13 @@ public class CommentCollection {
 
 	private List<Comment> comments = new ArrayList<Comment>();
 
+	/**
+	 * Whether the collection belongs to a shared object and cannot be changed
+	 */
+	private boolean frozen = false;
+
+	private final ItemIndex<Comment, String> names = new ItemIndex<Comment, String>(Comment::getName, Comment::indexes);
+
 	/**
 	 * Adds a new Comment to the collection.
 	 * 
@@ -31,9 +39,23 @@ public class CommentCollection {
 	 *                {@link RedundantItemException} will be thrown.
 	 */
 	public void add(Comment comment) {
-		if (this.comments.stream().map(Comment::getName).anyMatch(comment.getName()::equals))
+		this.checkNotFrozen();
+		if (this.names.get(this.comments, comment.getName()) != null)
 			throw new RedundantItemException("Comment name not unique: " + comment.getName());
 		this.comments.add(comment);
+		this.names.added(comment);
+	}
+
+	private void checkNotFrozen() {
+		if (this.frozen)
+			throw new IllegalStateException("Comments of a shared object cannot be changed");
+	}
+
+	/**
+	 * Make the collection unmodifiable, for objects that are shared
+	 */
+	void freeze() {
+		this.frozen = true;
 	}
 
 	/**
@@ -42,7 +64,7 @@ public class CommentCollection {
 	 * @return the comments
 	 */
 	public List<Comment> getAll() {
-		return comments;
+		return this.frozen ? Collections.unmodifiableList(this.comments) : this.comments;
 	}
 
 	/**
@@ -53,7 +75,7 @@ public class CommentCollection {
 	 *         no one with the given name was found.
 	 */
 	public Optional<Comment> getByName(String name) {
-		return this.comments.stream().filter(c -> c.getName().equals(name)).findFirst();
+		return Optional.ofNullable(name == null ? null : this.names.get(this.comments, name));
 	}
 
 	/**
@@ -63,6 +85,7 @@ public class CommentCollection {
 	 * @param comments the {@link List} of {@link Comment}s to set
 	 */
 	public void set(List<Comment> comments) {
+		this.checkNotFrozen();
 		this.comments.clear();
 		comments.stream().forEach(this::add);
 	}
@@ -59,6 +59,14 @@ public class DataFile extends StudyOrAssayTableObject implements Commentable {
 		
 		return headers;
 	}
+	/**
+	 * Please refer to documentation on StudyOrAssayTableObject.renderFields
+	 */
+	void renderFields(RowRenderer row) {
+		row.field(this.type, this.path);
+		row.comments(this.comments);
+	}
+	
 	/**
 	 * @return the path
 	 */
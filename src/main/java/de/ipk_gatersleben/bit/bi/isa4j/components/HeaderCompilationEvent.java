@@ -0,0 +1,38 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of the compilation of a {@link ColumnPlan} from an
+ * example line, i.e. of collecting the headers of all objects of the line
+ */
+@Name("de.ipk_gatersleben.bit.bi.isa4j.HeaderCompilation")
+@Label("Header Compilation")
+@Category({ "isa4j", "Write Path" })
+@Description("Compilation of the column plan of a Study or Assay file from an example line")
+@StackTrace(false)
+final class HeaderCompilationEvent extends jdk.jfr.Event {
+
+	@Label("Columns")
+	int columns;
+
+	@Label("Header Size")
+	@DataAmount
+	long headerBytes;
+
+	@Label("Objects per Line")
+	int slots;
+
+}
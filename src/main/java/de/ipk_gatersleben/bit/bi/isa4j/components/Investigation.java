@@ -10,14 +10,15 @@ package de.ipk_gatersleben.bit.bi.isa4j.components;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,7 +27,11 @@ import de.ipk_gatersleben.bit.bi.isa4j.constants.InvestigationAttribute;
 import de.ipk_gatersleben.bit.bi.isa4j.constants.Props;
 import de.ipk_gatersleben.bit.bi.isa4j.constants.Symbol;
 import de.ipk_gatersleben.bit.bi.isa4j.exceptions.RedundantItemException;
+import de.ipk_gatersleben.bit.bi.isa4j.util.AtomicFile;
+import de.ipk_gatersleben.bit.bi.isa4j.util.BlockGzipChannel;
+import de.ipk_gatersleben.bit.bi.isa4j.util.FsyncPolicy;
 import de.ipk_gatersleben.bit.bi.isa4j.util.StringUtil;
+import de.ipk_gatersleben.bit.bi.isa4j.util.Utf8Buffer;
 
 /**
  * Class to represent an Investigation in the ISA Context, which contains the
@@ -34,6 +39,101 @@ import de.ipk_gatersleben.bit.bi.isa4j.util.StringUtil;
  */
 public class Investigation implements Commentable {
 	
+	/**
+	 * Output is handed to the file or stream in chunks of (at least) this size
+	 */
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+	
+	/*
+	 * Names of the lines of the sections that list several objects side by side, see SectionLines
+	 */
+	private static final String[] ASSAY_LINES = lineNames(
+			InvestigationAttribute.STUDY_ASSAY_FILE_NAME,
+			InvestigationAttribute.STUDY_ASSAY_MEASUREMENT_TYPE,
+			subLine(InvestigationAttribute.STUDY_ASSAY_MEASUREMENT_TYPE, InvestigationAttribute.TERM_ACCESSION_NUMBER),
+			subLine(InvestigationAttribute.STUDY_ASSAY_MEASUREMENT_TYPE, InvestigationAttribute.TERM_SOURCE_REF),
+			InvestigationAttribute.STUDY_ASSAY_TECHNOLOGY_TYPE,
+			subLine(InvestigationAttribute.STUDY_ASSAY_TECHNOLOGY_TYPE, InvestigationAttribute.TERM_ACCESSION_NUMBER),
+			subLine(InvestigationAttribute.STUDY_ASSAY_TECHNOLOGY_TYPE, InvestigationAttribute.TERM_SOURCE_REF),
+			InvestigationAttribute.STUDY_ASSAY_TECHNOLOGY_PLATFORM);
+	
+	private static final String[] DESIGN_DESCRIPTOR_LINES = lineNames(
+			InvestigationAttribute.STUDY_DESIGN_TYPE,
+			subLine(InvestigationAttribute.STUDY_DESIGN_TYPE, InvestigationAttribute.TERM_ACCESSION_NUMBER),
+			subLine(InvestigationAttribute.STUDY_DESIGN_TYPE, InvestigationAttribute.TERM_SOURCE_REF));
+	
+	private static final String[] FACTOR_LINES = lineNames(
+			InvestigationAttribute.STUDY_FACTOR_NAME,
+			InvestigationAttribute.STUDY_FACTOR_TYPE,
+			subLine(InvestigationAttribute.STUDY_FACTOR_TYPE, InvestigationAttribute.TERM_ACCESSION_NUMBER),
+			subLine(InvestigationAttribute.STUDY_FACTOR_TYPE, InvestigationAttribute.TERM_SOURCE_REF));
+	
+	private static final String[] INVESTIGATION_CONTACT_LINES = lineNames(
+			InvestigationAttribute.INVESTIGATION_PERSON_LAST_NAME,
+			InvestigationAttribute.INVESTIGATION_PERSON_FIRST_NAME,
+			InvestigationAttribute.INVESTIGATION_PERSON_MID_INITIALS,
+			InvestigationAttribute.INVESTIGATION_PERSON_EMAIL,
+			InvestigationAttribute.INVESTIGATION_PERSON_PHONE,
+			InvestigationAttribute.INVESTIGATION_PERSON_FAX,
+			InvestigationAttribute.INVESTIGATION_PERSON_ADDRESS,
+			InvestigationAttribute.INVESTIGATION_PERSON_AFFILIATION,
+			InvestigationAttribute.INVESTIGATION_PERSON_ROLES,
+			subLine(InvestigationAttribute.INVESTIGATION_PERSON_ROLES, InvestigationAttribute.TERM_ACCESSION_NUMBER),
+			subLine(InvestigationAttribute.INVESTIGATION_PERSON_ROLES, InvestigationAttribute.TERM_SOURCE_REF));
+	
+	private static final String[] INVESTIGATION_PUBLICATION_LINES = lineNames(
+			InvestigationAttribute.INVESTIGATION_PUBMED_ID,
+			InvestigationAttribute.INVESTIGATION_PUBLICATION_DOI,
+			InvestigationAttribute.INVESTIGATION_PUBLICATION_AUTHOR_LIST,
+			InvestigationAttribute.INVESTIGATION_PUBLICATION_TITLE,
+			InvestigationAttribute.INVESTIGATION_PUBLICATION_STATUS,
+			subLine(InvestigationAttribute.INVESTIGATION_PUBLICATION_STATUS, InvestigationAttribute.TERM_ACCESSION_NUMBER),
+			subLine(InvestigationAttribute.INVESTIGATION_PUBLICATION_STATUS, InvestigationAttribute.TERM_SOURCE_REF));
+	
+	private static final String[] ONTOLOGY_LINES = lineNames(
+			InvestigationAttribute.TERM_SOURCE_NAME,
+			InvestigationAttribute.TERM_SOURCE_FILE,
+			InvestigationAttribute.TERM_SOURCE_VERSION,
+			InvestigationAttribute.TERM_SOURCE_DESCRIPTION);
+	
+	private static final String[] PROTOCOL_LINES = lineNames(
+			InvestigationAttribute.STUDY_PROTOCOL_NAME,
+			InvestigationAttribute.STUDY_PROTOCOL_TYPE,
+			subLine(InvestigationAttribute.STUDY_PROTOCOL_TYPE, InvestigationAttribute.TERM_ACCESSION_NUMBER),
+			subLine(InvestigationAttribute.STUDY_PROTOCOL_TYPE, InvestigationAttribute.TERM_SOURCE_REF),
+			InvestigationAttribute.STUDY_PROTOCOL_DESCRIPTION,
+			InvestigationAttribute.STUDY_PROTOCOL_URI,
+			InvestigationAttribute.STUDY_PROTOCOL_VERSION,
+			InvestigationAttribute.STUDY_PROTOCOL_PARAMETERS_NAME,
+			subLine(InvestigationAttribute.STUDY_PROTOCOL_PARAMETERS_NAME, InvestigationAttribute.TERM_ACCESSION_NUMBER),
+			subLine(InvestigationAttribute.STUDY_PROTOCOL_PARAMETERS_NAME, InvestigationAttribute.TERM_SOURCE_REF),
+			InvestigationAttribute.STUDY_PROTOCOL_COMPONENTS_NAME,
+			InvestigationAttribute.STUDY_PROTOCOL_COMPONENTS_TYPE,
+			subLine(InvestigationAttribute.STUDY_PROTOCOL_COMPONENTS_TYPE, InvestigationAttribute.TERM_ACCESSION_NUMBER),
+			subLine(InvestigationAttribute.STUDY_PROTOCOL_COMPONENTS_TYPE, InvestigationAttribute.TERM_SOURCE_REF));
+	
+	private static final String[] STUDY_CONTACT_LINES = lineNames(
+			InvestigationAttribute.STUDY_PERSON_LAST_NAME,
+			InvestigationAttribute.STUDY_PERSON_FIRST_NAME,
+			InvestigationAttribute.STUDY_PERSON_MID_INITIALS,
+			InvestigationAttribute.STUDY_PERSON_EMAIL,
+			InvestigationAttribute.STUDY_PERSON_PHONE,
+			InvestigationAttribute.STUDY_PERSON_FAX,
+			InvestigationAttribute.STUDY_PERSON_ADDRESS,
+			InvestigationAttribute.STUDY_PERSON_AFFILIATION,
+			InvestigationAttribute.STUDY_PERSON_ROLES,
+			subLine(InvestigationAttribute.STUDY_PERSON_ROLES, InvestigationAttribute.TERM_ACCESSION_NUMBER),
+			subLine(InvestigationAttribute.STUDY_PERSON_ROLES, InvestigationAttribute.TERM_SOURCE_REF));
+	
+	private static final String[] STUDY_PUBLICATION_LINES = lineNames(
+			InvestigationAttribute.STUDY_PUBMED_ID,
+			InvestigationAttribute.STUDY_PUBLICATION_DOI,
+			InvestigationAttribute.STUDY_PUBLICATION_AUTHOR_LIST,
+			InvestigationAttribute.STUDY_PUBLICATION_TITLE,
+			InvestigationAttribute.STUDY_PUBLICATION_STATUS,
+			subLine(InvestigationAttribute.STUDY_PUBLICATION_STATUS, InvestigationAttribute.TERM_ACCESSION_NUMBER),
+			subLine(InvestigationAttribute.STUDY_PUBLICATION_STATUS, InvestigationAttribute.TERM_SOURCE_REF));
+	
 	/**
 	 * Pass a list of Commentables (Person, Publication...) and get back a String containing all comment lines
 	 * formatted in ISATab format.
@@ -59,59 +159,11 @@ public class Investigation implements Commentable {
 	 * @return Formatted lines containing the comments
 	 */
 	static <T extends Commentable> String formatComments(List<T> commentables) {
-		
-		// Turn the commentables into a list of lists of comments
-		List<List<Comment>> commentBuckets = commentables.stream()
-				.map(c -> c.comments().getAll())
-				.collect(Collectors.toList());
-		
-		// Get a List of all Comment types present in any of the buckets
-		List<String> commentLevels = commentBuckets.stream()
-				.flatMap(bucket -> bucket.stream()) // flatten
-				.map(comment -> comment.getName())
-				.distinct() // remove duplicates
-				.collect(Collectors.toList());
-		
-		// Now loop through all comment types and create a line for each
-		StringBuilder sb = new StringBuilder();
-		for(String commentType : commentLevels) {
-			sb.append(StringUtil.putNameInAttribute(InvestigationAttribute.COMMENT, commentType) + Symbol.TAB);
-			// Now loop through all the buckets and see if that comment type is present
-			String commentLine = commentBuckets.stream()
-				// For each bucket -> go through each comment
-				.map(bucket -> bucket.stream()
-					// Filter out only comments of the current type
-					.filter(comment -> comment.getName().equals(commentType))
-					// Get the contents of these comments
-					.map(comment -> comment.getValue())
-					// Join them all together by semicolons (it could be the case that a person has two comments with the same type)
-					.collect(Collectors.joining(Symbol.SEMICOLON.toString())))
-				// Join all the buckets by TABs
-				.collect(Collectors.joining(Symbol.TAB.toString()));
-			sb.append(commentLine);
-			sb.append(Symbol.ENTER.toString());
-		}
-		return sb.toString();
+		Utf8Buffer buffer = new Utf8Buffer(256);
+		writeComments(buffer, commentables);
+		return buffer.toString();
 	}
 	
-	/**
-	 * Format a simple single-column attribute like Investigation Title.
-	 * 
-	 * formatSimpleAttribute(InvestigationAttributes.INVESTIGATION_TITLE, "Title #1");
-	 * 
-	 * -- Result --
-	 * Investigation Title	Title #1
-	 * 
-	 * @param lineName
-	 * @param value (can be null)
-	 * @return Line formatted in ISATab (contains line break)
-	 */
-	static String formatSimpleAttribute(InvestigationAttribute lineName, String value) {
-		return lineName.toString() + Symbol.TAB
-			+ (value == null ? Symbol.EMPTY.toString() : value)
-			+ Symbol.ENTER.toString();
-	}
-
 	/**
 	 * Format comments that don't have multiple columns (e.g. study comments or investigation comments)
 	 * They will be sorted by their name
@@ -119,71 +171,23 @@ public class Investigation implements Commentable {
 	 * @return comment lines formatted in ISA-Tab
 	 */
 	static String formatSimpleComments(List<Comment> comments) {
-		StringBuilder sb = new StringBuilder();
-		Collections.sort(comments, (c1, c2) -> c1.getName().compareTo(c2.getName()));
-		for (Comment c : comments) {
-			sb.append(StringUtil.putNameInAttribute(InvestigationAttribute.COMMENT, c.getName()) + Symbol.TAB);
-			sb.append(c.getValue()).append(Symbol.ENTER);
-		}
-		return sb.toString();
-	}
-
-	/**
-	 * This handy function creates a line of the investigation file from a list of Objects (Ontologies, Publications,
-	 * Contacts etc.) and a function to execute on each element of that list (each Ontology, Publication etc.) in order
-	 * to extract the content from that object that should go into the line. So, for example, if you want to create a line
-	 * containing all the names of the ontologies, your ontologies would be the list that's passed, and the function to get the
-	 * name of each ontology would be { ontology -> return ontology.getName(); }
-	 * That function is then executed for each ontology in the list and the results are joined with TABs (one column for each ontology).
-	 * In the beginning, the name of the line is printed and finally the line is finished with an ENTER.
-	 * @param <C> Type of Line Name (InvestigationAttribute, String...)
-	 * @param <T> Type of objects to iterate over (Ontology, Person, Publication...)
-	 * @param lineName Name of the line
-	 * @param list List of objects to iterate over
-	 * @param lambda Function to execute on each object in the list
-	 * @return The complete line
-	 */
-	static <C, T> String lineFromList(C lineName, List<T> list, Function<T, String> lambda) {
-		if(list.size() == 0)
-			return lineName.toString() + Symbol.ENTER;
-	
-		StringBuilder sb = new StringBuilder();
-		sb.append(lineName.toString() + Symbol.TAB); // Append the Line name
-		sb.append(list.stream()
-				.map(obj -> { // on each object in the list:
-					String result = lambda.apply(obj); // execute the function that was passed
-					return result == null ? Symbol.EMPTY.toString() : result; // if the result was null, replace with an empty string
-				})
-				.collect(Collectors.joining(Symbol.TAB.toString()))); // join all the strings together by TABs
-		sb.append(Symbol.ENTER.toString()); // Close the line with ENTER
-		return sb.toString();
+		Utf8Buffer buffer = new Utf8Buffer(256);
+		writeSimpleComments(buffer, comments);
+		return buffer.toString();
+	}
+
+	private static String[] lineNames(Object... names) {
+		String[] result = new String[names.length];
+		for (int i = 0; i < names.length; i++)
+			result[i] = names[i].toString();
+		return result;
 	}
 
 	/**
-	 * Built on lineFromList, pass a name, a list of things, and a lambda to extract an OntologyAnnotation from these things
-	 * and get a block of 3 ISATab formatted lines back describing the things.
-	 * 
-	 * ontologyLinesFromList(InvestigationAttribute.INVESTIGATION_PUBLICATION_STATUS, this.publications, p -> p.getStatusOntology())
-	 * 
-	 * -- Result --
-	 * Investigation Publication Status								Published	Other	Unpublished
-	 * Investigation Publication Status Term Accession Number		Acess.1				Access.2
-	 * Investigation Publication Status Term Source REF				Ontology1			Ontology1
-	 * 
-	 * @param <C>
-	 * @param <T>
-	 * @param lineName
-	 * @param list
-	 * @param lambda
-	 * @return 3 lines describing an ontology objects term, accession, and source reference
-	 */
-	static <C, T> String ontologyLinesFromList(C lineName, List<T> list, Function<T, OntologyAnnotation> lambda) {
-		return lineFromList(lineName, list,
-				a ->lambda.apply(a) == null ? Symbol.EMPTY.toString() : lambda.apply(a).getTerm())
-		+ lineFromList(lineName.toString() + Symbol.SPACE + InvestigationAttribute.TERM_ACCESSION_NUMBER, list,
-				a ->lambda.apply(a) == null ? Symbol.EMPTY.toString() : lambda.apply(a).getTermAccession())
-		+ lineFromList(lineName.toString() + Symbol.SPACE + InvestigationAttribute.TERM_SOURCE_REF, list,
-				a ->lambda.apply(a) == null || lambda.apply(a).getSourceREF() == null ? Symbol.EMPTY.toString() : lambda.apply(a).getSourceREF().getName());
+	 * Name of a line that further describes another, e.g. "Study Design Type Term Source REF"
+	 */
+	private static String subLine(InvestigationAttribute lineName, InvestigationAttribute suffix) {
+		return lineName.toString() + Symbol.SPACE + suffix;
 	}
 
 	private CommentCollection comments = new CommentCollection();
@@ -206,6 +210,11 @@ public class Investigation implements Commentable {
 	
 	private final Logger logger = LoggerFactory.getLogger(Investigation.class);
 
+	/**
+	 * Counters of the write path, null as long as metrics are disabled
+	 */
+	private volatile WriteMetrics metrics;
+
 	/**
 	 * The list of the used ontologies for this investigation {@link Ontology}
 	 */
@@ -226,6 +235,14 @@ public class Investigation implements Commentable {
 	 */
 	private List<Study> studies = new ArrayList<>();
 
+	/**
+	 * Indexes of the {@link #studies} by file name and identifier, for the
+	 * uniqueness checks
+	 */
+	private final ItemIndex<Study, String> studyFileNames = new ItemIndex<Study, String>(Study::getFileName, Study::indexes);
+
+	private final ItemIndex<Study, String> studyIdentifiers = new ItemIndex<Study, String>(Study::getIdentifier, Study::indexes);
+
 	/**
 	 * The date the {@link Investigation} was submitted
 	 */
@@ -278,197 +295,56 @@ public class Investigation implements Commentable {
 	 * @param study the study of investigation, which will be add
 	 */
 	public void addStudy(Study study) {
-		if(this.studies.stream().map(Study::getIdentifier).anyMatch(study.getIdentifier()::equals))
+		if(this.studyIdentifiers.get(this.studies, study.getIdentifier()) != null)
 			throw new RedundantItemException("Study ID not unique: " + study.getIdentifier());
-		if(this.studies.stream().map(Study::getFileName).anyMatch(study.getFileName()::equals))
+		if(this.studyFileNames.get(this.studies, study.getFileName()) != null)
 			throw new RedundantItemException("Study Filename not unique: " + study.getFileName());
 
 		study.setInvestigation(this);
 		this.studies.add(study);
+		this.studyIdentifiers.added(study);
+		this.studyFileNames.added(study);
 	}
 
 	public CommentCollection comments() {
 		return this.comments;
 	}
 
-	private String formatInvestigationContacts() {
-		return InvestigationAttribute.INVESTIGATION_CONTACTS.toString() + Symbol.ENTER
-			+ lineFromList(InvestigationAttribute.INVESTIGATION_PERSON_LAST_NAME, this.contacts, (o) -> o.getLastName())
-			+ lineFromList(InvestigationAttribute.INVESTIGATION_PERSON_FIRST_NAME, this.contacts,(o) -> o.getFirstName())
-			+ lineFromList(InvestigationAttribute.INVESTIGATION_PERSON_MID_INITIALS, this.contacts,(o) -> o.getMidInitials())
-			+ lineFromList(InvestigationAttribute.INVESTIGATION_PERSON_EMAIL, this.contacts,(o) -> o.getEmail())
-			+ lineFromList(InvestigationAttribute.INVESTIGATION_PERSON_PHONE, this.contacts,(o) -> o.getPhone())
-			+ lineFromList(InvestigationAttribute.INVESTIGATION_PERSON_FAX, this.contacts,(o) -> o.getFax())
-			+ lineFromList(InvestigationAttribute.INVESTIGATION_PERSON_ADDRESS, this.contacts,(o) -> o.getAddress())
-			+ lineFromList(InvestigationAttribute.INVESTIGATION_PERSON_AFFILIATION, this.contacts,(o) -> o.getAffiliation())
-			+ lineFromList(InvestigationAttribute.INVESTIGATION_PERSON_ROLES, this.contacts,
-				(o) -> o.getRoles().stream().map(c -> c.getTerm()).collect(Collectors.joining(Symbol.SEMICOLON.toString())))
-			+ lineFromList(InvestigationAttribute.INVESTIGATION_PERSON_ROLES.toString() + Symbol.SPACE + InvestigationAttribute.TERM_ACCESSION_NUMBER,
-				this.contacts,
-				obj -> { return obj.getRoles().stream().map(
-							r -> r.getTermAccession() == null ? Symbol.EMPTY.toString() : r.getTermAccession()
-						).collect(Collectors.joining(Symbol.SEMICOLON.toString())) ; }
-				)
-			+ lineFromList(InvestigationAttribute.INVESTIGATION_PERSON_ROLES.toString() + Symbol.SPACE + InvestigationAttribute.TERM_SOURCE_REF,
-				this.contacts,
-				obj -> {
-					return obj.getRoles().stream().map(
-							// If there is no role or if there is but it doesn't have an Ontology connected: return empty string
-							// Otherwise return the Ontology's name
-							r -> r == null || r.getSourceREF() == null ? Symbol.EMPTY.toString() : r.getSourceREF().getName()
-						).collect(Collectors.joining(Symbol.SEMICOLON.toString())); }
-				)
-			+ formatComments(this.contacts);
-	}
-
-	private String formatInvestigationHeaders() {		
-		return InvestigationAttribute.INVESTIGATION.toString() + Symbol.ENTER
-			+  formatSimpleAttribute(InvestigationAttribute.INVESTIGATION_IDENTIFIER, this.identifier)
-			+  formatSimpleAttribute(InvestigationAttribute.INVESTIGATION_TITLE, this.title)
-			+  formatSimpleAttribute(InvestigationAttribute.INVESTIGATION_DESCRIPTION, this.description)
-			+  formatSimpleAttribute(InvestigationAttribute.INVESTIGATION_SUBMISSION_DATE, 
-				this.submissionDate == null ? null : this.submissionDate.toString())
-			+  formatSimpleAttribute(InvestigationAttribute.INVESTIGATION_PUBLIC_RELEASE_DATE, 
-				this.publicReleaseDate == null ? null : this.publicReleaseDate.toString())
-				
-			+  formatSimpleComments(this.comments().getAll());	
-	}
-
-	private String formatInvestigationPublications() {	
-		return InvestigationAttribute.INVESTIGATION_PUBLICATIONS.toString() + Symbol.ENTER
-			+ lineFromList(InvestigationAttribute.INVESTIGATION_PUBMED_ID, this.publications, (o) -> o.getPubmedID())
-			+ lineFromList(InvestigationAttribute.INVESTIGATION_PUBLICATION_DOI, this.publications, (o) -> o.getDOI())
-			+ lineFromList(InvestigationAttribute.INVESTIGATION_PUBLICATION_AUTHOR_LIST, this.publications,(o) -> o.getAuthors())
-			+ lineFromList(InvestigationAttribute.INVESTIGATION_PUBLICATION_TITLE, this.publications, (o) -> o.getTitle())
-			+ ontologyLinesFromList(InvestigationAttribute.INVESTIGATION_PUBLICATION_STATUS, this.publications, p -> p.getStatus())
-		
-			+ formatComments(this.publications);
-		
-	}
-
-	private String formatOntologies() {	
-		return InvestigationAttribute.ONTOLOGY_SOURCE_REFERENCE.toString() + Symbol.ENTER
-			+  lineFromList(InvestigationAttribute.TERM_SOURCE_NAME, this.ontologies, o -> o.getName())
-			+  lineFromList(InvestigationAttribute.TERM_SOURCE_FILE, this.ontologies, o -> o.getURL().toString())
-			+  lineFromList(InvestigationAttribute.TERM_SOURCE_VERSION, this.ontologies, o -> o.getVersion())
-			+  lineFromList(InvestigationAttribute.TERM_SOURCE_DESCRIPTION, this.ontologies, o -> o.getDescription());
-	}
-
-	private String formatStudyAssays(Study study) {
-		return InvestigationAttribute.STUDY_ASSAYS.toString() + Symbol.ENTER
-			+ lineFromList(InvestigationAttribute.STUDY_ASSAY_FILE_NAME, study.getAssays(), a -> a.getFileName())
-			+ ontologyLinesFromList(InvestigationAttribute.STUDY_ASSAY_MEASUREMENT_TYPE, study.getAssays(), a -> a.getMeasurementType())
-			+ ontologyLinesFromList(InvestigationAttribute.STUDY_ASSAY_TECHNOLOGY_TYPE, study.getAssays(), a -> a.getTechnologyType())
-			+ lineFromList(InvestigationAttribute.STUDY_ASSAY_TECHNOLOGY_PLATFORM, study.getAssays(), a -> a.getTechnologyPlatform())
-			+ formatComments(study.getAssays());
-	}
-
-	private String formatStudyContacts(Study study) {
-		return InvestigationAttribute.STUDY_CONTACTS.toString() + Symbol.ENTER
-			+ lineFromList(InvestigationAttribute.STUDY_PERSON_LAST_NAME, study.getContacts(), (o) -> o.getLastName())
-			+ lineFromList(InvestigationAttribute.STUDY_PERSON_FIRST_NAME, study.getContacts(),(o) -> o.getFirstName())
-			+ lineFromList(InvestigationAttribute.STUDY_PERSON_MID_INITIALS, study.getContacts(),(o) -> o.getMidInitials())
-			+ lineFromList(InvestigationAttribute.STUDY_PERSON_EMAIL, study.getContacts(),(o) -> o.getEmail())
-			+ lineFromList(InvestigationAttribute.STUDY_PERSON_PHONE, study.getContacts(),(o) -> o.getPhone())
-			+ lineFromList(InvestigationAttribute.STUDY_PERSON_FAX, study.getContacts(),(o) -> o.getFax())
-			+ lineFromList(InvestigationAttribute.STUDY_PERSON_ADDRESS, study.getContacts(),(o) -> o.getAddress())
-			+ lineFromList(InvestigationAttribute.STUDY_PERSON_AFFILIATION, study.getContacts(),(o) -> o.getAffiliation())
-			+ lineFromList(InvestigationAttribute.STUDY_PERSON_ROLES, study.getContacts(),
-				(o) -> o.getRoles().stream().map(c -> c.getTerm()).collect(Collectors.joining(Symbol.SEMICOLON.toString())))
-			+ lineFromList(InvestigationAttribute.STUDY_PERSON_ROLES.toString() + Symbol.SPACE + InvestigationAttribute.TERM_ACCESSION_NUMBER,
-				study.getContacts(),
-				obj -> { return obj.getRoles().stream().map(
-							r -> r.getTermAccession() == null ? Symbol.EMPTY.toString() : r.getTermAccession()
-						).collect(Collectors.joining(Symbol.SEMICOLON.toString())) ; }
-				)
-			+ lineFromList(InvestigationAttribute.STUDY_PERSON_ROLES.toString() + Symbol.SPACE + InvestigationAttribute.TERM_SOURCE_REF,
-				study.getContacts(),
-				obj -> {
-					return obj.getRoles().stream().map(
-							// If there is no role or if there is but it doesn't have an Ontology connected: return empty string
-							// Otherwise return the Ontology's name
-							r -> r == null || r.getSourceREF() == null ? Symbol.EMPTY.toString() : r.getSourceREF().getName()
-						).collect(Collectors.joining(Symbol.SEMICOLON.toString())); }
-				)
-			+ formatComments(study.getContacts());
-	}
-
-	private String formatStudyFactors(Study study) {
-		return InvestigationAttribute.STUDY_FACTORS.toString() + Symbol.ENTER
-			+ lineFromList(InvestigationAttribute.STUDY_FACTOR_NAME, study.getFactors(), o -> o.getName())
-			+ ontologyLinesFromList(InvestigationAttribute.STUDY_FACTOR_TYPE, study.getFactors(), f -> f.getType())
-			+ formatComments(study.getFactors());
-	}
-
-	private String formatStudyHeaders(Study study) {
-		return InvestigationAttribute.STUDY.toString() + Symbol.ENTER
-			+ formatSimpleAttribute(InvestigationAttribute.STUDY_IDENTIFIER, study.getIdentifier())
-			+ formatSimpleAttribute(InvestigationAttribute.STUDY_TITLE, study.getTitle())
-			+ formatSimpleAttribute(InvestigationAttribute.STUDY_DESCRIPTION, study.getDescription())
-			+ formatSimpleAttribute(InvestigationAttribute.STUDY_SUBMISSION_DATE, 
-				study.getSubmissionDate() == null ? null : study.getSubmissionDate().toString())
-			+ formatSimpleAttribute(InvestigationAttribute.STUDY_PUBLIC_RELEASE_DATE, 
-				study.getPublicReleaseDate() == null ? null : study.getPublicReleaseDate().toString())
-			+ formatSimpleAttribute(InvestigationAttribute.STUDY_FILE_NAME, study.getFileName())
-			+ formatSimpleComments(study.comments().getAll())
-		// STUDY DESIGN DESCRIPTORS
-			+ InvestigationAttribute.STUDY_DESIGN_DESCRIPTORS.toString() + Symbol.ENTER
-			+ ontologyLinesFromList(InvestigationAttribute.STUDY_DESIGN_TYPE, study.getDesignDescriptors(), o -> o)
-			+ formatComments(study.getDesignDescriptors());
-		
+	/**
+	 * Stop recording metrics and unregister their MBean, see {@link #enableMetrics(boolean)}
+	 */
+	public void disableMetrics() {
+		WriteMetrics metrics = this.metrics;
+		this.metrics = null;
+		if (metrics != null)
+			metrics.unregister();
 	}
 
-	private String formatStudyProtocols(Study study) {
-		return InvestigationAttribute.STUDY_PROTOCOLS.toString() + Symbol.ENTER
-			+ lineFromList(InvestigationAttribute.STUDY_PROTOCOL_NAME, study.getProtocols(), p -> p.getName())
-			+ ontologyLinesFromList(InvestigationAttribute.STUDY_PROTOCOL_TYPE, study.getProtocols(), p -> p.getType())
-			+ lineFromList(InvestigationAttribute.STUDY_PROTOCOL_DESCRIPTION, study.getProtocols(), p -> p.getDescription())
-			+ lineFromList(InvestigationAttribute.STUDY_PROTOCOL_URI, study.getProtocols(), p -> p.getURI())
-			+ lineFromList(InvestigationAttribute.STUDY_PROTOCOL_VERSION, study.getProtocols(), p -> p.getVersion())
-			
-			// Protocol Parameters
-			+ lineFromList(InvestigationAttribute.STUDY_PROTOCOL_PARAMETERS_NAME, study.getProtocols(),
-					p -> p.getParameters().stream()
-					.map(param -> param.getName().getTerm())
-					.collect(Collectors.joining(Symbol.SEMICOLON.toString())))
-			+ lineFromList(InvestigationAttribute.STUDY_PROTOCOL_PARAMETERS_NAME.toString() + Symbol.SPACE + InvestigationAttribute.TERM_ACCESSION_NUMBER, study.getProtocols(),
-					p -> p.getParameters().stream()
-					.map(param -> param.getName() == null || param.getName().getTermAccession() == null ? Symbol.EMPTY.toString() : param.getName().getTermAccession())
-					.collect(Collectors.joining(Symbol.SEMICOLON.toString())))
-			+ lineFromList(InvestigationAttribute.STUDY_PROTOCOL_PARAMETERS_NAME.toString() + Symbol.SPACE + InvestigationAttribute.TERM_SOURCE_REF, study.getProtocols(),
-					p -> p.getParameters().stream()
-					.map(param -> param.getName() == null || param.getName().getSourceREF() == null ? Symbol.EMPTY.toString() : param.getName().getSourceREF().getName())
-					.collect(Collectors.joining(Symbol.SEMICOLON.toString())))
-			
-			// Protocol Components
-			+ lineFromList(InvestigationAttribute.STUDY_PROTOCOL_COMPONENTS_NAME, study.getProtocols(),
-					p -> p.getComponents().stream()
-					.map(component -> component.getName())
-					.collect(Collectors.joining(Symbol.SEMICOLON.toString())))
-			+ lineFromList(InvestigationAttribute.STUDY_PROTOCOL_COMPONENTS_TYPE, study.getProtocols(),
-					p -> p.getComponents().stream()
-					.map(component -> component.getType() == null ? Symbol.EMPTY.toString() : component.getType().getTerm())
-					.collect(Collectors.joining(Symbol.SEMICOLON.toString())))
-			+ lineFromList(InvestigationAttribute.STUDY_PROTOCOL_COMPONENTS_TYPE.toString() + Symbol.SPACE + InvestigationAttribute.TERM_ACCESSION_NUMBER, study.getProtocols(),
-					p -> p.getComponents().stream()
-					.map(component -> component.getType() == null || component.getType().getTermAccession() == null ? Symbol.EMPTY.toString() : component.getType().getTermAccession())
-					.collect(Collectors.joining(Symbol.SEMICOLON.toString())))
-			+ lineFromList(InvestigationAttribute.STUDY_PROTOCOL_COMPONENTS_TYPE.toString() + Symbol.SPACE + InvestigationAttribute.TERM_SOURCE_REF, study.getProtocols(),
-					p -> p.getComponents().stream()
-					.map(component -> component.getType() == null || component.getType().getSourceREF() == null ? Symbol.EMPTY.toString() : component.getType().getSourceREF().getName())
-					.collect(Collectors.joining(Symbol.SEMICOLON.toString())))
-			
-			+ formatComments(study.getProtocols());
+	/**
+	 * Start recording {@link WriteMetrics} of the investigation files written by
+	 * this object: bytes, render and I/O time. Rows and latencies are only counted
+	 * for Study and Assay files, see {@link WideTableFile#enableMetrics(boolean)}.
+	 * 
+	 * @param registerMBean true to register the metrics with the platform MBean server
+	 * @return the metrics, to take snapshots of them
+	 */
+	public WriteMetrics enableMetrics(boolean registerMBean) {
+		WriteMetrics metrics = this.metrics;
+		if (metrics == null) {
+			metrics = new WriteMetrics();
+			this.metrics = metrics;
+		}
+		if (registerMBean)
+			metrics.register("Investigation", this.identifier);
+		return metrics;
 	}
 
-	private String formatStudyPublications(Study study) {
-		return InvestigationAttribute.STUDY_PUBLICATIONS.toString() + Symbol.ENTER
-			+ lineFromList(InvestigationAttribute.STUDY_PUBMED_ID, study.getPublications(), o -> o.getPubmedID())
-			+ lineFromList(InvestigationAttribute.STUDY_PUBLICATION_DOI, study.getPublications(), o -> o.getDOI())
-			+ lineFromList(InvestigationAttribute.STUDY_PUBLICATION_AUTHOR_LIST, study.getPublications(), o -> o.getAuthors())
-			+ lineFromList(InvestigationAttribute.STUDY_PUBLICATION_TITLE, study.getPublications(), o -> o.getTitle())
-			+ ontologyLinesFromList(InvestigationAttribute.STUDY_PUBLICATION_STATUS, study.getPublications(), p -> p.getStatus())
-			+ formatComments(study.getPublications());
+	/**
+	 * @return the metrics of the write path, or null if they are not enabled, see
+	 *         {@link #enableMetrics(boolean)}
+	 */
+	public WriteMetrics getMetrics() {
+		return this.metrics;
 	}
 
 	/**
@@ -645,32 +521,334 @@ public class Investigation implements Commentable {
 		return "<Investigation> '" + this.identifier + "'";
 	}
 	
+	/**
+	 * Write the investigation file. If the path ends with {@link Props#GZIP_SUFFIX},
+	 * the file is written block-gzip compressed with a line index next to it, see
+	 * {@link BlockGzipChannel}.
+	 * 
+	 * @param filepath the path of the file
+	 * @throws IOException if unable to write the file
+	 */
 	public void writeToFile(String filepath) throws IOException {
 		logger.debug("{}: Directing output to file '{}'", this, filepath);
-		OutputStream os = new FileOutputStream(filepath);
-		this.writeToStream(os);
-		os.close();
+		try (WritableByteChannel channel = filepath.endsWith(Props.GZIP_SUFFIX) ? BlockGzipChannel.open(filepath)
+				: new FileOutputStream(filepath).getChannel()) {
+			this.writeToChannel(channel, filepath);
+		}
+	}
+
+	/**
+	 * Write the investigation file atomically: it is written to a temporary file
+	 * in the same directory, which is renamed over the file once it is complete,
+	 * see {@link WideTableFile#setAtomicPublication(FsyncPolicy)}.
+	 * 
+	 * @param filepath the path of the file
+	 * @param policy   when the content is forced to the storage device
+	 * @throws IOException if unable to write the file
+	 */
+	public void writeToFile(String filepath, FsyncPolicy policy) throws IOException {
+		AtomicChannels.publish(this.writeToTemporaryFiles(filepath, policy));
+	}
+
+	/**
+	 * Write the investigation file to prepared temporary files, which the caller publishes
+	 */
+	List<AtomicFile> writeToTemporaryFiles(String filepath, FsyncPolicy policy) throws IOException {
+		Objects.requireNonNull(policy, "Fsync policy cannot be null");
+		logger.debug("{}: Directing output to temporary file for '{}'", this, filepath);
+		List<AtomicFile> files = new ArrayList<AtomicFile>(2);
+		WritableByteChannel channel = AtomicChannels.open(filepath, policy, files);
+		try {
+			this.writeToChannel(channel, filepath);
+		} catch (IOException | RuntimeException e) {
+			AtomicChannels.abort(files, e);
+			throw e;
+		}
+		AtomicChannels.prepare(channel, files);
+		return files;
 	}
 	
 	public void writeToStream(OutputStream os) throws IOException {
+		this.writeToChannel(Channels.newChannel(os), this.toString());
+		os.flush();
+	}
+	
+	private static void writeAssays(Utf8Buffer out, SectionLines lines, Study study) {
+		out.append(InvestigationAttribute.STUDY_ASSAYS.toString());
+		out.appendEnter();
+		lines.begin(ASSAY_LINES);
+		for (Assay assay : study.getAssays()) {
+			lines.cell(0, assay.getFileName());
+			lines.ontologyCells(1, assay.getMeasurementType());
+			lines.ontologyCells(4, assay.getTechnologyType());
+			lines.cell(7, assay.getTechnologyPlatform());
+		}
+		lines.writeTo(out);
+		writeComments(out, study.getAssays());
+	}
+
+	private static void writeContacts(Utf8Buffer out, SectionLines lines, InvestigationAttribute section, String[] lineNames, List<Person> contacts) {
+		out.append(section.toString());
+		out.appendEnter();
+		lines.begin(lineNames);
+		for (Person person : contacts) {
+			lines.cell(0, person.getLastName());
+			lines.cell(1, person.getFirstName());
+			lines.cell(2, person.getMidInitials());
+			lines.cell(3, person.getEmail());
+			lines.cell(4, person.getPhone());
+			lines.cell(5, person.getFax());
+			lines.cell(6, person.getAddress());
+			lines.cell(7, person.getAffiliation());
+			lines.joinedCell(8, person.getRoles(), role -> role.getTerm());
+			lines.joinedCell(9, person.getRoles(),
+					role -> role.getTermAccession() == null ? Symbol.EMPTY.toString() : role.getTermAccession());
+			// If there is no role or if there is but it doesn't have an Ontology connected: write an empty string
+			lines.joinedCell(10, person.getRoles(),
+					role -> role == null || role.getSourceREF() == null ? Symbol.EMPTY.toString() : role.getSourceREF().getName());
+		}
+		lines.writeTo(out);
+		writeComments(out, contacts);
+	}
+
+	private static void writeFactors(Utf8Buffer out, SectionLines lines, Study study) {
+		out.append(InvestigationAttribute.STUDY_FACTORS.toString());
+		out.appendEnter();
+		lines.begin(FACTOR_LINES);
+		for (Factor factor : study.getFactors()) {
+			lines.cell(0, factor.getName());
+			lines.ontologyCells(1, factor.getType());
+		}
+		lines.writeTo(out);
+		writeComments(out, study.getFactors());
+	}
+
+	private void writeInvestigationHeaders(Utf8Buffer out) {
+		out.append(InvestigationAttribute.INVESTIGATION.toString());
+		out.appendEnter();
+		writeSimpleAttribute(out, InvestigationAttribute.INVESTIGATION_IDENTIFIER, this.identifier);
+		writeSimpleAttribute(out, InvestigationAttribute.INVESTIGATION_TITLE, this.title);
+		writeSimpleAttribute(out, InvestigationAttribute.INVESTIGATION_DESCRIPTION, this.description);
+		writeSimpleAttribute(out, InvestigationAttribute.INVESTIGATION_SUBMISSION_DATE,
+				this.submissionDate == null ? null : this.submissionDate.toString());
+		writeSimpleAttribute(out, InvestigationAttribute.INVESTIGATION_PUBLIC_RELEASE_DATE,
+				this.publicReleaseDate == null ? null : this.publicReleaseDate.toString());
+		writeSimpleComments(out, this.comments().getAll());
+	}
+
+	private void writeOntologies(Utf8Buffer out, SectionLines lines) {
+		out.append(InvestigationAttribute.ONTOLOGY_SOURCE_REFERENCE.toString());
+		out.appendEnter();
+		lines.begin(ONTOLOGY_LINES);
+		for (Ontology ontology : this.ontologies) {
+			lines.cell(0, ontology.getName());
+			lines.cell(1, ontology.getURL().toString());
+			lines.cell(2, ontology.getVersion());
+			lines.cell(3, ontology.getDescription());
+		}
+		lines.writeTo(out);
+	}
+
+	private static void writeProtocols(Utf8Buffer out, SectionLines lines, Study study) {
+		out.append(InvestigationAttribute.STUDY_PROTOCOLS.toString());
+		out.appendEnter();
+		lines.begin(PROTOCOL_LINES);
+		for (Protocol protocol : study.getProtocols()) {
+			lines.cell(0, protocol.getName());
+			lines.ontologyCells(1, protocol.getType());
+			lines.cell(4, protocol.getDescription());
+			lines.cell(5, protocol.getURI());
+			lines.cell(6, protocol.getVersion());
+			
+			// Protocol Parameters
+			lines.joinedCell(7, protocol.getParameters(), parameter -> parameter.getName().getTerm());
+			lines.joinedCell(8, protocol.getParameters(),
+					parameter -> parameter.getName() == null || parameter.getName().getTermAccession() == null ? Symbol.EMPTY.toString() : parameter.getName().getTermAccession());
+			lines.joinedCell(9, protocol.getParameters(),
+					parameter -> parameter.getName() == null || parameter.getName().getSourceREF() == null ? Symbol.EMPTY.toString() : parameter.getName().getSourceREF().getName());
+			
+			// Protocol Components
+			lines.joinedCell(10, protocol.getComponents(), component -> component.getName());
+			lines.joinedCell(11, protocol.getComponents(),
+					component -> component.getType() == null ? Symbol.EMPTY.toString() : component.getType().getTerm());
+			lines.joinedCell(12, protocol.getComponents(),
+					component -> component.getType() == null || component.getType().getTermAccession() == null ? Symbol.EMPTY.toString() : component.getType().getTermAccession());
+			lines.joinedCell(13, protocol.getComponents(),
+					component -> component.getType() == null || component.getType().getSourceREF() == null ? Symbol.EMPTY.toString() : component.getType().getSourceREF().getName());
+		}
+		lines.writeTo(out);
+		writeComments(out, study.getProtocols());
+	}
+
+	private static void writePublications(Utf8Buffer out, SectionLines lines, InvestigationAttribute section, String[] lineNames, List<Publication> publications) {
+		out.append(section.toString());
+		out.appendEnter();
+		lines.begin(lineNames);
+		for (Publication publication : publications) {
+			lines.cell(0, publication.getPubmedID());
+			lines.cell(1, publication.getDOI());
+			lines.cell(2, publication.getAuthors());
+			lines.cell(3, publication.getTitle());
+			lines.ontologyCells(4, publication.getStatus());
+		}
+		lines.writeTo(out);
+		writeComments(out, publications);
+	}
+
+	/**
+	 * Write the comment lines of a list of Commentables, see {@link #formatComments(List)}.
+	 * 
+	 * The comments are indexed in one pass: every comment type (in the order of their first
+	 * appearance) gets an array with one value per Commentable, which is then written as a line.
+	 */
+	static void writeComments(Utf8Buffer out, List<? extends Commentable> commentables) {
+		int columns = commentables.size();
+		LinkedHashMap<String, String[]> commentLines = new LinkedHashMap<String, String[]>();
+		for (int column = 0; column < columns; column++) {
+			for (Comment comment : commentables.get(column).comments().getAll()) {
+				String[] values = commentLines.get(comment.getName());
+				if (values == null) {
+					values = new String[columns];
+					commentLines.put(comment.getName(), values);
+				}
+				// Joined by semicolons if one Commentable has several comments of the same type
+				String value = String.valueOf(comment.getValue());
+				values[column] = values[column] == null ? value : values[column] + Symbol.SEMICOLON + value;
+			}
+		}
+		for (Map.Entry<String, String[]> line : commentLines.entrySet()) {
+			out.append(StringUtil.putNameInAttribute(InvestigationAttribute.COMMENT, line.getKey()));
+			for (String value : line.getValue()) {
+				out.appendTab();
+				if (value != null)
+					out.append(value);
+			}
+			out.appendEnter();
+		}
+	}
+
+	/**
+	 * Write a line with the name of the attribute and its value (empty if null)
+	 */
+	private static void writeSimpleAttribute(Utf8Buffer out, InvestigationAttribute lineName, String value) {
+		out.append(lineName.toString());
+		out.appendTab();
+		if (value != null)
+			out.append(value);
+		out.appendEnter();
+	}
+
+	/**
+	 * Write comment lines sorted by their name, see {@link #formatSimpleComments(List)}. The list
+	 * itself is not changed.
+	 */
+	static void writeSimpleComments(Utf8Buffer out, List<Comment> comments) {
+		if (comments.isEmpty())
+			return;
+		Comment[] sorted = comments.toArray(new Comment[comments.size()]);
+		Arrays.sort(sorted, (c1, c2) -> c1.getName().compareTo(c2.getName()));
+		for (Comment comment : sorted) {
+			out.append(StringUtil.putNameInAttribute(InvestigationAttribute.COMMENT, comment.getName()));
+			out.appendTab();
+			out.append(comment.getValue());
+			out.appendEnter();
+		}
+	}
+
+	private static void writeStudyHeaders(Utf8Buffer out, SectionLines lines, Study study) {
+		out.append(InvestigationAttribute.STUDY.toString());
+		out.appendEnter();
+		writeSimpleAttribute(out, InvestigationAttribute.STUDY_IDENTIFIER, study.getIdentifier());
+		writeSimpleAttribute(out, InvestigationAttribute.STUDY_TITLE, study.getTitle());
+		writeSimpleAttribute(out, InvestigationAttribute.STUDY_DESCRIPTION, study.getDescription());
+		writeSimpleAttribute(out, InvestigationAttribute.STUDY_SUBMISSION_DATE,
+				study.getSubmissionDate() == null ? null : study.getSubmissionDate().toString());
+		writeSimpleAttribute(out, InvestigationAttribute.STUDY_PUBLIC_RELEASE_DATE,
+				study.getPublicReleaseDate() == null ? null : study.getPublicReleaseDate().toString());
+		writeSimpleAttribute(out, InvestigationAttribute.STUDY_FILE_NAME, study.getFileName());
+		writeSimpleComments(out, study.comments().getAll());
+		
+		// STUDY DESIGN DESCRIPTORS
+		out.append(InvestigationAttribute.STUDY_DESIGN_DESCRIPTORS.toString());
+		out.appendEnter();
+		lines.begin(DESIGN_DESCRIPTOR_LINES);
+		for (OntologyAnnotation designDescriptor : study.getDesignDescriptors())
+			lines.ontologyCells(0, designDescriptor);
+		lines.writeTo(out);
+		writeComments(out, study.getDesignDescriptors());
+	}
+
+	/**
+	 * Hand the buffer to the channel, recording bytes and time if metrics are enabled
+	 * 
+	 * @param name the file or stream, for the {@link BufferFlushEvent}
+	 * @return the time it took, 0 if metrics are disabled
+	 */
+	private static long flush(Utf8Buffer buffer, WritableByteChannel channel, String name, WriteMetrics metrics)
+			throws IOException {
+		BufferFlushEvent event = new BufferFlushEvent();
+		long bytes = buffer.size();
+		long start = metrics == null ? 0 : System.nanoTime();
+		event.begin();
+		buffer.writeTo(channel);
+		event.end();
+		if (event.shouldCommit()) {
+			event.fileName = name;
+			event.bytes = bytes;
+			event.commit();
+		}
+		if (metrics == null)
+			return 0;
+		long nanos = System.nanoTime() - start;
+		metrics.written(bytes, nanos);
+		return nanos;
+	}
+
+	/**
+	 * Render the sections directly into a byte buffer (see {@link Utf8Buffer}) and hand it to the
+	 * channel whenever it gets large, all in {@link Props#DEFAULT_CHARSET}. Every section is
+	 * written in a single pass over its objects, see {@link SectionLines}.
+	 * 
+	 * @param name the file or stream, for the {@link BufferFlushEvent}s
+	 */
+	private void writeToChannel(WritableByteChannel channel, String name) throws IOException {
 		logger.debug("{}: Start writing output.", this);
-		OutputStreamWriter writer = new OutputStreamWriter(os, Props.DEFAULT_CHARSET);
+		WriteMetrics metrics = this.metrics;
+		long start = metrics == null ? 0 : System.nanoTime();
+		long ioNanos = 0;
+		Utf8Buffer buffer = new Utf8Buffer(WRITE_BUFFER_SIZE);
+		SectionLines lines = new SectionLines();
 		
-		writer.write(formatOntologies());
-		writer.write(formatInvestigationHeaders());
-		writer.write(formatInvestigationPublications());
-		writer.write(formatInvestigationContacts());
+		InvestigationSectionEvent section = InvestigationSectionEvent.begin(buffer);
+		this.writeOntologies(buffer, lines);
+		section.commit(buffer, InvestigationAttribute.ONTOLOGY_SOURCE_REFERENCE.toString(), this.ontologies.size());
+		section = InvestigationSectionEvent.begin(buffer);
+		this.writeInvestigationHeaders(buffer);
+		section.commit(buffer, InvestigationAttribute.INVESTIGATION.toString(), 1);
+		section = InvestigationSectionEvent.begin(buffer);
+		writePublications(buffer, lines, InvestigationAttribute.INVESTIGATION_PUBLICATIONS, INVESTIGATION_PUBLICATION_LINES, this.publications);
+		section.commit(buffer, InvestigationAttribute.INVESTIGATION_PUBLICATIONS.toString(), this.publications.size());
+		section = InvestigationSectionEvent.begin(buffer);
+		writeContacts(buffer, lines, InvestigationAttribute.INVESTIGATION_CONTACTS, INVESTIGATION_CONTACT_LINES, this.contacts);
+		section.commit(buffer, InvestigationAttribute.INVESTIGATION_CONTACTS.toString(), this.contacts.size());
 			
 		for(Study study: this.studies) {
-			writer.write(formatStudyHeaders(study));
-			writer.write(formatStudyPublications(study));
-			writer.write(formatStudyFactors(study));
-			writer.write(formatStudyAssays(study));
-			writer.write(formatStudyProtocols(study));
-			writer.write(formatStudyContacts(study));
+			// All sections of a study are recorded as one, its items are the assays
+			section = InvestigationSectionEvent.begin(buffer);
+			writeStudyHeaders(buffer, lines, study);
+			writePublications(buffer, lines, InvestigationAttribute.STUDY_PUBLICATIONS, STUDY_PUBLICATION_LINES, study.getPublications());
+			writeFactors(buffer, lines, study);
+			writeAssays(buffer, lines, study);
+			writeProtocols(buffer, lines, study);
+			writeContacts(buffer, lines, InvestigationAttribute.STUDY_CONTACTS, STUDY_CONTACT_LINES, study.getContacts());
+			section.commit(buffer, InvestigationAttribute.STUDY + " " + study.getIdentifier(), study.getAssays().size());
+			if (buffer.size() >= WRITE_BUFFER_SIZE)
+				ioNanos += flush(buffer, channel, name, metrics);
 		}
-			
-		writer.flush();
+		
+		ioNanos += flush(buffer, channel, name, metrics);
+		if (metrics != null)
+			metrics.rendered(System.nanoTime() - start - ioNanos);
 		logger.debug("{}: Finished writing output.", this);
 	}
 
@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import de.ipk_gatersleben.bit.bi.isa4j.util.Utf8Buffer;
+
+/**
+ * Flight recorder event of rendering a section of an investigation file, e.g.
+ * the ontologies, the contacts or all sections of one study
+ */
+@Name("de.ipk_gatersleben.bit.bi.isa4j.InvestigationSection")
+@Label("Investigation Section")
+@Category({ "isa4j", "Write Path" })
+@Description("Rendering of a section of an investigation file")
+@StackTrace(false)
+final class InvestigationSectionEvent extends jdk.jfr.Event {
+
+	/**
+	 * Start the event of a section that is rendered into the buffer
+	 */
+	static InvestigationSectionEvent begin(Utf8Buffer buffer) {
+		InvestigationSectionEvent event = new InvestigationSectionEvent();
+		event.startSize = buffer.size();
+		event.begin();
+		return event;
+	}
+
+	@Label("Size")
+	@DataAmount
+	long bytes;
+
+	@Label("Items")
+	@Description("Number of ontologies, contacts, assays... in the section")
+	int items;
+
+	@Label("Section")
+	String section;
+
+	private transient int startSize;
+
+	/**
+	 * Commit the event if it is enabled
+	 *
+	 * @param buffer  the buffer the section was rendered into
+	 * @param section the name of the section
+	 * @param items   the number of objects in the section
+	 */
+	void commit(Utf8Buffer buffer, String section, int items) {
+		this.end();
+		if (!this.shouldCommit())
+			return;
+		this.bytes = buffer.size() - this.startSize;
+		this.section = section;
+		this.items = items;
+		this.commit();
+	}
+
+}
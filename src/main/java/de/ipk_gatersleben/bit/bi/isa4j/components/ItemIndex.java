@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Hash index over a list of items by one of their attributes (e.g. Comments by
+ * name), used for the uniqueness checks of the add methods so that adding n
+ * items takes O(n) instead of O(n²) time.
+ *
+ * The lists stay the source of truth, they are still handed out by the getters
+ * and can be replaced by the setters. The index is rebuilt when it is asked about
+ * a different list, the size of the list changed since it was last seen or one
+ * of its items changed the attribute it is indexed by, so renamed items are found
+ * under their current key. For the latter every item keeps the indexes it was
+ * added to ({@link Owners}) and the setter of the attribute marks only these
+ * indexes stale. Renaming is rare, so adding n items still takes O(n) time unless
+ * every add follows a rename of an item of the same list.
+ * @param <E> the type of the items
+ * @param <K> the type of the key
+ */
+class ItemIndex<E, K> {
+
+	private final Map<K, E> index = new HashMap<K, E>();
+
+	private List<E> indexed;
+
+	private int indexedSize;
+
+	private final Function<? super E, ? extends K> key;
+
+	private final Function<? super E, Owners> owners;
+
+	/**
+	 * Whether an item changed its key since the index was built
+	 */
+	private boolean stale;
+
+	/**
+	 * @param key    the attribute the items are indexed by, compared with equals
+	 * @param owners the indexes of an item, marked stale by the setter of the
+	 *               attribute
+	 */
+	ItemIndex(Function<? super E, ? extends K> key, Function<? super E, Owners> owners) {
+		this.key = key;
+		this.owners = owners;
+	}
+
+	/**
+	 * Record an item that was just appended to the indexed list
+	 */
+	void added(E item) {
+		this.put(item);
+		this.indexedSize++;
+	}
+
+	/**
+	 * Find the first item of the list with the given key
+	 *
+	 * @param items the list the index is for
+	 * @param key   the key to look for, not null
+	 * @return the item or null if there is none
+	 */
+	E get(List<E> items, K key) {
+		if (items != this.indexed || items.size() != this.indexedSize || this.stale)
+			this.rebuild(items);
+		return this.index.get(key);
+	}
+
+	private void put(E item) {
+		this.index.putIfAbsent(this.key.apply(item), item);
+		this.owners.apply(item).add(this);
+	}
+
+	private void rebuild(List<E> items) {
+		this.stale = false;
+		this.index.clear();
+		for (E item : items)
+			this.put(item);
+		this.indexed = items;
+		this.indexedSize = items.size();
+	}
+
+	/**
+	 * The indexes an item was added to. Kept by the item so that the setter of the
+	 * attribute it is indexed by can mark them stale with {@link #keyChanged()}.
+	 */
+	static final class Owners {
+
+		private ItemIndex<?, ?> first;
+
+		private List<ItemIndex<?, ?>> more;
+
+		private void add(ItemIndex<?, ?> index) {
+			if (this.first == null || this.first == index) {
+				this.first = index;
+			} else {
+				if (this.more == null)
+					this.more = new ArrayList<ItemIndex<?, ?>>(2);
+				if (!this.more.contains(index))
+					this.more.add(index);
+			}
+		}
+
+		/**
+		 * Record that the attribute the item is indexed by was changed (e.g. a Comment
+		 * was renamed), so that its indexes are rebuilt before their next lookup
+		 */
+		void keyChanged() {
+			if (this.first != null)
+				this.first.stale = true;
+			if (this.more != null)
+				for (ItemIndex<?, ?> index : this.more)
+					index.stale = true;
+		}
+	}
+
+}
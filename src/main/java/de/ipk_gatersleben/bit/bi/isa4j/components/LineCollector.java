@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+import de.ipk_gatersleben.bit.bi.isa4j.components.WideTableFile.RenderedBatch;
+import de.ipk_gatersleben.bit.bi.isa4j.exceptions.InvalidRowException;
+import de.ipk_gatersleben.bit.bi.isa4j.util.Utf8Buffer;
+
+/**
+ * Collects the lines of a (parallel) stream into a {@link Study} or
+ * {@link Assay} file, see {@link WideTableFile#lineCollector()}. The
+ * accumulator renders the lines of every part of the stream into chunks of
+ * bytes on the thread that processes the part, the combiner concatenates the
+ * chunks in encounter order and the finisher hands them to the file. The file
+ * is the same as if {@link WideTableFile#writeLine(StudyOrAssayTableObject)}
+ * was called for every line in order.
+ *
+ * If the headers were written before, every part renders along the column plan
+ * of the file. Otherwise the header is taken from the first line of the
+ * stream, but a part only knows its own first line: it compiles a plan from it
+ * and keeps its line objects until the stream is done. When the combiner
+ * finds that the following part used a plan with another header, it renders the lines of
+ * that part again along the plan of the preceding part. To avoid keeping the
+ * objects, write the headers first, e.g. with
+ * {@link WideTableFile#writeHeadersFromExample(StudyOrAssayTableObject)}.
+ *
+ * If a line cannot be rendered, all lines before it are written and the
+ * finisher throws an {@link InvalidRowException} with the index of the line in
+ * the stream. I/O errors are thrown as {@link UncheckedIOException}.
+ */
+final class LineCollector implements Collector<StudyOrAssayTableObject, LineCollector.Chunks, Long> {
+
+	/**
+	 * Lines are rendered into chunks of about this size
+	 */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private final WideTableFile file;
+
+	LineCollector(WideTableFile file) {
+		this.file = file;
+	}
+
+	@Override
+	public BiConsumer<Chunks, StudyOrAssayTableObject> accumulator() {
+		return (chunks, line) -> chunks.add(line, this.file);
+	}
+
+	@Override
+	public Set<Characteristics> characteristics() {
+		return Collections.emptySet();
+	}
+
+	@Override
+	public BinaryOperator<Chunks> combiner() {
+		return Chunks::append;
+	}
+
+	@Override
+	public Function<Chunks, Long> finisher() {
+		return chunks -> {
+			try {
+				this.file.writeRendered(chunks.plan, chunks.chunks);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			if (chunks.failure != null)
+				throw chunks.failure;
+			return chunks.count;
+		};
+	}
+
+	@Override
+	public Supplier<Chunks> supplier() {
+		return Chunks::new;
+	}
+
+	/**
+	 * The rendered lines of a part of the stream, up to the first failure
+	 */
+	static final class Chunks {
+
+		private final List<RenderedBatch> chunks = new ArrayList<RenderedBatch>();
+
+		/**
+		 * Number of rendered lines
+		 */
+		private long count;
+
+		/**
+		 * The first line that could not be rendered, with its index within the part
+		 */
+		private InvalidRowException failure;
+
+		/**
+		 * All lines of the part (also those after a failure) if the plan was compiled
+		 * from its first line, null if the plan is the one of the file
+		 */
+		private List<StudyOrAssayTableObject> lines;
+
+		private ColumnPlan plan;
+
+		private RowRenderer renderer;
+
+		/**
+		 * Whether a line was added to the part
+		 */
+		private boolean started;
+
+		private void add(StudyOrAssayTableObject line, WideTableFile file) {
+			if (!this.started) {
+				this.started = true;
+				this.plan = file.getColumnPlan();
+				if (this.plan == null) {
+					this.lines = new ArrayList<StudyOrAssayTableObject>();
+					try {
+						this.plan = ColumnPlan.compile(line);
+					} catch (RuntimeException e) {
+						this.failure = new InvalidRowException(0, e);
+					}
+				}
+			}
+			if (this.lines != null)
+				this.lines.add(line);
+			this.render(line);
+		}
+
+		/**
+		 * Append the lines of the following part of the stream
+		 *
+		 * @return this
+		 */
+		private Chunks append(Chunks next) {
+			if (!next.started)
+				return this;
+			if (!this.started)
+				return next;
+			// The following part is rendered along the plan of the first line of this part
+			if (this.plan != null && next.lines != null && !sameHeader(next.plan, this.plan))
+				next.renderAgain(this.plan);
+			if (this.lines != null && next.lines != null)
+				this.lines.addAll(next.lines);
+			else
+				this.lines = null;
+			if (this.failure != null)
+				return this;
+			if (!sameHeader(next.plan, this.plan)) {
+				// Only if the headers were written while the stream was running
+				this.failure = new InvalidRowException(this.count,
+						new IllegalStateException("Line was rendered for another header than the first line"));
+				return this;
+			}
+			this.chunks.addAll(next.chunks);
+			if (next.failure != null)
+				this.failure = new InvalidRowException(this.count + next.failure.getRowIndex(),
+						(RuntimeException) next.failure.getCause());
+			this.count += next.count;
+			return this;
+		}
+
+		/**
+		 * Render a line into the last chunk, unless an earlier line failed
+		 */
+		private void render(StudyOrAssayTableObject line) {
+			if (this.failure != null)
+				return;
+			if (this.renderer == null)
+				this.renderer = new RowRenderer(this.plan);
+			RenderedBatch chunk = this.chunks.isEmpty() ? null : this.chunks.get(this.chunks.size() - 1);
+			if (chunk == null || chunk.lines.size() >= CHUNK_SIZE) {
+				chunk = new RenderedBatch();
+				chunk.lines = new Utf8Buffer(CHUNK_SIZE + (CHUNK_SIZE >> 2));
+				this.chunks.add(chunk);
+			}
+			try {
+				this.renderer.render(line, chunk.lines);
+				chunk.count++;
+				this.count++;
+			} catch (RuntimeException e) {
+				this.failure = new InvalidRowException(this.count, e);
+			}
+		}
+
+		/**
+		 * Render all lines of the part again along another plan
+		 */
+		private void renderAgain(ColumnPlan plan) {
+			this.plan = plan;
+			this.renderer = null;
+			this.chunks.clear();
+			this.count = 0;
+			this.failure = null;
+			for (StudyOrAssayTableObject line : this.lines) {
+				if (this.failure != null)
+					break;
+				this.render(line);
+			}
+		}
+
+		private static boolean sameHeader(ColumnPlan plan, ColumnPlan other) {
+			return plan == other || plan != null && other != null
+					&& Arrays.equals(plan.getEncodedHeader(), other.getEncodedHeader());
+		}
+	}
+
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Flow.Subscriber} that writes the lines it receives to a
+ * {@link Study} or {@link Assay} file, see
+ * {@link WideTableFile#subscriber(Executor)}:
+ *
+ * <pre>
+ * study.openFile();
+ * LineSubscriber subscriber = study.subscriber(executor);
+ * publisher.subscribe(subscriber);
+ * subscriber.getCompletion().join();
+ * </pre>
+ *
+ * onNext only queues the line, the lines are rendered and written in order by
+ * one task at a time on the executor, so the publisher thread never blocks on
+ * the file. The demand follows the file buffer: the subscriber keeps about two
+ * buffers worth of lines requested, the lines of one buffer being measured at
+ * every flush (256 lines until the first flush, and in modes without a shared
+ * buffer, e.g. concurrent mode).
+ *
+ * onComplete closes the file once all lines are written. If a line cannot be
+ * written, the subscription is cancelled and the file is closed without
+ * publishing it in atomic mode. If the publisher signals an error, the queued
+ * lines are dropped and the file is closed the same way. Either way the error
+ * completes {@link #getCompletion()}.
+ */
+public final class LineSubscriber implements Flow.Subscriber<StudyOrAssayTableObject> {
+
+	/**
+	 * Lines requested at a time until the first buffer was flushed
+	 */
+	private static final int INITIAL_BATCH = 256;
+
+	private static final Logger logger = LoggerFactory.getLogger(LineSubscriber.class);
+
+	/**
+	 * Lines requested at a time, the number of lines that filled the last buffer
+	 */
+	private long batch = INITIAL_BATCH;
+
+	/**
+	 * Fill level of the file buffer after the previous line
+	 */
+	private int bufferedBytes;
+
+	private final CompletableFuture<Long> completion = new CompletableFuture<Long>();
+
+	private volatile boolean done;
+
+	private volatile Throwable error;
+
+	private final Executor executor;
+
+	private final WideTableFile file;
+
+	/**
+	 * Set by the drain task once the file is closed, nothing is written afterwards
+	 */
+	private boolean finished;
+
+	private long lines;
+
+	/**
+	 * Lines written since the file buffer was last flushed
+	 */
+	private long linesInBuffer;
+
+	/**
+	 * Lines requested and not written yet
+	 */
+	private long outstanding;
+
+	private final ConcurrentLinkedQueue<StudyOrAssayTableObject> queue = new ConcurrentLinkedQueue<StudyOrAssayTableObject>();
+
+	private volatile Flow.Subscription subscription;
+
+	/**
+	 * Number of times the drain task was scheduled and has not caught up yet
+	 */
+	private final AtomicInteger wip = new AtomicInteger();
+
+	LineSubscriber(WideTableFile file, Executor executor) {
+		this.file = file;
+		this.executor = executor;
+	}
+
+	/**
+	 * Close the file without publishing it and fail the completion
+	 */
+	private void abort(Throwable cause) {
+		this.finished = true;
+		try {
+			AtomicChannels.abort(this.file.closeFile(false), cause);
+		} catch (IOException | RuntimeException e) {
+			cause.addSuppressed(e);
+		}
+		this.completion.completeExceptionally(cause);
+	}
+
+	/**
+	 * Write the queued lines, close the file once everything is written or an
+	 * error occurred. Only one drain task runs at a time.
+	 */
+	private void drain() {
+		int missed = 1;
+		do {
+			if (!this.finished) {
+				try {
+					this.drainQueue();
+				} catch (IOException | RuntimeException e) {
+					logger.error("{}: Writing line {} failed, cancelling the subscription.", this.file, this.lines + 1);
+					this.subscription.cancel();
+					this.abort(e);
+				}
+			} else {
+				// Lines that arrive after the subscription was cancelled
+				this.queue.clear();
+			}
+			missed = this.wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	private void drainQueue() throws IOException {
+		Throwable error = this.error;
+		if (error != null) {
+			this.queue.clear();
+			this.abort(error);
+			return;
+		}
+		// Read before the queue: once done is set, all lines are queued
+		boolean done = this.done;
+		StudyOrAssayTableObject line;
+		while ((line = this.queue.poll()) != null) {
+			this.file.writeLine(line);
+			this.lines++;
+			this.linesInBuffer++;
+			int bufferedBytes = this.file.bufferedBytes();
+			if (bufferedBytes < this.bufferedBytes) {
+				this.batch = this.linesInBuffer;
+				this.linesInBuffer = 0;
+			}
+			this.bufferedBytes = bufferedBytes;
+			// Top the demand up to two buffers once one of them is written
+			if (--this.outstanding <= this.batch) {
+				this.subscription.request(2 * this.batch - this.outstanding);
+				this.outstanding = 2 * this.batch;
+			}
+		}
+		if (done) {
+			this.finished = true;
+			try {
+				this.file.closeFile();
+			} catch (IOException e) {
+				this.completion.completeExceptionally(e);
+				return;
+			}
+			logger.debug("{}: Subscription complete after {} lines.", this.file, this.lines);
+			this.completion.complete(this.lines);
+		}
+	}
+
+	/**
+	 * @return completes with the number of lines written once the file is closed,
+	 *         or exceptionally if the lines could not be written or the publisher
+	 *         failed
+	 */
+	public CompletableFuture<Long> getCompletion() {
+		return this.completion;
+	}
+
+	@Override
+	public void onComplete() {
+		this.done = true;
+		this.schedule();
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		this.error = Objects.requireNonNull(throwable, "Throwable cannot be null");
+		this.schedule();
+	}
+
+	@Override
+	public void onNext(StudyOrAssayTableObject item) {
+		this.queue.add(Objects.requireNonNull(item, "Line cannot be null"));
+		this.schedule();
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		Objects.requireNonNull(subscription, "Subscription cannot be null");
+		if (this.subscription != null) {
+			subscription.cancel();
+			return;
+		}
+		// One buffer is written while the lines of the next one arrive
+		this.outstanding = 2 * this.batch;
+		this.subscription = subscription;
+		subscription.request(this.outstanding);
+	}
+
+	private void schedule() {
+		if (this.wip.getAndIncrement() != 0)
+			return;
+		try {
+			this.executor.execute(this::drain);
+		} catch (RejectedExecutionException e) {
+			this.subscription.cancel();
+			this.abort(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "<LineSubscriber> " + this.file;
+	}
+
+}
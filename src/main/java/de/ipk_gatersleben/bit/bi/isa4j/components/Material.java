@@ -46,6 +46,11 @@ public class Material extends Source {
 		return headers;
 	}
 	
+	void renderFields(RowRenderer row) {
+		row.field(this.type, this.name);
+		this.renderCharacteristics(row);
+	}
+	
 	/**
 	 * @return the type
 	 */
@@ -11,6 +11,7 @@ import java.net.URL;
 import java.util.Objects;
 
 import de.ipk_gatersleben.bit.bi.isa4j.util.StringUtil;
+import de.ipk_gatersleben.bit.bi.isa4j.util.Utf8Buffer;
 
 /**
  * Class to represent an ontology
@@ -24,6 +25,11 @@ public class Ontology {
      */
     private String description;
 
+    /**
+     * Cached UTF-8 encoding of the name, see {@link #getEncodedName()}
+     */
+    private volatile byte[] encodedName;
+
     /**
      * name of the {@link Ontology}
      */
@@ -64,6 +70,20 @@ public class Ontology {
         return description;
     }
 
+    /**
+     * get the name of the {@link Ontology} encoded in
+     * {@link de.ipk_gatersleben.bit.bi.isa4j.constants.Props#DEFAULT_CHARSET}, as
+     * it is printed in every Term Source REF column
+     *
+     * @return encoded name of the {@link Ontology}
+     */
+    byte[] getEncodedName() {
+        byte[] encoded = this.encodedName;
+        if (encoded == null)
+            this.encodedName = encoded = Utf8Buffer.encode(this.name);
+        return encoded;
+    }
+
     /**
      * get the name of the {@link Ontology}
      *
@@ -107,6 +127,7 @@ public class Ontology {
      */
     public void setName(String name) {
         this.name = StringUtil.sanitize(Objects.requireNonNull(name, "Ontology Name cannot be null"));
+        this.encodedName = null;
     }
 
     /**
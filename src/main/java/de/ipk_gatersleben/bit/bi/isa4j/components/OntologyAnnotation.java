@@ -7,20 +7,108 @@
  */
 package de.ipk_gatersleben.bit.bi.isa4j.components;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import de.ipk_gatersleben.bit.bi.isa4j.util.StringUtil;
+import de.ipk_gatersleben.bit.bi.isa4j.util.Utf8Buffer;
 
 /**
  * Class representing a {@link Ontology} based term. Every {@link OntologyAnnotation} has
  * three Attributes: Name, AccessionNumber and SourceREF
  *
+ * Annotations that are used many times (units, organisms, numeric values...) can
+ * be shared with {@link #of(String, String, Ontology)}: equal annotations are
+ * created only once and kept in a pool for as long as they are referenced. Shared
+ * annotations cannot be changed. Annotations are compared by identity like
+ * before, only the pool compares the arguments of
+ * {@link #of(String, String, Ontology)} by value: term and accession number by
+ * equals and the {@link Ontology} by identity.
+ *
  * @author liufe, arendd
  */
 public class OntologyAnnotation implements Commentable {
 	
-	private CommentCollection comments = new CommentCollection();
+	/**
+	 * References to the shared annotations that were garbage collected, removed
+	 * from the pool on the next lookup
+	 */
+	private static final ReferenceQueue<OntologyAnnotation> collected = new ReferenceQueue<OntologyAnnotation>();
+	
+	private static final ConcurrentHashMap<PoolKey, PoolReference> pool = new ConcurrentHashMap<PoolKey, PoolReference>();
+	
+	/**
+	 * Get a shared annotation with the given term, accession number and source REF.
+	 * Returns the same instance for equal arguments as long as the annotation is in
+	 * use, so annotations repeated on millions of lines are only kept (and encoded)
+	 * once. The annotation cannot be changed, use the constructor for an annotation
+	 * of its own.
+	 *
+	 * @param term                the term, cannot be null
+	 * @param termAccessionNumber the accession number, can be null
+	 * @param sourceREF           the source REF, can be null
+	 * @return the shared annotation
+	 */
+	public static OntologyAnnotation of(String term, String termAccessionNumber, Ontology sourceREF) {
+		Objects.requireNonNull(term, "Term cannot be null");
+		expungeCollected();
+		PoolKey key = new PoolKey(term, termAccessionNumber, sourceREF);
+		PoolReference reference = pool.get(key);
+		OntologyAnnotation annotation = reference == null ? null : reference.get();
+		if (annotation != null)
+			return annotation;
+	
+		annotation = new OntologyAnnotation(term, termAccessionNumber, sourceREF, true);
+		PoolReference created = new PoolReference(annotation, key);
+		while (true) {
+			PoolReference existing = pool.putIfAbsent(key, created);
+			if (existing == null)
+				return annotation;
+			OntologyAnnotation other = existing.get();
+			if (other != null)
+				return other;
+			if (pool.replace(key, existing, created))
+				return annotation;
+		}
+	}
+	
+	/**
+	 * Get a shared annotation without accession number and source REF, see
+	 * {@link #of(String, String, Ontology)}
+	 *
+	 * @param term the term, cannot be null
+	 * @return the shared annotation
+	 */
+	public static OntologyAnnotation of(String term) {
+		return of(term, null, null);
+	}
+	
+	private static void expungeCollected() {
+		Reference<? extends OntologyAnnotation> reference;
+		while ((reference = collected.poll()) != null)
+			pool.remove(((PoolReference) reference).key, reference);
+	}
+	
+	private final CommentCollection comments = new CommentCollection();
+	
+	/**
+	 * Cached UTF-8 encoding of the term accession, see {@link #getEncodedTermAccession()}
+	 */
+	private volatile byte[] encodedTermAccession;
+	
+	/**
+	 * Cached UTF-8 encoding of the term, see {@link #getEncodedTerm()}
+	 */
+	private volatile byte[] encodedTerm;
 	
+	/**
+     * Whether this annotation is shared by {@link #of(String, String, Ontology)}
+     */
+    private final boolean shared;
+
 	/**
      * sourceREF of ontology term
      */
@@ -41,15 +129,52 @@ public class OntologyAnnotation implements Commentable {
     }
     
     public OntologyAnnotation(String term, String termAccessionNumber, Ontology sourceREF) {
+    	this(term, termAccessionNumber, sourceREF, false);
+    }
+    
+    private OntologyAnnotation(String term, String termAccessionNumber, Ontology sourceREF, boolean shared) {
     	this.term = term;
     	this.termAccession = termAccessionNumber;
     	this.sourceREF = sourceREF;
+    	this.shared = shared;
+    	if (shared)
+    		this.comments.freeze();
+    }
+    
+    private void checkNotShared() {
+    	if (this.shared)
+    		throw new IllegalStateException("Shared OntologyAnnotation cannot be changed: " + this);
     }
     
     public CommentCollection comments() {
 		return this.comments;
 	}
-   
+
+    /**
+     * Get the term encoded in {@link de.ipk_gatersleben.bit.bi.isa4j.constants.Props#DEFAULT_CHARSET}.
+     * The encoding is cached so that annotations shared by many lines (units, organisms...)
+     * are only encoded once.
+     *
+     * @return the encoded term or null if there is no term
+     */
+    byte[] getEncodedTerm() {
+    	byte[] encoded = this.encodedTerm;
+    	if (encoded == null && this.term != null)
+    		this.encodedTerm = encoded = Utf8Buffer.encode(this.term);
+    	return encoded;
+    }
+
+    /**
+     * Get the term accession encoded in {@link de.ipk_gatersleben.bit.bi.isa4j.constants.Props#DEFAULT_CHARSET}.
+     *
+     * @return the encoded accession or null if there is no accession
+     */
+    byte[] getEncodedTermAccession() {
+    	byte[] encoded = this.encodedTermAccession;
+    	if (encoded == null && this.termAccession != null)
+    		this.encodedTermAccession = encoded = Utf8Buffer.encode(this.termAccession);
+    	return encoded;
+    }
 
     /**
      * get sourceREF
@@ -78,12 +203,21 @@ public class OntologyAnnotation implements Commentable {
         return termAccession;
     }
 
+    /**
+     * @return true if this annotation was created by
+     *         {@link #of(String, String, Ontology)} and cannot be changed
+     */
+    public boolean isShared() {
+    	return this.shared;
+    }
+
     /**
      * set source REF
      *
      * @param sourceREF source REF
      */
     public void setSourceREF(Ontology sourceREF) {
+        this.checkNotShared();
         this.sourceREF = sourceREF;
     }
 
@@ -93,7 +227,9 @@ public class OntologyAnnotation implements Commentable {
      * @param term term of ontology term
      */
     public void setTerm(String term) {
+        this.checkNotShared();
         this.term = StringUtil.sanitize(Objects.requireNonNull(term));
+        this.encodedTerm = null;
     }
 
     /**
@@ -102,7 +238,9 @@ public class OntologyAnnotation implements Commentable {
      * @param termAccession accession number of ontology term
      */
     public void setTermAccession(String termAccession) {
+        this.checkNotShared();
         this.termAccession = StringUtil.sanitize(termAccession);
+        this.encodedTermAccession = null;
     }
     
 	@Override
@@ -110,4 +248,52 @@ public class OntologyAnnotation implements Commentable {
 		return "<OntologyAnnotation> '" + this.term + "'" + (this.sourceREF == null ? "" : " (" + this.sourceREF + ")");
 	}
 
+	/**
+	 * Key of the pool, equal for equal arguments of {@link OntologyAnnotation#of(String, String, Ontology)}.
+	 * The Strings cannot change and the Ontology is compared by identity, so the
+	 * key stays valid when the Ontology is changed.
+	 */
+	private static final class PoolKey {
+		private final int hash;
+		private final Ontology sourceREF;
+		private final String term;
+		private final String termAccession;
+
+		private PoolKey(String term, String termAccession, Ontology sourceREF) {
+			this.term = term;
+			this.termAccession = termAccession;
+			this.sourceREF = sourceREF;
+			this.hash = Objects.hash(term, termAccession, sourceREF);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof PoolKey))
+				return false;
+			PoolKey other = (PoolKey) obj;
+			return this.hash == other.hash && this.term.equals(other.term)
+					&& Objects.equals(this.termAccession, other.termAccession)
+					&& Objects.equals(this.sourceREF, other.sourceREF);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+	}
+
+	/**
+	 * Weak reference to a shared annotation that knows its key in the pool
+	 */
+	private static final class PoolReference extends WeakReference<OntologyAnnotation> {
+		private final PoolKey key;
+
+		private PoolReference(OntologyAnnotation annotation, PoolKey key) {
+			super(annotation, collected);
+			this.key = key;
+		}
+	}
+
 }
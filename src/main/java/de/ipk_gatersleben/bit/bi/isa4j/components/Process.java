@@ -29,6 +29,8 @@ public class Process extends StudyOrAssayTableObject implements Commentable {
 
 	private StudyOrAssayTableObject input;
 
+	private final ItemIndex<ParameterValue, ProtocolParameter> parameters = new ItemIndex<ParameterValue, ProtocolParameter>(ParameterValue::getCategory, ParameterValue::indexes);
+
 	private List<ParameterValue> parameterValues = new ArrayList<ParameterValue>();
 
 	private Protocol protocol;
@@ -38,11 +40,11 @@ public class Process extends StudyOrAssayTableObject implements Commentable {
 	}
 
 	public void addParameterValue(ParameterValue parameterValue) {
-		if (this.parameterValues.stream().map(ParameterValue::getCategory)
-				.anyMatch(parameterValue.getCategory()::equals))
+		if (this.parameters.get(this.parameterValues, parameterValue.getCategory()) != null)
 			throw new RedundantItemException(
 					"Multiple ParameterValues for Parameter: " + parameterValue.getCategory().getName());
 		this.parameterValues.add(parameterValue);
+		this.parameters.added(parameterValue);
 	}
 
 	public CommentCollection comments() {
@@ -114,6 +116,19 @@ public class Process extends StudyOrAssayTableObject implements Commentable {
 		return protocol;
 	}
 
+	void renderFields(RowRenderer row) {
+		row.field(StudyAssayAttribute.PROTOCOL.toString(), this.protocol.getEncodedName());
+		for (ParameterValue parameterValue : this.parameterValues) {
+			row.valueField(ColumnKey.of(StudyAssayAttribute.PARAMETER_VALUE,
+					parameterValue.getCategory().getName().getTerm()).getHeader(), parameterValue);
+		}
+		if (this.dateTime != null)
+			row.field(StudyAssayAttribute.PROTOCOL_DATE.toString(), this.dateTime.toString());
+		else if (this.date != null)
+			row.field(StudyAssayAttribute.PROTOCOL_DATE.toString(), this.date.toString());
+		row.comments(this.comments);
+	}
+
 	/**
 	 * Sets a Date for this Process (without time of day). Overwrites any Date or
 	 * DateTime set before.
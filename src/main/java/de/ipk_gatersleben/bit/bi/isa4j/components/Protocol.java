@@ -13,6 +13,7 @@ import java.util.Objects;
 
 import de.ipk_gatersleben.bit.bi.isa4j.exceptions.RedundantItemException;
 import de.ipk_gatersleben.bit.bi.isa4j.util.StringUtil;
+import de.ipk_gatersleben.bit.bi.isa4j.util.Utf8Buffer;
 
 /**
  * Class to represent a protocol/process for a {@link Study}, which contains
@@ -31,6 +32,11 @@ public class Protocol implements Commentable {
      */
     private String description;
 
+    /**
+     * Cached UTF-8 encoding of the name, see {@link #getEncodedName()}
+     */
+    private volatile byte[] encodedName;
+
     /**
      * The name of the {@link Protocol}
      */
@@ -41,6 +47,11 @@ public class Protocol implements Commentable {
      */
     private List<ProtocolParameter> parameters = new ArrayList<ProtocolParameter>(3);
 
+    /**
+     * Index of the {@link #parameters} by name, for the uniqueness check
+     */
+    private final ItemIndex<ProtocolParameter, OntologyAnnotation> parameterNames = new ItemIndex<ProtocolParameter, OntologyAnnotation>(ProtocolParameter::getName, ProtocolParameter::indexes);
+
     /**
      * The {@link OntologyAnnotation} to describe the type of the {@link Protocol}
      */
@@ -86,10 +97,11 @@ public class Protocol implements Commentable {
      */
     public void addParameter(ProtocolParameter parameter) {
     	Objects.requireNonNull(parameter);
-    	if(this.parameters.stream().map(ProtocolParameter::getName).anyMatch(parameter.getName()::equals))
+    	if(this.parameterNames.get(this.parameters, parameter.getName()) != null)
     		throw new RedundantItemException("Parameter not unique: " + parameter.getName());
 
         this.parameters.add(parameter);
+        this.parameterNames.added(parameter);
     }
 
 	public CommentCollection comments() {
@@ -113,6 +125,20 @@ public class Protocol implements Commentable {
     }
 
 
+    /**
+     * Get the name of the {@link Protocol} encoded in
+     * {@link de.ipk_gatersleben.bit.bi.isa4j.constants.Props#DEFAULT_CHARSET}, as
+     * it is printed in every Protocol REF column
+     *
+     * @return encoded name of protocol
+     */
+    byte[] getEncodedName() {
+        byte[] encoded = this.encodedName;
+        if (encoded == null && this.name != null)
+            this.encodedName = encoded = Utf8Buffer.encode(this.name);
+        return encoded;
+    }
+
     /**
      * Get the name of the{@link Protocol}
      *
@@ -182,6 +208,7 @@ public class Protocol implements Commentable {
      */
     public void setName(String name) {
         this.name = StringUtil.sanitize(Objects.requireNonNull(name, "Protocol Name cannot be null"));
+        this.encodedName = null;
     }
 
     /**
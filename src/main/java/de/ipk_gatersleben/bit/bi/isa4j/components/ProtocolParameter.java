@@ -11,6 +11,11 @@ import java.util.Objects;
 
 public class ProtocolParameter {
 	
+	/**
+	 * The indexes of the lists this parameter was added to
+	 */
+	private final ItemIndex.Owners indexes = new ItemIndex.Owners();
+
 	private OntologyAnnotation name;
 
 	public ProtocolParameter(OntologyAnnotation name) {
@@ -28,10 +33,19 @@ public class ProtocolParameter {
 		return name;
 	}
 
+	/**
+	 * @return the indexes this parameter was added to, see {@link ItemIndex}
+	 */
+	ItemIndex.Owners indexes() {
+		return this.indexes;
+	}
+
 	/**
 	 * @param name the name to set
 	 */
 	public void setName(OntologyAnnotation name) {
+		if (this.name != null)
+			this.indexes.keyChanged();
 		this.name = Objects.requireNonNull(name, "ProtocolParameter name OntologyAnnotation object cannot be null");
 	}
 	
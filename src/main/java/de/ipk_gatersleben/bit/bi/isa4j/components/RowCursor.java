@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A reusable line of a {@link Study} or {@link Assay} file. The objects of the
+ * line (e.g. Source-&gt;Process-&gt;Sample) are created and linked once, for every
+ * line only the values that change (names, paths, parameter values...) are set
+ * on them before the line is written:
+ *
+ * <pre>
+ * Source source = new Source("source");
+ * Process process = new Process(protocol);
+ * process.setInput(source);
+ * process.setOutput(new Sample("sample"));
+ * RowCursor cursor = new RowCursor(study, source);
+ * for (int i = 0; i &lt; nRows; i++) {
+ *     cursor.getSlot(0, Source.class).setName("source-" + i);
+ *     cursor.getSlot(2, Sample.class).setName("sample-" + i);
+ *     cursor.write();
+ * }
+ * </pre>
+ *
+ * As {@link WideTableFile#writeLine(StudyOrAssayTableObject)} renders the line
+ * before it returns, no objects are created per line apart from the new values.
+ * Values repeated on many lines should be shared, e.g. with
+ * {@link OntologyAnnotation#of(String, String, Ontology)}.
+ *
+ * A cursor must not be used with {@link WideTableFile#writeLines(Iterable)},
+ * which renders the lines later. It is not thread-safe: in concurrent mode
+ * (see {@link WideTableFile#openFileConcurrent()}) every thread needs a cursor of
+ * its own.
+ */
+public class RowCursor {
+
+	private final WideTableFile file;
+
+	private final StudyOrAssayTableObject[] slots;
+
+	/**
+	 * @param file  the Study or Assay file to write the lines to
+	 * @param first the first object of the line, linked to all others
+	 */
+	public RowCursor(WideTableFile file, StudyOrAssayTableObject first) {
+		this.file = Objects.requireNonNull(file, "File cannot be null");
+		Objects.requireNonNull(first, "First object of the line cannot be null");
+		List<StudyOrAssayTableObject> slots = new ArrayList<StudyOrAssayTableObject>();
+		for (StudyOrAssayTableObject object = first; object != null; object = object.getNextStudyOrAssayTableObject())
+			slots.add(object);
+		this.slots = slots.toArray(new StudyOrAssayTableObject[0]);
+	}
+
+	/**
+	 * Get an object of the line to change its values
+	 *
+	 * @param <T>  the type of the object
+	 * @param slot the position of the object in the line, starting at 0
+	 * @param type the class of the object, e.g. Sample.class
+	 * @return the object
+	 * @throws IllegalArgumentException if the object at this position is of another
+	 *                                  type
+	 */
+	public <T extends StudyOrAssayTableObject> T getSlot(int slot, Class<T> type) {
+		StudyOrAssayTableObject object = this.slots[slot];
+		if (!type.isInstance(object))
+			throw new IllegalArgumentException("Slot " + slot + " holds " + object + ", not a " + type.getSimpleName());
+		return type.cast(object);
+	}
+
+	/**
+	 * @return the number of objects in the line
+	 */
+	public int getSlotCount() {
+		return this.slots.length;
+	}
+
+	/**
+	 * Write the line with the current values of its objects
+	 *
+	 * @throws IOException           if unable to write to the file or stream
+	 * @throws IllegalStateException if the objects were linked differently since
+	 *                               the cursor was created
+	 */
+	public void write() throws IOException {
+		for (int slot = 0; slot < this.slots.length; slot++) {
+			StudyOrAssayTableObject next = slot + 1 < this.slots.length ? this.slots[slot + 1] : null;
+			if (this.slots[slot].getNextStudyOrAssayTableObject() != next)
+				throw new IllegalStateException("The line was linked differently after slot " + slot + " ("
+						+ this.slots[slot] + "), create a new RowCursor for another line structure");
+		}
+		this.file.writeLine(this.slots[0]);
+	}
+
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of rendering a line of a Study or Assay file. Only
+ * every {@link #SAMPLE_INTERVAL}th line of a {@link RowRenderer} is recorded,
+ * so that the event stays cheap enough for production exports.
+ */
+@Name("de.ipk_gatersleben.bit.bi.isa4j.RowRender")
+@Label("Row Render")
+@Category({ "isa4j", "Write Path" })
+@Description("Rendering of one sampled line of a Study or Assay file")
+@StackTrace(false)
+final class RowRenderEvent extends jdk.jfr.Event {
+
+	/**
+	 * One of this many lines is recorded, must be a power of two
+	 */
+	static final int SAMPLE_INTERVAL = 1024;
+
+	@Label("Line Size")
+	@DataAmount
+	long bytes;
+
+	@Label("Columns")
+	int columns;
+
+	@Label("Objects Rendered from Fields")
+	@Description("Objects that did not match the column plan and were rendered via getFields")
+	int fieldFallbacks;
+
+	@Label("Sample Interval")
+	int sampleInterval = SAMPLE_INTERVAL;
+
+}
@@ -0,0 +1,279 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import java.util.Map;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ipk_gatersleben.bit.bi.isa4j.constants.StudyAssayAttribute;
+import de.ipk_gatersleben.bit.bi.isa4j.util.Utf8Buffer;
+
+/**
+ * Renders lines of a {@link Study} or {@link Assay} file along a compiled
+ * {@link ColumnPlan}. Every object of the line pushes its column groups (in the
+ * same order as in its getHeaders) into the renderer, which checks them against
+ * the plan and appends the cells directly as UTF-8 bytes to the output buffer.
+ * Constant cells (Protocol REFs, shared {@link OntologyAnnotation}s and
+ * {@link Ontology} names) are appended in their cached, pre-encoded form.
+ *
+ * If an object does not match the structure of the plan (different order, number
+ * or width of groups) the renderer falls back to the map based
+ * {@link StudyOrAssayTableObject#getFields()} comparison for this object, which
+ * also produces the detailed error messages.
+ *
+ * A renderer is not thread-safe but can be reused for any number of lines.
+ */
+class RowRenderer {
+
+	private static final Logger logger = LoggerFactory.getLogger(RowRenderer.class);
+
+	private int cells;
+
+	/**
+	 * Objects rendered via getFields, for the {@link RowRenderEvent}s
+	 */
+	private int fieldFallbacks;
+
+	private int group;
+
+	private String[] keys;
+
+	/**
+	 * Lines rendered so far, every {@link RowRenderEvent#SAMPLE_INTERVAL}th is recorded
+	 */
+	private long lines;
+
+	private boolean mismatch;
+
+	private Utf8Buffer out;
+
+	private final ColumnPlan plan;
+
+	private int[] widths;
+
+	RowRenderer(ColumnPlan plan) {
+		this.plan = Objects.requireNonNull(plan);
+	}
+
+	/**
+	 * Start a new column group of the current object. Returns false if the group
+	 * does not match the plan at this position, in which case the cells of the group
+	 * must not be written.
+	 */
+	private boolean beginGroup(String key, int width) {
+		if (this.mismatch)
+			return false;
+		if (this.group >= this.keys.length || this.widths[this.group] != width
+				|| !(this.keys[this.group] == key || this.keys[this.group].equals(key))) {
+			this.mismatch = true;
+			return false;
+		}
+		this.group++;
+		return true;
+	}
+
+	private void cell(byte[] encodedValue) {
+		if (this.cells++ > 0)
+			this.out.appendTab();
+		this.out.append(encodedValue);
+	}
+
+	private void cell(String value) {
+		if (this.cells++ > 0)
+			this.out.appendTab();
+		this.out.append(value);
+	}
+
+	/**
+	 * Write a group of {@link Comment}s, one column each
+	 */
+	void comments(CommentCollection comments) {
+		for (Comment comment : comments.getAll()) {
+			this.field(ColumnKey.of(StudyAssayAttribute.COMMENT, comment.getName()).getHeader(), comment.getValue());
+		}
+	}
+
+	/**
+	 * Write a single column group with a constant, pre-encoded value
+	 */
+	void field(String key, byte[] encodedValue) {
+		if (this.beginGroup(key, 1))
+			this.cell(encodedValue);
+	}
+
+	/**
+	 * Write a single column group
+	 */
+	void field(String key, String value) {
+		if (this.beginGroup(key, 1))
+			this.cell(value);
+	}
+
+	ColumnPlan getPlan() {
+		return this.plan;
+	}
+
+	/**
+	 * Write the term of an {@link OntologyAnnotation} followed by its Term Source
+	 * REF and Term Accession Number if present
+	 */
+	void ontologyField(String key, OntologyAnnotation value) {
+		if (this.beginGroup(key, width(value)))
+			this.ontologyCells(value);
+	}
+
+	private void ontologyCells(OntologyAnnotation value) {
+		this.cell(value.getEncodedTerm());
+		if (value.getSourceREF() != null)
+			this.cell(value.getSourceREF().getEncodedName());
+		if (value.getTermAccession() != null)
+			this.cell(value.getEncodedTermAccession());
+	}
+
+	/**
+	 * Render a complete line (including the line break) and append it to the
+	 * buffer. If rendering fails, the buffer is reset to its previous state.
+	 *
+	 * @param initiator the first object of the line
+	 * @param out       the buffer to append the line to
+	 */
+	void render(StudyOrAssayTableObject initiator, Utf8Buffer out) {
+		this.render(initiator, out, false);
+	}
+
+	private boolean render(StudyOrAssayTableObject initiator, Utf8Buffer out, boolean exact) {
+		RowRenderEvent event = null;
+		if ((this.lines++ & (RowRenderEvent.SAMPLE_INTERVAL - 1)) == 0) {
+			event = new RowRenderEvent();
+			event.begin();
+		}
+		int lineStart = out.size();
+		int fieldFallbacks = this.fieldFallbacks;
+		this.out = out;
+		try {
+			if (!this.renderSlots(initiator, exact)) {
+				out.truncate(lineStart);
+				return false;
+			}
+			out.appendEnter();
+			if (event != null) {
+				event.end();
+				if (event.shouldCommit()) {
+					event.bytes = out.size() - lineStart;
+					event.columns = this.plan.getColumnCount();
+					event.fieldFallbacks = this.fieldFallbacks - fieldFallbacks;
+					event.commit();
+				}
+			}
+			return true;
+		} catch (RuntimeException e) {
+			out.truncate(lineStart);
+			throw e;
+		} finally {
+			this.out = null;
+		}
+	}
+
+	/**
+	 * Render a complete line like {@link #render(StudyOrAssayTableObject, Utf8Buffer)},
+	 * but only if every object matches the plan exactly, without the fallback to
+	 * {@link StudyOrAssayTableObject#getFields()}.
+	 *
+	 * @return false (leaving the buffer as it was) if the line has other objects
+	 *         or column groups than the plan
+	 */
+	boolean renderExactly(StudyOrAssayTableObject initiator, Utf8Buffer out) {
+		return this.render(initiator, out, true);
+	}
+
+	private boolean renderSlots(StudyOrAssayTableObject initiator, boolean exact) {
+		StudyOrAssayTableObject currentObject = initiator;
+		for (int slot = 0; slot < this.plan.getSlotCount(); slot++) {
+			if (exact && currentObject == null)
+				return false;
+			// This happens if we have slots left but no more objects in the line
+			Objects.requireNonNull(currentObject,
+					"This line contains fewer objects (Sources, Samples, Processes...) than were defined in the header."
+							+ "\n Please make sure your line structure is uniform (e.g. Sample->Process->Material->Process->DataFile for ALL lines) and everything is linked with Processes correctly.");
+
+			this.keys = this.plan.getKeys(slot);
+			this.widths = this.plan.getWidths(slot);
+			this.group = 0;
+			this.cells = 0;
+			this.mismatch = false;
+			int mark = this.out.size();
+
+			currentObject.renderFields(this);
+
+			if (this.mismatch || this.group != this.keys.length) {
+				if (exact)
+					return false;
+				this.out.truncate(mark);
+				this.renderFromFields(currentObject);
+			}
+
+			currentObject = currentObject.getNextStudyOrAssayTableObject();
+			if (currentObject != null) {
+				if (exact && slot + 1 == this.plan.getSlotCount())
+					return false;
+				this.out.appendTab();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Slow path for objects that do not follow the structure of the plan: look up
+	 * every group of the current slot in the fields of the object.
+	 */
+	private void renderFromFields(StudyOrAssayTableObject object) {
+		this.fieldFallbacks++;
+		Map<String, String[]> fields = object.getFields();
+		this.cells = 0;
+		for (int group = 0; group < this.keys.length; group++) {
+			String key = this.keys[group];
+			String[] values = fields.remove(key);
+			if (values == null)
+				throw new NullPointerException("Object " + object + " has no field for " + key);
+			if (values.length != this.widths[group])
+				throw new IllegalStateException("Object has "
+						+ (this.widths[group] > values.length ? "fewer" : "more")
+						+ "columns than header for " + key
+						+ "\n Please make sure that every object contains the same information as the first line (or the examplary objects that were manually passed to writeHeadersFromExample)."
+						+ "This error mostly occurs when only some objects of the same column (e.g. a specific Process ParameterValue) have Term Source Refs and Term Accession numbers.");
+			for (String value : values)
+				this.cell(value);
+		}
+		if (fields.size() > 0)
+			logger.warn("There were fields for Object {} that had no corresponding header. They were ignored: {}", object,
+					String.join(", ", fields.keySet()));
+	}
+
+	/**
+	 * Write a {@link FactorValue} or {@link ParameterValue}: the value (with its
+	 * ontology columns) followed by the unit (with its ontology columns) if present
+	 */
+	void valueField(String key, Value<?> value) {
+		int width = width(value.getValue());
+		if (value.getUnit() != null)
+			width += width(value.getUnit());
+		if (this.beginGroup(key, width)) {
+			this.ontologyCells(value.getValue());
+			if (value.getUnit() != null)
+				this.ontologyCells(value.getUnit());
+		}
+	}
+
+	private static int width(OntologyAnnotation value) {
+		return 1 + (value.getSourceREF() != null ? 1 : 0) + (value.getTermAccession() != null ? 1 : 0);
+	}
+
+}
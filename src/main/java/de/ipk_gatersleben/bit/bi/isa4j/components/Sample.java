@@ -21,6 +21,8 @@ public class Sample extends Source implements Commentable {
 	
 	private CommentCollection comments = new CommentCollection();
 	
+	private final ItemIndex<FactorValue, Factor> factors = new ItemIndex<FactorValue, Factor>(FactorValue::getCategory, FactorValue::indexes);
+	
 	private List<FactorValue> factorValues = new ArrayList<FactorValue>();
 	
 	public Sample(String name) {
@@ -32,9 +34,10 @@ public class Sample extends Source implements Commentable {
 	}
 
 	public void addFactorValue(FactorValue factorValue) {
-		if(this.factorValues.stream().map(FactorValue::getCategory).anyMatch(factorValue.getCategory()::equals))
+		if(this.factors.get(this.factorValues, factorValue.getCategory()) != null)
 			throw new RedundantItemException("Multiple FactorValues for Factor: " + factorValue.getCategory().getName());
 		this.factorValues.add(factorValue);
+		this.factors.added(factorValue);
 	}
 	
 	public CommentCollection comments() {
@@ -70,6 +73,15 @@ public class Sample extends Source implements Commentable {
 		return headers;
 	}
 	
+	void renderFields(RowRenderer row) {
+		row.field(StudyAssayAttribute.SAMPLE_NAME.toString(), this.getName());
+		this.renderCharacteristics(row);
+		row.comments(this.comments);
+		for(FactorValue factorValue : this.factorValues) {
+			row.valueField(ColumnKey.of(StudyAssayAttribute.FACTOR_VALUE, factorValue.getCategory().getName()).getHeader(), factorValue);
+		}
+	}
+	
 	/**
 	 * @param factorValues the factorValues to set
 	 */
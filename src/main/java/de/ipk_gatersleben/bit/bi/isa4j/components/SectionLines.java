@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import java.util.List;
+import java.util.function.Function;
+
+import de.ipk_gatersleben.bit.bi.isa4j.constants.Symbol;
+import de.ipk_gatersleben.bit.bi.isa4j.util.Utf8Buffer;
+
+/**
+ * The lines of a section of the {@link Investigation} file that lists several
+ * objects side by side (e.g. STUDY CONTACTS: one line per attribute, one column
+ * per Person). Instead of walking the list of objects once per line, the section
+ * is transposed in a single pass: every object appends its cells to all lines at
+ * once, directly as UTF-8 bytes. Every line consists of its name and one
+ * TAB separated cell per object, a section without objects only of the line
+ * names.
+ *
+ * An instance is reused for all sections of a file, it is not thread-safe.
+ */
+class SectionLines {
+
+	private static final byte[] SEMICOLON = Utf8Buffer.encode(Symbol.SEMICOLON.toString());
+
+	private int count = 0;
+
+	private Utf8Buffer[] lines = new Utf8Buffer[0];
+
+	/**
+	 * Start a new section, forgetting the previous one
+	 *
+	 * @param names the names of the lines, in the order they are written
+	 */
+	void begin(String[] names) {
+		if (names.length > this.lines.length) {
+			Utf8Buffer[] grown = new Utf8Buffer[names.length];
+			System.arraycopy(this.lines, 0, grown, 0, this.lines.length);
+			for (int i = this.lines.length; i < grown.length; i++)
+				grown[i] = new Utf8Buffer(256);
+			this.lines = grown;
+		}
+		this.count = names.length;
+		for (int i = 0; i < this.count; i++) {
+			this.lines[i].clear();
+			this.lines[i].append(names[i]);
+		}
+	}
+
+	/**
+	 * Append a cell, null is written as an empty cell
+	 */
+	void cell(int line, String value) {
+		Utf8Buffer buffer = this.lines[line];
+		buffer.appendTab();
+		if (value != null)
+			buffer.append(value);
+	}
+
+	/**
+	 * Append a cell with the values of several items joined by semicolons (null values
+	 * are written as "null", like {@link java.util.stream.Collectors#joining} does)
+	 */
+	<T> void joinedCell(int line, List<T> items, Function<? super T, String> value) {
+		Utf8Buffer buffer = this.lines[line];
+		buffer.appendTab();
+		for (int i = 0; i < items.size(); i++) {
+			if (i > 0)
+				buffer.append(SEMICOLON);
+			buffer.append(value.apply(items.get(i)));
+		}
+	}
+
+	/**
+	 * Append the term, the accession number and the source name of an annotation to
+	 * this and the two following lines, null values are written as empty cells
+	 */
+	void ontologyCells(int line, OntologyAnnotation annotation) {
+		if (annotation == null) {
+			this.cell(line, null);
+			this.cell(line + 1, null);
+			this.cell(line + 2, null);
+		} else {
+			this.cell(line, annotation.getTerm());
+			this.cell(line + 1, annotation.getTermAccession());
+			this.cell(line + 2, annotation.getSourceREF() == null ? null : annotation.getSourceREF().getName());
+		}
+	}
+
+	/**
+	 * Append all lines of the section to the output
+	 */
+	void writeTo(Utf8Buffer out) {
+		for (int i = 0; i < this.count; i++) {
+			out.append(this.lines[i]);
+			out.appendEnter();
+		}
+	}
+
+}
@@ -22,6 +22,8 @@ public class Source extends StudyOrAssayTableObject implements Commentable {
 	
 	private List<Characteristic> characteristics = new ArrayList<Characteristic>();
 	
+	private final ItemIndex<Characteristic, String> characteristicCategories = new ItemIndex<Characteristic, String>(Characteristic::getCategory, Characteristic::indexes);
+	
 	private CommentCollection comments = new CommentCollection();
 	
 	protected String name;
@@ -33,10 +35,11 @@ public class Source extends StudyOrAssayTableObject implements Commentable {
 		this.setCharacteristics(characteristics);
 	}
 	public void addCharacteristic(Characteristic characteristic) {
-		if(this.characteristics.stream().map(Characteristic::getCategory).anyMatch(characteristic.getCategory()::equals))
+		if(this.characteristicCategories.get(this.characteristics, characteristic.getCategory()) != null)
 			throw new RedundantItemException("Multiple entries for Characteristic: " + characteristic.getCategory());
 		
 		this.characteristics.add(characteristic);
+		this.characteristicCategories.added(characteristic);
 	}
 	public CommentCollection comments() {
 		return this.comments;
@@ -62,7 +65,7 @@ public class Source extends StudyOrAssayTableObject implements Commentable {
 		HashMap<String, String[]> fields = new HashMap<String, String[]>();
 		
 		for(Characteristic characteristic : this.characteristics) {
-			String characteristicName = StringUtil.putNameInAttribute(StudyAssayAttribute.CHARACTERISTICS, characteristic.getCategory());
+			String characteristicName = ColumnKey.of(StudyAssayAttribute.CHARACTERISTICS, characteristic.getCategory()).getHeader();
 			List<String> characteristicFields = new ArrayList<String>(3);
 			characteristicFields.add(characteristic.getValue().getTerm());
 			characteristicFields.addAll(this.getOntologyAnnotationExtensionFields(characteristic, c -> c.getValue()));
@@ -87,7 +90,7 @@ public class Source extends StudyOrAssayTableObject implements Commentable {
 		
 		for(Characteristic characteristic : this.characteristics) {
 			List<String> characteristicColumns = new ArrayList<String>(3);
-			String characteristicName = StringUtil.putNameInAttribute(StudyAssayAttribute.CHARACTERISTICS, characteristic.getCategory());		
+			String characteristicName = ColumnKey.of(StudyAssayAttribute.CHARACTERISTICS, characteristic.getCategory()).getHeader();		
 			characteristicColumns.add(characteristicName);
 			characteristicColumns.addAll(this.getOntologyAnnotationExtensionHeaders(characteristic, c -> c.getValue()));
 			headers.put(characteristicName, characteristicColumns.toArray(new String[0]));
@@ -104,6 +107,18 @@ public class Source extends StudyOrAssayTableObject implements Commentable {
 	}
 	
 	
+	void renderFields(RowRenderer row) {
+		row.field(StudyAssayAttribute.SOURCE_NAME.toString(), this.name);
+		this.renderCharacteristics(row);
+		row.comments(this.comments);
+	}
+	
+	protected void renderCharacteristics(RowRenderer row) {
+		for(Characteristic characteristic : this.characteristics) {
+			row.ontologyField(ColumnKey.of(StudyAssayAttribute.CHARACTERISTICS, characteristic.getCategory()).getHeader(), characteristic.getValue());
+		}
+	}
+	
 	/**
 	 * @param characteristics the characteristics to set
 	 */
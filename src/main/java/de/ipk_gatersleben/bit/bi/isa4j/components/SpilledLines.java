@@ -0,0 +1,471 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ipk_gatersleben.bit.bi.isa4j.constants.Props;
+import de.ipk_gatersleben.bit.bi.isa4j.constants.StudyAssayAttribute;
+import de.ipk_gatersleben.bit.bi.isa4j.constants.Symbol;
+import de.ipk_gatersleben.bit.bi.isa4j.util.Utf8Buffer;
+
+/**
+ * The lines of a {@link Study} or {@link Assay} file in late column mode (see
+ * {@link WideTableFile#openFileWithLateColumns()}), where lines may have column
+ * groups that earlier lines did not have.
+ *
+ * Every line is rendered along the {@link ColumnPlan} of its own layout and
+ * spilled to a temporary file. The distinct layouts form a dictionary, a line is
+ * stored as its length followed by its cells, and a change of layout as a
+ * negative number referring to the dictionary. When the file is closed, the
+ * layouts are merged into one union header and the spilled lines are streamed
+ * back, with their cells moved to the union columns and empty cells in the
+ * columns they do not have. Lines of the same layout as the union are copied as
+ * they are, so files with uniform lines only pay for the detour via the
+ * temporary file. Memory use depends on the number of layouts, not of lines.
+ *
+ * Groups with the same key are merged column by column: the value and the unit
+ * of {@link Characteristic}s, {@link FactorValue}s and {@link ParameterValue}s
+ * get a Term Source REF and Term Accession Number column if any line has one.
+ */
+class SpilledLines {
+
+	private static final int ENTER_LENGTH = Utf8Buffer.encode(Symbol.ENTER.toString()).length;
+
+	private static final String TERM_ACCESSION_NUMBER = StudyAssayAttribute.TERM_ACCESSION_NUMBER.toString();
+
+	private static final String TERM_SOURCE_REF = StudyAssayAttribute.TERM_SOURCE_REF.toString();
+
+	private static final Logger logger = LoggerFactory.getLogger(SpilledLines.class);
+
+	private final Utf8Buffer buffer;
+
+	private final FileChannel channel;
+
+	/**
+	 * The layout of the last spilled line
+	 */
+	private Layout current;
+
+	private final Path file;
+
+	private final int flushThreshold;
+
+	private final List<Layout> layouts = new ArrayList<Layout>();
+
+	private final Map<String, Layout> layoutsByHeader = new HashMap<String, Layout>();
+
+	private long lineCount = 0;
+
+	/**
+	 * @param flushThreshold the size at which spilled lines are written to the
+	 *                       temporary file, and lines to the output
+	 * @throws IOException if the temporary file cannot be created
+	 */
+	SpilledLines(int flushThreshold) throws IOException {
+		this.flushThreshold = flushThreshold;
+		this.buffer = new Utf8Buffer(flushThreshold + (flushThreshold >> 2));
+		this.file = Files.createTempFile("isa4j-", ".spill");
+		try {
+			this.channel = FileChannel.open(this.file, StandardOpenOption.WRITE);
+		} catch (IOException e) {
+			Files.deleteIfExists(this.file);
+			throw e;
+		}
+	}
+
+	/**
+	 * Spill a line, adding its layout to the dictionary if it differs from all
+	 * previous ones
+	 *
+	 * @param initiator the first object of the line
+	 * @return true if a column plan was compiled for the line
+	 * @throws IOException if unable to write to the temporary file
+	 */
+	boolean add(StudyOrAssayTableObject initiator) throws IOException {
+		int start = this.buffer.size();
+		if (this.current != null) {
+			this.buffer.appendInt(0);
+			if (this.current.renderer.renderExactly(initiator, this.buffer)) {
+				this.endLine(start);
+				return false;
+			}
+			this.buffer.truncate(start);
+		}
+
+		Layout layout = this.addLayout(ColumnPlan.compile(initiator));
+		try {
+			if (layout != this.current)
+				this.buffer.appendInt(-1 - layout.id);
+			int lineStart = this.buffer.size();
+			this.buffer.appendInt(0);
+			// Only fails if a layout with the same header has other groups, the fallback reports the details
+			if (!layout.renderer.renderExactly(initiator, this.buffer))
+				layout.renderer.render(initiator, this.buffer);
+			this.endLine(lineStart);
+		} catch (RuntimeException e) {
+			this.buffer.truncate(start);
+			throw e;
+		}
+		this.current = layout;
+		return true;
+	}
+
+	/**
+	 * Look up a layout in the dictionary or add it
+	 */
+	Layout addLayout(ColumnPlan plan) {
+		Layout layout = this.layoutsByHeader.get(plan.getHeader());
+		if (layout != null)
+			return layout;
+
+		if (!this.layouts.isEmpty() && this.layouts.get(0).plan.getSlotCount() != plan.getSlotCount())
+			throw new IllegalStateException("This line contains "
+					+ (plan.getSlotCount() < this.layouts.get(0).plan.getSlotCount() ? "fewer" : "more")
+					+ " objects (Sources, Samples, Processes...) than the previous lines."
+					+ "\n Please make sure your line structure is uniform (e.g. Sample->Process->Material->Process->DataFile for ALL lines) and everything is linked with Processes correctly.");
+		layout = new Layout(this.layouts.size(), plan);
+		this.layouts.add(layout);
+		this.layoutsByHeader.put(plan.getHeader(), layout);
+		logger.debug("Added layout {} of late columns: {}", layout.id, plan);
+		return layout;
+	}
+
+	/**
+	 * Close and delete the temporary file
+	 */
+	void delete() {
+		try {
+			this.channel.close();
+			Files.deleteIfExists(this.file);
+		} catch (IOException e) {
+			logger.warn("Could not delete temporary file {}", this.file, e);
+		}
+	}
+
+	/**
+	 * Fill in the length of a line rendered behind its length prefix at start
+	 */
+	private void endLine(int start) throws IOException {
+		this.buffer.truncate(this.buffer.size() - ENTER_LENGTH);
+		this.buffer.setInt(start, this.buffer.size() - start - 4);
+		this.lineCount++;
+		if (this.buffer.size() >= this.flushThreshold)
+			this.buffer.writeTo(this.channel);
+	}
+
+	/**
+	 * @return true if at least one line or header was added
+	 */
+	boolean hasLayouts() {
+		return !this.layouts.isEmpty();
+	}
+
+	/**
+	 * Merge the layouts into the union header and assign every column of every
+	 * layout its union column
+	 *
+	 * @return the union header line
+	 */
+	private String mergeLayouts() {
+		int slotCount = this.layouts.get(0).plan.getSlotCount();
+		List<List<UnionGroup>> slots = new ArrayList<List<UnionGroup>>(slotCount);
+		for (int slot = 0; slot < slotCount; slot++)
+			slots.add(new ArrayList<UnionGroup>());
+
+		for (Layout layout : this.layouts) {
+			String[] columns = layout.plan.getColumns();
+			int column = 0;
+			for (int slot = 0; slot < slotCount; slot++) {
+				List<UnionGroup> groups = slots.get(slot);
+				// New groups are inserted behind the group that precedes them in the layout
+				int position = 0;
+				String[] keys = layout.plan.getKeys(slot);
+				int[] widths = layout.plan.getWidths(slot);
+				for (int group = 0; group < keys.length; group++) {
+					UnionGroup union = null;
+					for (int i = 0; i < groups.size() && union == null; i++) {
+						if (groups.get(i).key.equals(keys[group])) {
+							union = groups.get(i);
+							position = i;
+						}
+					}
+					if (union == null) {
+						union = new UnionGroup(keys[group]);
+						groups.add(position, union);
+					}
+					position++;
+					union.merge(columns, column, widths[group]);
+					column += widths[group];
+				}
+			}
+		}
+
+		StringBuilder header = new StringBuilder();
+		int unionColumns = 0;
+		for (List<UnionGroup> groups : slots) {
+			for (UnionGroup group : groups) {
+				group.offset = unionColumns;
+				for (Segment segment : group.segments) {
+					segment.appendColumns(header, unionColumns == 0);
+					unionColumns += segment.width();
+				}
+			}
+		}
+
+		for (Layout layout : this.layouts)
+			layout.mapColumns(slots, unionColumns);
+		return header.toString();
+	}
+
+	/**
+	 * Write the union header and all spilled lines to the output
+	 *
+	 * @param out   buffer for the output
+	 * @param flush hands the buffer over to the output whenever it is full
+	 * @return the buffer to continue with
+	 * @throws IOException if unable to read the temporary file or write to the
+	 *                     output
+	 */
+	Utf8Buffer writeTo(Utf8Buffer out, Flush flush) throws IOException {
+		if (this.layouts.isEmpty())
+			return out;
+		this.buffer.writeTo(this.channel);
+		this.channel.close();
+
+		String header = this.mergeLayouts();
+		logger.debug("Writing {} lines of {} layouts with union header: {}", this.lineCount, this.layouts.size(), header);
+		out.append(header);
+		out.appendEnter();
+
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(this.file), this.flushThreshold))) {
+			Layout layout = null;
+			byte[] line = new byte[256];
+			for (long i = 0; i < this.lineCount; i++) {
+				int length = in.readInt();
+				while (length < 0) {
+					layout = this.layouts.get(-1 - length);
+					length = in.readInt();
+				}
+				if (line.length < length)
+					line = new byte[Math.max(length, line.length * 2)];
+				in.readFully(line, 0, length);
+
+				if (layout.identity)
+					out.append(line, 0, length);
+				else
+					layout.appendUnionLine(line, length, out);
+				out.appendEnter();
+				if (out.size() >= this.flushThreshold)
+					out = flush.flush(out);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Hands a full buffer over to the output, like the write method of {@link WideTableFile}
+	 */
+	interface Flush {
+		/**
+		 * @return the buffer to continue with
+		 */
+		Utf8Buffer flush(Utf8Buffer full) throws IOException;
+	}
+
+	/**
+	 * A distinct layout of lines and the position of its columns in the union
+	 */
+	private static class Layout {
+
+		/**
+		 * Start of every cell while a line is moved to the union columns, with the
+		 * end of the line behind the last cell
+		 */
+		private int[] cellStarts;
+
+		private final int id;
+
+		/**
+		 * True if the layout has exactly the union columns
+		 */
+		private boolean identity;
+
+		private final ColumnPlan plan;
+
+		private final RowRenderer renderer;
+
+		/**
+		 * The column of this layout for every union column, -1 for an empty cell
+		 */
+		private int[] sourceColumns;
+
+		private Layout(int id, ColumnPlan plan) {
+			this.id = id;
+			this.plan = plan;
+			this.renderer = new RowRenderer(plan);
+		}
+
+		private void appendUnionLine(byte[] line, int length, Utf8Buffer out) {
+			int[] cellStarts = this.cellStarts;
+			int cell = 0;
+			cellStarts[0] = 0;
+			for (int i = 0; i < length; i++) {
+				if (line[i] == '\t') {
+					if (++cell == this.plan.getColumnCount())
+						throw new IllegalStateException("Spilled line has more cells than its header: "
+								+ new String(line, 0, length, Props.DEFAULT_CHARSET));
+					cellStarts[cell] = i + 1;
+				}
+			}
+			cellStarts[cell + 1] = length + 1;
+
+			for (int column = 0; column < this.sourceColumns.length; column++) {
+				if (column > 0)
+					out.appendTab();
+				int source = this.sourceColumns[column];
+				if (source >= 0 && source <= cell)
+					out.append(line, cellStarts[source], cellStarts[source + 1] - 1 - cellStarts[source]);
+			}
+		}
+
+		private void mapColumns(List<List<UnionGroup>> slots, int unionColumns) {
+			String[] columns = this.plan.getColumns();
+			this.sourceColumns = new int[unionColumns];
+			Arrays.fill(this.sourceColumns, -1);
+			int column = 0;
+			for (int slot = 0; slot < slots.size(); slot++) {
+				String[] keys = this.plan.getKeys(slot);
+				int[] widths = this.plan.getWidths(slot);
+				for (int group = 0; group < keys.length; group++) {
+					UnionGroup union = null;
+					for (UnionGroup candidate : slots.get(slot)) {
+						if (candidate.key.equals(keys[group]))
+							union = candidate;
+					}
+					union.mapColumns(columns, column, widths[group], this.sourceColumns);
+					column += widths[group];
+				}
+			}
+
+			this.identity = columns.length == unionColumns;
+			for (int i = 0; i < unionColumns && this.identity; i++)
+				this.identity = this.sourceColumns[i] == i;
+			this.cellStarts = new int[columns.length + 1];
+		}
+	}
+
+	/**
+	 * The term (or unit) of a group with its optional ontology columns
+	 */
+	private static class Segment {
+
+		private boolean accession;
+
+		private final String name;
+
+		private boolean source;
+
+		private Segment(String name) {
+			this.name = name;
+		}
+
+		private void appendColumns(StringBuilder header, boolean first) {
+			if (!first)
+				header.append(Symbol.TAB.toString());
+			header.append(this.name);
+			if (this.source)
+				header.append(Symbol.TAB.toString()).append(TERM_SOURCE_REF);
+			if (this.accession)
+				header.append(Symbol.TAB.toString()).append(TERM_ACCESSION_NUMBER);
+		}
+
+		private int width() {
+			return 1 + (this.source ? 1 : 0) + (this.accession ? 1 : 0);
+		}
+	}
+
+	/**
+	 * A column group of the union header, merged from the groups with its key in
+	 * all layouts
+	 */
+	private static class UnionGroup {
+
+		private final String key;
+
+		/**
+		 * Index of the first column of the group in the union header
+		 */
+		private int offset;
+
+		private final List<Segment> segments = new ArrayList<Segment>(2);
+
+		private UnionGroup(String key) {
+			this.key = key;
+		}
+
+		/**
+		 * Assign the columns of a group of a layout to their union columns
+		 */
+		private void mapColumns(String[] columns, int start, int width, int[] sourceColumns) {
+			int segment = -1;
+			int segmentOffset = this.offset;
+			for (int column = start; column < start + width; column++) {
+				String name = columns[column];
+				if (name.equals(TERM_SOURCE_REF)) {
+					sourceColumns[segmentOffset + 1] = column;
+				} else if (name.equals(TERM_ACCESSION_NUMBER)) {
+					sourceColumns[segmentOffset + (this.segments.get(segment).source ? 2 : 1)] = column;
+				} else {
+					if (segment >= 0)
+						segmentOffset += this.segments.get(segment).width();
+					segment++;
+					sourceColumns[segmentOffset] = column;
+				}
+			}
+		}
+
+		/**
+		 * Add the columns of a group of a layout to the union
+		 */
+		private void merge(String[] columns, int start, int width) {
+			int segment = -1;
+			for (int column = start; column < start + width; column++) {
+				String name = columns[column];
+				if (name.equals(TERM_SOURCE_REF)) {
+					this.segments.get(segment).source = true;
+				} else if (name.equals(TERM_ACCESSION_NUMBER)) {
+					this.segments.get(segment).accession = true;
+				} else {
+					segment++;
+					if (segment == this.segments.size())
+						this.segments.add(new Segment(name));
+					else if (!this.segments.get(segment).name.equals(name))
+						throw new IllegalStateException("Column " + name + " of " + this.key
+								+ " cannot be merged with column " + this.segments.get(segment).name + " of previous lines");
+				}
+			}
+		}
+	}
+
+}
@@ -29,6 +29,11 @@ public class Study extends WideTableFile implements Commentable {
 	 */
 	private List<Assay> assays = new ArrayList<>(2);
 
+	/**
+	 * Index of the {@link #assays} by file name, for the uniqueness check
+	 */
+	private final ItemIndex<Assay, String> assayFileNames = new ItemIndex<Assay, String>(Assay::getFileName, Assay::indexes);
+
 	/**
 	 * People, who take part to the Investigation {@link Person}
 	 */
@@ -112,11 +117,12 @@ public class Study extends WideTableFile implements Commentable {
 	 */
 	public void addAssay(Assay assay) {
 		Objects.requireNonNull(assay);
-		if (this.assays.stream().map(Assay::getFileName).anyMatch(assay.getFileName()::equals))
+		if (this.assayFileNames.get(this.assays, assay.getFileName()) != null)
 			throw new RedundantItemException("Assay Filename not unique: " + assay.getFileName());
 
 		assay.setStudy(this);
 		this.assays.add(assay);
+		this.assayFileNames.added(assay);
 	}
 
 	/**
@@ -316,6 +322,8 @@ public class Study extends WideTableFile implements Commentable {
 	 * @param identifier the identifier to set
 	 */
 	public void setIdentifier(String identifier) {
+		if (this.identifier != null)
+			this.indexes().keyChanged();
 		this.identifier = StringUtil.sanitize(Objects.requireNonNull(identifier, "Study identifier cannot be null"));
 	}
 
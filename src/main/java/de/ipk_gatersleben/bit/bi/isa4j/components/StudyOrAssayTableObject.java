@@ -15,7 +15,6 @@ import java.util.Map;
 import java.util.function.Function;
 
 import de.ipk_gatersleben.bit.bi.isa4j.constants.StudyAssayAttribute;
-import de.ipk_gatersleben.bit.bi.isa4j.util.StringUtil;
 
 public abstract class StudyOrAssayTableObject {
 
@@ -42,7 +41,7 @@ public abstract class StudyOrAssayTableObject {
 		HashMap<String, String[]> fields = new HashMap<String, String[]>();
 
 		for (Comment comment : comments.getAll()) {
-			String commentName = StringUtil.putNameInAttribute(StudyAssayAttribute.COMMENT, comment.getName());
+			String commentName = ColumnKey.of(StudyAssayAttribute.COMMENT, comment.getName()).getHeader();
 			fields.put(commentName, new String[] { comment.getValue() });
 		}
 
@@ -55,7 +54,7 @@ public abstract class StudyOrAssayTableObject {
 
 		for (T tValue : tValues) {
 			List<String> tValueFields = new ArrayList<String>(3);
-			String tValueName = StringUtil.putNameInAttribute(tName, lambda.apply(tValue));
+			String tValueName = ColumnKey.of(tName, lambda.apply(tValue)).getHeader();
 			tValueFields.add(tValue.getValue().getTerm());
 			tValueFields.addAll(this.getOntologyAnnotationExtensionFields(tValue, c -> c.getValue()));
 			if (tValue.getUnit() != null) {
@@ -83,7 +82,7 @@ public abstract class StudyOrAssayTableObject {
 		LinkedHashMap<String, String[]> headers = new LinkedHashMap<String, String[]>();
 
 		for (Comment comment : comments.getAll()) {
-			String commentName = StringUtil.putNameInAttribute(StudyAssayAttribute.COMMENT, comment.getName());
+			String commentName = ColumnKey.of(StudyAssayAttribute.COMMENT, comment.getName()).getHeader();
 			headers.put(commentName, new String[] { commentName });
 		}
 
@@ -96,7 +95,7 @@ public abstract class StudyOrAssayTableObject {
 
 		for (T tValue : tValues) {
 			List<String> tValueColumns = new ArrayList<String>(3);
-			String tValueName = StringUtil.putNameInAttribute(tName, lambda.apply(tValue));
+			String tValueName = ColumnKey.of(tName, lambda.apply(tValue)).getHeader();
 			tValueColumns.add(tValueName);
 			tValueColumns.addAll(this.getOntologyAnnotationExtensionHeaders(tValue, c -> c.getValue()));
 			if (tValue.getUnit() != null) {
@@ -147,6 +146,17 @@ public abstract class StudyOrAssayTableObject {
 		return extensionHeaders;
 	}
 
+	/**
+	 * Push the column groups of this object into the renderer, in exactly the same
+	 * order and with the same keys as {@link #getHeaders()} and with the values of
+	 * {@link #getFields()}. This is the fast path used by
+	 * {@link WideTableFile#writeLine(StudyOrAssayTableObject)} and must not create
+	 * any intermediate maps or lists.
+	 * 
+	 * @param row the renderer to push the fields into
+	 */
+	abstract void renderFields(RowRenderer row);
+
 	/**
 	 * @param nextStudyOrAssayTableObject the nextStudyOrAssayTableObject to set
 	 */
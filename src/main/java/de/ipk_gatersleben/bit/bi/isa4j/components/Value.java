@@ -12,6 +12,11 @@ import java.util.Objects;
 abstract class Value<T> {
 	private T category;
 	
+	/**
+	 * The indexes of the lists this value was added to
+	 */
+	private final ItemIndex.Owners indexes = new ItemIndex.Owners();
+	
 	private OntologyAnnotation unit;
 	
 	private OntologyAnnotation value;
@@ -61,10 +66,19 @@ abstract class Value<T> {
 		return !(this.unit == null);
 	}
 	
+	/**
+	 * @return the indexes this value was added to, see {@link ItemIndex}
+	 */
+	ItemIndex.Owners indexes() {
+		return this.indexes;
+	}
+	
 	/**
 	 * @param category the category to set
 	 */
 	public void setCategory(T category) {
+		if (this.category != null)
+			this.indexes.keyChanged();
 		this.category = Objects.requireNonNull(category, "Category cannot be null");
 	}
 	
@@ -75,11 +89,19 @@ abstract class Value<T> {
 		this.unit = unit;
 	}
 
+	public void setValue(double value) {
+		this.value = new OntologyAnnotation(String.valueOf(value), null, null);
+	}
+
 	public void setValue(int value) {
 		this.value = new OntologyAnnotation(String.valueOf(value), null, null);
 	}
 
 	/**
+	 * Values given as numbers or Strings get an annotation of their own, pass
+	 * {@link OntologyAnnotation#of(String)} here to share values repeated on many
+	 * lines.
+	 * 
 	 * @param value the value to set
 	 */
 	public void setValue(OntologyAnnotation value) {
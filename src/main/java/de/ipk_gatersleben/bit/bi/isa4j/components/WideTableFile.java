@@ -11,32 +11,161 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.ipk_gatersleben.bit.bi.isa4j.constants.Props;
-import de.ipk_gatersleben.bit.bi.isa4j.constants.Symbol;
+import de.ipk_gatersleben.bit.bi.isa4j.exceptions.InvalidRowException;
+import de.ipk_gatersleben.bit.bi.isa4j.util.AtomicFile;
+import de.ipk_gatersleben.bit.bi.isa4j.util.BlockGzipChannel;
+import de.ipk_gatersleben.bit.bi.isa4j.util.FsyncPolicy;
 import de.ipk_gatersleben.bit.bi.isa4j.util.StringUtil;
+import de.ipk_gatersleben.bit.bi.isa4j.util.Utf8Buffer;
 
 public abstract class WideTableFile implements Commentable {
 
+	/**
+	 * Lines are collected in the buffer and handed to the channel whenever it exceeds this size
+	 */
+	private static final int FLUSH_THRESHOLD = 1 << 16;
+
+	/**
+	 * Initial size of the buffers, leaves room for the line that crosses the threshold
+	 */
+	private static final int BUFFER_CAPACITY = FLUSH_THRESHOLD + (FLUSH_THRESHOLD >> 2);
+
+	/**
+	 * Number of lines that are rendered together by one task in writeLines
+	 */
+	private static final int BATCH_SIZE = 256;
+
+	/**
+	 * Default number of bytes written between two checkpoints in resume mode
+	 */
+	private static final long CHECKPOINT_INTERVAL = 64L << 20;
+
+	/**
+	 * Temporary files of the current file in atomic mode, published by closeFile
+	 */
+	private List<AtomicFile> atomicFiles;
+
+	/**
+	 * Writes the buffers on an I/O thread in async mode, null otherwise
+	 */
+	private BackgroundWriter background;
+
+	/**
+	 * Rendered lines that have not been handed to the channel yet
+	 */
+	private Utf8Buffer buffer;
+
+	private WritableByteChannel channel;
+
+	/**
+	 * Sidecar file of the checkpoints in resume mode, null otherwise
+	 */
+	private Path checkpointFile;
+
+	private long checkpointInterval = CHECKPOINT_INTERVAL;
+
+	/**
+	 * File size at the last checkpoint (or when the file was resumed) in resume mode
+	 */
+	private long checkpointOffset;
+
 	private CommentCollection comments = new CommentCollection();
 
 	private String fileName;
 
-	private ArrayList<LinkedHashMap<String, String[]>> headers = null;
+	/**
+	 * Policy of the atomic mode, null to write files in place
+	 */
+	private FsyncPolicy fsyncPolicy;
+
+	/**
+	 * The indexes of the lists this file was added to
+	 */
+	private final ItemIndex.Owners indexes = new ItemIndex.Owners();
+
+	/**
+	 * Number of lines (without the header) in the current file or stream, for the
+	 * checkpoints of the resume mode. Counted by writeLine in synchronous and async
+	 * mode and by the batches of writeLines and the line collector, not in
+	 * concurrent mode and late column mode.
+	 */
+	private long lineCount;
 
 	private final Logger logger = LoggerFactory.getLogger(WideTableFile.class);
-	
-	private OutputStreamWriter outputstreamwriter;
+
+	/**
+	 * Counters of the write path, null as long as metrics are disabled
+	 */
+	private volatile WriteMetrics metrics;
+
+	/**
+	 * Buffer and renderer of the current thread in concurrent mode, null otherwise
+	 */
+	private ThreadLocal<Producer> producer;
+
+	/**
+	 * All producers of the concurrent mode, flushed when closing/releasing
+	 */
+	private ConcurrentLinkedQueue<Producer> producers;
+
+	/**
+	 * The stream passed to setOutputStream (null when writing to a file), only kept for flushing
+	 */
+	private OutputStream outputStream;
+
+	/**
+	 * Renders lines along the compiled column plan, null as long as no headers were written
+	 */
+	private volatile RowRenderer renderer = null;
+
+	/**
+	 * Hash of the header for the checkpoints in resume mode
+	 */
+	private String schemaHash;
+
+	/**
+	 * Column plan of the concurrent mode, only set once the headers are handed to the channel
+	 */
+	private volatile ColumnPlan sharedPlan;
+
+	/**
+	 * Lines of the late column mode, null otherwise
+	 */
+	private SpilledLines spill;
+
+	/**
+	 * Guards writing the headers and, in synchronous mode, the channel
+	 */
+	private final Object writeLock = new Object();
 	
 	/**
 	 * Constructor, give the filename
@@ -53,16 +182,221 @@ public abstract class WideTableFile implements Commentable {
 	 * @throws IOException is unable to close file
 	 */
 	public void closeFile() throws IOException {
+		this.closeFile(true);
+	}
+
+	/**
+	 * Closes the file. In atomic mode, the temporary files are prepared and, if
+	 * requested, published.
+	 * 
+	 * @param publish false to leave the publication of the prepared files to the caller
+	 * @return the prepared files in atomic mode, an empty list otherwise
+	 */
+	List<AtomicFile> closeFile(boolean publish) throws IOException {
 		logger.debug("{}: Closing output file.", this);
-		this.outputstreamwriter.close();
-		this.outputstreamwriter = null;
-		this.headers = null;
+		Path checkpointFile = this.checkpointFile;
+		List<AtomicFile> atomicFiles = this.atomicFiles;
+		try {
+			this.flushAll();
+			if (atomicFiles != null) {
+				AtomicChannels.prepare(this.channel, atomicFiles);
+				if (publish)
+					AtomicChannels.publish(atomicFiles);
+			}
+		} finally {
+			// Temporary files that were not prepared are deleted
+			this.channel.close();
+			this.reset();
+		}
+		// The file is complete, so there is nothing left to resume
+		if (checkpointFile != null)
+			Files.deleteIfExists(checkpointFile);
+		return atomicFiles == null ? Collections.emptyList() : atomicFiles;
+	}
+
+	/**
+	 * @return the number of bytes in the buffer that were not handed to the channel yet
+	 */
+	int bufferedBytes() {
+		return this.buffer == null ? 0 : this.buffer.size();
+	}
+
+	private void checkCollectable() {
+		if (this.channel == null)
+			throw new IllegalStateException("No file or stream open for writing");
+		if (this.producers != null)
+			throw new IllegalStateException("Lines cannot be collected in concurrent mode, call writeLine from several threads instead");
+		if (this.spill != null)
+			throw new IllegalStateException("Lines cannot be collected in late column mode");
+	}
+
+	private static void checkQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 1)
+			throw new IllegalArgumentException("Queue capacity must be at least 1, not " + queueCapacity);
+	}
+
+	/**
+	 * Write the lines of a stream with {@link #lineCollector()}. If the stream is
+	 * parallel, the whole pipeline including the rendering of the lines runs on
+	 * the fork-join threads of the stream, the lines are still written in
+	 * encounter order, exactly as if {@link #writeLine(StudyOrAssayTableObject)}
+	 * was called for each of them. The rendered lines are kept in memory until
+	 * the stream is done (as bytes, usually much less than the objects), so
+	 * streams of many millions of lines should rather be split or written with
+	 * {@link #writeLines(Stream)}. If the headers were not written before, the
+	 * line objects are kept as well, so that all parts of the stream can be
+	 * rendered along the header of the first line.
+	 * 
+	 * If a line cannot be rendered (e.g. because it doesn't match the header), all
+	 * lines before it are written and an {@link InvalidRowException} with the index
+	 * of the line is thrown.
+	 * 
+	 * @param initiators the first objects of the lines
+	 * @return the number of lines written
+	 * @throws IOException if unable to write to the file or stream
+	 */
+	public long collectLines(Stream<? extends StudyOrAssayTableObject> initiators) throws IOException {
+		try {
+			return initiators.collect(this.lineCollector());
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
 	}
 
 	public CommentCollection comments() {
 		return this.comments;
 	}
 
+	/**
+	 * Stop recording metrics and unregister their MBean, see {@link #enableMetrics(boolean)}
+	 */
+	public void disableMetrics() {
+		WriteMetrics metrics = this.metrics;
+		this.metrics = null;
+		if (metrics != null)
+			metrics.unregister();
+	}
+
+	/**
+	 * Start recording {@link WriteMetrics} of everything written by this object.
+	 * The metrics keep counting across files and streams until they are disabled
+	 * or {@link WriteMetrics#reset()}. While they are disabled, writing costs one
+	 * null check per line more than before.
+	 * 
+	 * @param registerMBean true to register the metrics with the platform MBean
+	 *                      server, e.g. to alert on drops of the throughput of
+	 *                      long exports
+	 * @return the metrics, to take snapshots of them
+	 */
+	public WriteMetrics enableMetrics(boolean registerMBean) {
+		WriteMetrics metrics = this.metrics;
+		if (metrics == null) {
+			metrics = new WriteMetrics();
+			this.metrics = metrics;
+		}
+		if (registerMBean)
+			metrics.register(this.getClass().getSimpleName(), this.fileName);
+		return metrics;
+	}
+
+	/**
+	 * Hand all buffered lines over to the channel
+	 */
+	private void flushBuffer() throws IOException {
+		if (this.buffer.size() > 0) {
+			this.buffer = this.write(this.buffer);
+			if (this.checkpointFile != null)
+				this.recordCheckpoint();
+		}
+	}
+
+	/**
+	 * Hand all buffers (including those of the producers in concurrent mode) over
+	 * to the channel and wait for the I/O thread in async mode
+	 */
+	private void flushAll() throws IOException {
+		try {
+			if (this.spill != null)
+				this.buffer = this.spill.writeTo(this.buffer, this::write);
+			if (this.producers != null) {
+				for (Producer producer : this.producers) {
+					if (producer.buffer.size() > 0)
+						producer.buffer = this.write(producer.buffer);
+				}
+			}
+			this.flushBuffer();
+		} finally {
+			this.stopBackground();
+		}
+	}
+
+	/**
+	 * Count the complete lines behind the header of a file that is resumed,
+	 * starting from the checkpoint if it is valid, and cut off an incomplete last line
+	 * 
+	 * @return the number of lines without the header
+	 */
+	private long countLines(FileChannel file, long headerLength, Checkpoint checkpoint) throws IOException {
+		long lines = 0;
+		long position = headerLength;
+		if (checkpoint != null && checkpoint.getByteOffset() >= headerLength && checkpoint.getByteOffset() <= file.size()) {
+			ByteBuffer last = ByteBuffer.allocate(1);
+			file.read(last, checkpoint.getByteOffset() - 1);
+			if (last.get(0) == '\n') {
+				lines = checkpoint.getRowCount();
+				position = checkpoint.getByteOffset();
+			}
+		}
+		logger.debug("{}: Counting lines from byte {} on, {} lines before", this, position, lines);
+
+		ByteBuffer bytes = ByteBuffer.allocate(FLUSH_THRESHOLD);
+		long lineEnd = position;
+		int read;
+		while ((read = file.read(bytes, position)) > 0) {
+			for (int i = 0; i < read; i++) {
+				if (bytes.get(i) == '\n') {
+					lines++;
+					lineEnd = position + i + 1;
+				}
+			}
+			position += read;
+			bytes.clear();
+		}
+		if (lineEnd < file.size()) {
+			logger.warn("{}: Removing incomplete last line of {} bytes from '{}'.", this, file.size() - lineEnd, this.fileName);
+			file.truncate(lineEnd);
+		}
+		file.position(lineEnd);
+		return lines;
+	}
+
+	/**
+	 * @return the policy of the atomic mode or null if the file is written in
+	 *         place, see {@link #setAtomicPublication(FsyncPolicy)}
+	 */
+	FsyncPolicy getAtomicPublication() {
+		return this.fsyncPolicy;
+	}
+
+	/**
+	 * Returns the compiled column plan of the headers that were written to the
+	 * current file or stream. It can be passed to {@link #writeHeaders(ColumnPlan)}
+	 * of another Study or Assay with the same schema.
+	 * 
+	 * @return the column plan or null if no headers have been written yet
+	 */
+	public ColumnPlan getColumnPlan() {
+		return this.renderer == null ? null : this.renderer.getPlan();
+	}
+
+	/**
+	 * @return the metrics of the write path, or null if they are not enabled, see
+	 *         {@link #enableMetrics(boolean)}
+	 */
+	public WriteMetrics getMetrics() {
+		return this.metrics;
+	}
+
 	/**
 	 * Get filename of study
 	 *
@@ -79,116 +413,818 @@ public abstract class WideTableFile implements Commentable {
 	 * @return if the headers are written
 	 */
 	public boolean hasWrittenHeaders() {
-		return this.headers != null;
+		return this.renderer != null;
 	}
 
+	/**
+	 * @return the indexes this file was added to, see {@link ItemIndex}
+	 */
+	ItemIndex.Owners indexes() {
+		return this.indexes;
+	}
+
+	/**
+	 * Get a collector that writes the lines of a stream to this file, see
+	 * {@link #collectLines(Stream)}. The collector returns the number of lines
+	 * written. I/O errors are thrown as {@link java.io.UncheckedIOException}.
+	 * 
+	 * @return the collector
+	 */
+	public Collector<StudyOrAssayTableObject, ?, Long> lineCollector() {
+		this.checkCollectable();
+		return new LineCollector(this);
+	}
+
+	/**
+	 * Open the file for writing. If the file name ends with
+	 * {@link Props#GZIP_SUFFIX}, the file is written block-gzip compressed with a
+	 * line index next to it, see {@link BlockGzipChannel}.
+	 * 
+	 * @throws FileNotFoundException if the file cannot be opened
+	 */
 	public void openFile() throws FileNotFoundException {
-		logger.debug("{}: Directing output to File '{}'.", this, this.fileName);
-		this.setOutputStream(new FileOutputStream(this.fileName));
+		this.openFile(this.fsyncPolicy);
+	}
+
+	/**
+	 * Open the file for writing, in atomic mode if a policy is given
+	 */
+	void openFile(FsyncPolicy policy) throws FileNotFoundException {
+		this.openFile(this.fileName, policy);
+	}
+
+	/**
+	 * Open the file at another path than its file name (e.g. resolved against the
+	 * directory of the investigation file), in atomic mode if a policy is given
+	 */
+	void openFile(String path, FsyncPolicy policy) throws FileNotFoundException {
+		logger.debug("{}: Directing output to File '{}'.", this, path);
+		if (policy == null) {
+			if (path.endsWith(Props.GZIP_SUFFIX))
+				this.setChannel(BlockGzipChannel.open(path), null);
+			else
+				this.setChannel(new FileOutputStream(path).getChannel(), null);
+			return;
+		}
+
+		List<AtomicFile> files = new ArrayList<AtomicFile>(2);
+		WritableByteChannel channel;
+		try {
+			channel = AtomicChannels.open(path, policy, files);
+		} catch (IOException e) {
+			FileNotFoundException notFound = new FileNotFoundException(
+					"Cannot create temporary file for '" + path + "': " + e.getMessage());
+			notFound.initCause(e);
+			throw notFound;
+		}
+		try {
+			this.setChannel(channel, null);
+		} catch (RuntimeException e) {
+			AtomicChannels.abort(files, e);
+			throw e;
+		}
+		this.atomicFiles = files;
+	}
+
+	/**
+	 * Open the file in async mode: lines are rendered on the calling thread, but
+	 * written to the file by a dedicated I/O thread, so that building the objects
+	 * of the next lines overlaps with writing. Errors of the I/O thread are thrown
+	 * by the next call of writeLine, writeLines or closeFile. closeFile waits until
+	 * everything is written.
+	 * 
+	 * @param queueCapacity the number of filled buffers (of about 64 KB each) that
+	 *                      may wait for the I/O thread before writeLine blocks
+	 * @throws FileNotFoundException if the file cannot be opened
+	 */
+	public void openFileAsync(int queueCapacity) throws FileNotFoundException {
+		checkQueueCapacity(queueCapacity);
+		this.openFile();
+		this.startBackground(queueCapacity);
+	}
+
+	/**
+	 * Open the file in concurrent mode: any number of threads may call writeLine at
+	 * the same time. Every thread renders its lines into its own buffer and hands
+	 * it over to the file when it is full, taking a lock once per buffer of about
+	 * 64 KB. The lines of different threads appear in no particular order (the
+	 * lines of one thread keep their order). The headers are written exactly once,
+	 * taken from the first line or from writeHeaders/writeHeadersFromExample.
+	 * closeFile must only be called after all threads have finished writing.
+	 * 
+	 * @throws FileNotFoundException if the file cannot be opened
+	 */
+	public void openFileConcurrent() throws FileNotFoundException {
+		this.openFile();
+		this.startConcurrent();
+	}
+
+	/**
+	 * Open the file in late column mode: lines may have Characteristics,
+	 * ParameterValues, FactorValues, Comments or ontology columns that earlier
+	 * lines did not have. The lines are spilled to a temporary file and the header
+	 * is only written on closeFile, with the union of all columns; cells that a
+	 * line does not have are left empty. New column groups are placed behind the
+	 * group that precedes them in the line where they first appear.
+	 * 
+	 * writeHeaders and writeHeadersFromExample only determine the order of the
+	 * columns they contain, and hasWrittenHeaders stays false until the file is
+	 * closed. All lines must still consist of the same sequence of objects.
+	 * 
+	 * @throws IOException if the file or the temporary file cannot be opened
+	 */
+	public void openFileWithLateColumns() throws IOException {
+		SpilledLines spill = new SpilledLines(FLUSH_THRESHOLD);
+		try {
+			this.openFile();
+		} catch (IOException | RuntimeException e) {
+			spill.delete();
+			throw e;
+		}
+		this.spill = spill;
 	}
 
 	public void releaseStream() throws IOException {
 		logger.debug("{}: Releasing output stream.", this);	
-		this.outputstreamwriter.flush();
-		this.outputstreamwriter = null;
-		this.headers = null;
+		try {
+			this.flushAll();
+			if (this.channel instanceof BlockGzipChannel)
+				((BlockGzipChannel) this.channel).finish();
+			if (this.outputStream != null)
+				this.outputStream.flush();
+		} finally {
+			this.reset();
+		}
+	}
+
+	/**
+	 * Read the last checkpoint of the file, see {@link #resumeFile(ColumnPlan)}. It
+	 * tells how many lines of an interrupted export were complete at the latest
+	 * when the checkpoint was recorded.
+	 * 
+	 * @return the checkpoint or an empty Optional if there is none
+	 * @throws IOException if the checkpoint file cannot be read
+	 */
+	public Optional<Checkpoint> readCheckpoint() throws IOException {
+		return Checkpoint.read(Paths.get(this.fileName + Props.CHECKPOINT_SUFFIX));
+	}
+
+	/**
+	 * Force the file to the storage device and record a checkpoint if enough bytes
+	 * were written since the last one
+	 */
+	private void recordCheckpoint() throws IOException {
+		FileChannel file = (FileChannel) this.channel;
+		long position = file.position();
+		if (position - this.checkpointOffset < this.checkpointInterval)
+			return;
+		file.force(false);
+		Checkpoint checkpoint = new Checkpoint(this.lineCount, position, this.schemaHash);
+		checkpoint.write(this.checkpointFile);
+		logger.debug("{}: Recorded {}", this, checkpoint);
+		this.checkpointOffset = position;
+	}
+
+	/**
+	 * Forget the current file or stream and everything that was written to it
+	 */
+	private void reset() {
+		if (this.spill != null)
+			this.spill.delete();
+		this.spill = null;
+		this.channel = null;
+		this.outputStream = null;
+		this.renderer = null;
+		this.producer = null;
+		this.producers = null;
+		this.sharedPlan = null;
+		this.atomicFiles = null;
+		this.checkpointFile = null;
+		this.schemaHash = null;
+		this.lineCount = 0;
+	}
+
+	/**
+	 * Open the existing file to continue writing lines to it, e.g. after an
+	 * export was interrupted. The header line of the file must be the one of the
+	 * plan; if the file does not exist or has no complete header yet, the header
+	 * is written like {@link #writeHeaders(ColumnPlan)} does. An incomplete last
+	 * line is removed. The lines already in the file are counted (from the last
+	 * checkpoint on, see {@link #readCheckpoint()}), so the caller knows with
+	 * which line to continue.
+	 * 
+	 * While writing, a {@link Checkpoint} is recorded in a sidecar file about
+	 * every {@link #setCheckpointInterval(long)} bytes, after forcing the file to
+	 * the storage device. closeFile deletes the sidecar file. Resume mode is
+	 * synchronous; block-gzip compressed files cannot be resumed.
+	 * 
+	 * @param plan the column plan of the lines, e.g. from {@link ColumnPlan#compile(StudyOrAssayTableObject)}
+	 * @return the number of lines already in the file, without the header
+	 * @throws IOException           if the file cannot be read or written
+	 * @throws IllegalStateException if the header of the file does not match the plan
+	 */
+	public long resumeFile(ColumnPlan plan) throws IOException {
+		Objects.requireNonNull(plan, "Column plan cannot be null");
+		if (this.fileName.endsWith(Props.GZIP_SUFFIX))
+			throw new IllegalStateException("Compressed file '" + this.fileName + "' cannot be resumed");
+		logger.debug("{}: Resuming output to File '{}'.", this, this.fileName);
+
+		Path checkpointFile = Paths.get(this.fileName + Props.CHECKPOINT_SUFFIX);
+		String schemaHash = Checkpoint.schemaHash(plan);
+		FileChannel file = FileChannel.open(Paths.get(this.fileName), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		long lines = -1;
+		try {
+			byte[] header = plan.getEncodedHeader();
+			ByteBuffer existing = ByteBuffer.allocate((int) Math.min(file.size(), header.length));
+			while (existing.hasRemaining() && file.read(existing, existing.position()) > 0)
+				;
+			for (int i = 0; i < existing.limit(); i++) {
+				if (existing.get(i) != header[i])
+					throw new IllegalStateException("The header of '" + this.fileName + "' does not match the lines to write: "
+							+ new String(existing.array(), 0, existing.limit(), Props.DEFAULT_CHARSET));
+			}
+			if (existing.limit() == header.length)
+				lines = this.countLines(file, header.length, Checkpoint.read(checkpointFile)
+						.filter(checkpoint -> checkpoint.getSchemaHash().equals(schemaHash)).orElse(null));
+			else
+				file.truncate(0);
+			this.setChannel(file, null);
+		} catch (IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+
+		if (lines < 0) {
+			this.writeHeaders(plan);
+			lines = 0;
+		} else {
+			this.renderer = new RowRenderer(plan);
+		}
+		this.lineCount = lines;
+		this.checkpointFile = checkpointFile;
+		this.schemaHash = schemaHash;
+		this.checkpointOffset = file.position();
+		return lines;
+	}
+
+	/**
+	 * Write files in atomic mode (or in place again, the default, with null): all
+	 * methods that open the file write to a temporary file in the same directory
+	 * instead, which closeFile renames over the file once it is complete. Readers
+	 * never see a half-written file, and if writing fails or the process dies, the
+	 * previous file is left as it was. Block-gzip compressed files and their line
+	 * index are published the same way. {@link #resumeFile(ColumnPlan)} always
+	 * writes in place.
+	 * 
+	 * @param policy when the content is forced to the storage device, e.g.
+	 *               {@link FsyncPolicy#ON_CLOSE}, or null to write in place
+	 */
+	public void setAtomicPublication(FsyncPolicy policy) {
+		this.fsyncPolicy = policy;
+	}
+
+	/**
+	 * Set how many bytes are written between two checkpoints in resume mode, see
+	 * {@link #resumeFile(ColumnPlan)}. The default is 64 MB.
+	 * 
+	 * @param bytes the number of bytes
+	 */
+	public void setCheckpointInterval(long bytes) {
+		if (bytes < 1)
+			throw new IllegalArgumentException("Checkpoint interval must be at least 1 byte, not " + bytes);
+		this.checkpointInterval = bytes;
 	}
 
 	/**
 	 * @param fileName the fileName to set
 	 */
 	public void setFileName(String fileName) {
+		if (this.fileName != null)
+			this.indexes.keyChanged();
 		this.fileName = StringUtil.sanitize(Objects.requireNonNull(fileName, "Filename cannot be null"));
 	}
 
-	public void setOutputStream(OutputStream os) {
-		if (this.outputstreamwriter != null) {
+	/**
+	 * Direct the output to a channel. All output is encoded with {@link Props#DEFAULT_CHARSET}.
+	 * 
+	 * @param channel the channel to write to
+	 * @param os the stream behind the channel if there is one, it is flushed on releaseStream
+	 */
+	private void setChannel(WritableByteChannel channel, OutputStream os) {
+		if (this.channel != null) {
 			throw new IllegalStateException(
 					"A file or stream is already being written to. Please close/release it first!");
 		}
-		this.outputstreamwriter = new OutputStreamWriter(os, Props.DEFAULT_CHARSET);
+		if (this.buffer == null)
+			this.buffer = new Utf8Buffer(BUFFER_CAPACITY);
+		this.buffer.clear();
+		this.channel = channel;
+		this.outputStream = os;
+	}
+
+	public void setOutputStream(OutputStream os) {
+		Objects.requireNonNull(os, "OutputStream cannot be null");
+		this.setChannel(Channels.newChannel(os), os);
+	}
+
+	/**
+	 * Direct the output to a stream in async mode, see {@link #openFileAsync(int)}.
+	 * releaseStream waits until everything is written.
+	 * 
+	 * @param os            the stream to write to
+	 * @param queueCapacity the number of filled buffers (of about 64 KB each) that
+	 *                      may wait for the I/O thread before writeLine blocks
+	 */
+	public void setOutputStreamAsync(OutputStream os, int queueCapacity) {
+		checkQueueCapacity(queueCapacity);
+		this.setOutputStream(os);
+		this.startBackground(queueCapacity);
+	}
+
+	/**
+	 * Direct the output to a stream, compressed as block-gzip (see
+	 * {@link BlockGzipChannel}) without a line index. The blocks are compressed in
+	 * parallel on the common {@link ForkJoinPool}.
+	 * 
+	 * @param os the stream to write to
+	 */
+	public void setOutputStreamCompressed(OutputStream os) {
+		Objects.requireNonNull(os, "OutputStream cannot be null");
+		this.setChannel(new BlockGzipChannel(Channels.newChannel(os), null), os);
+	}
+
+	/**
+	 * Direct the output to a stream in concurrent mode, see {@link #openFileConcurrent()}.
+	 * releaseStream must only be called after all threads have finished writing.
+	 * 
+	 * @param os the stream to write to
+	 */
+	public void setOutputStreamConcurrent(OutputStream os) {
+		this.setOutputStream(os);
+		this.startConcurrent();
+	}
+
+	/**
+	 * Direct the output to a stream in late column mode, see
+	 * {@link #openFileWithLateColumns()}. Nothing is written to the stream before
+	 * releaseStream.
+	 * 
+	 * @param os the stream to write to
+	 * @throws IOException if the temporary file cannot be created
+	 */
+	public void setOutputStreamWithLateColumns(OutputStream os) throws IOException {
+		Objects.requireNonNull(os, "OutputStream cannot be null");
+		SpilledLines spill = new SpilledLines(FLUSH_THRESHOLD);
+		try {
+			this.setOutputStream(os);
+		} catch (RuntimeException e) {
+			spill.delete();
+			throw e;
+		}
+		this.spill = spill;
+	}
+
+	private void startBackground(int queueCapacity) {
+		this.background = new BackgroundWriter(this.channel, this.fileName, queueCapacity, BUFFER_CAPACITY);
+	}
+
+	private void startConcurrent() {
+		ConcurrentLinkedQueue<Producer> producers = new ConcurrentLinkedQueue<Producer>();
+		this.producers = producers;
+		this.producer = ThreadLocal.withInitial(() -> {
+			Producer producer = new Producer();
+			producers.add(producer);
+			return producer;
+		});
+	}
+
+	/**
+	 * Wait for the I/O thread to write all buffers and stop it (if in async mode)
+	 */
+	private void stopBackground() throws IOException {
+		if (this.background == null)
+			return;
+		BackgroundWriter background = this.background;
+		this.background = null;
+		background.close();
+	}
+
+	/**
+	 * Get a subscriber that writes the lines of a {@link java.util.concurrent.Flow.Publisher}
+	 * to this file, rendering them on the common {@link ForkJoinPool}. See
+	 * {@link #subscriber(Executor)}.
+	 * 
+	 * @return the subscriber
+	 */
+	public LineSubscriber subscriber() {
+		return this.subscriber(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Get a subscriber that writes the lines of a {@link java.util.concurrent.Flow.Publisher}
+	 * to this file with backpressure, see {@link LineSubscriber}. The file or
+	 * stream must be open, it is closed when the publisher completes. The file must
+	 * not be written to otherwise while it is subscribed.
+	 * 
+	 * @param executor the executor to render and write the lines on
+	 * @return the subscriber
+	 */
+	public LineSubscriber subscriber(Executor executor) {
+		Objects.requireNonNull(executor, "Executor cannot be null");
+		if (this.channel == null)
+			throw new IllegalStateException("No file or stream open for writing");
+		return new LineSubscriber(this, executor);
+	}
+
+	/**
+	 * Write lines given as columns, see {@link ColumnarLines}. The output is the
+	 * same as calling {@link #writeLine(StudyOrAssayTableObject)} with the objects of
+	 * every line. The headers are taken from the template line if they have not been
+	 * written yet.
+	 *
+	 * If a line cannot be written (e.g. because it doesn't match the header), all
+	 * lines before it are written and an {@link InvalidRowException} with the index
+	 * of the line is thrown.
+	 *
+	 * @param lines the columns of the lines
+	 * @throws IOException if unable to write to the file or stream
+	 */
+	public void writeColumns(ColumnarLines lines) throws IOException {
+		Objects.requireNonNull(lines, "Lines cannot be null");
+		if (this.channel == null)
+			throw new IllegalStateException("No file or stream open for writing");
+		StudyOrAssayTableObject template = lines.getTemplate();
+		for (int row = 0; row < lines.getRowCount(); row++) {
+			try {
+				lines.apply(row);
+				this.writeLine(template);
+			} catch (RuntimeException e) {
+				throw new InvalidRowException(row, e);
+			}
+		}
+	}
+
+	/**
+	 * Write the header line of a previously compiled {@link ColumnPlan}, e.g. one
+	 * taken from another file with the same schema via {@link #getColumnPlan()}.
+	 * All following lines are rendered along this plan.
+	 * 
+	 * @param plan the compiled column plan
+	 * @throws IOException if unable to write to the file or stream
+	 */
+	public void writeHeaders(ColumnPlan plan) throws IOException {
+		if (this.channel == null)
+			throw new IllegalStateException("No file or stream open for writing");
+		Objects.requireNonNull(plan, "Column plan cannot be null");
+		if (this.spill != null) {
+			this.spill.addLayout(plan);
+			return;
+		}
+
+		// Several threads may race for the headers in concurrent mode
+		synchronized (this.writeLock) {
+			if (this.hasWrittenHeaders())
+				throw new IllegalStateException("Headers were already written to this file or stream");
+
+			logger.debug("{}: Writing these headers to output: {}", this, plan);
+
+			this.buffer.append(plan.getEncodedHeader());
+			this.renderer = new RowRenderer(plan);
+			if (this.producers != null) {
+				// Producers may only flush their lines once the headers are out
+				this.flushBuffer();
+				this.sharedPlan = plan;
+			}
+		}
 	}
 
 	public void writeHeadersFromExample(StudyOrAssayTableObject example) throws IOException {
-		if (this.outputstreamwriter == null)
+		if (this.channel == null)
 			throw new IllegalStateException("No file or stream open for writing");
 		if (this.hasWrittenHeaders())
 			throw new IllegalStateException("Headers were already written to this file or stream");
 
-		this.headers = new ArrayList<LinkedHashMap<String, String[]>>();
-		StringBuilder sb = new StringBuilder();
-		while (example != null) {
-			LinkedHashMap<String, String[]> headers = example.getHeaders();
-			this.headers.add(headers);
-			sb.append(headers.values().stream().map(o -> String.join(Symbol.TAB.toString(), o))
-					.collect(Collectors.joining(Symbol.TAB.toString())));
-			example = example.getNextStudyOrAssayTableObject();
-			if (example != null)
-				sb.append(Symbol.TAB.toString());
-		}
-		
-		logger.debug("{}: Writing these headers to output: [{}]", this,
-			this.headers.stream().map(
-				t -> "{" + t.keySet().stream().map(
-					k -> k + " = " + Arrays.toString(t.get(k)) )
-				.collect(Collectors.joining(", ")) + "}")
-			.collect(Collectors.joining(", ")));
-		
-		this.outputstreamwriter.write(sb.toString() + Symbol.ENTER);
+		this.writeHeaders(ColumnPlan.compile(example));
+		WriteMetrics metrics = this.metrics;
+		if (metrics != null)
+			metrics.compiled();
 	}
 
 	public void writeLine(StudyOrAssayTableObject initiator) throws IOException {
-		if (this.outputstreamwriter == null)
+		WriteMetrics metrics = this.metrics;
+		if (metrics == null) {
+			this.writeLine(initiator, null);
+			return;
+		}
+		long allocated = WriteMetrics.allocatedBytes();
+		long start = System.nanoTime();
+		this.writeLine(initiator, metrics);
+		metrics.lineWritten(System.nanoTime() - start, allocated);
+	}
+
+	private void writeLine(StudyOrAssayTableObject initiator, WriteMetrics metrics) throws IOException {
+		if (this.channel == null)
 			throw new IllegalStateException("No file or stream open for writing");
+		if (this.background != null)
+			this.background.checkFailure();
+		if (this.spill != null) {
+			this.spill(initiator, metrics);
+			return;
+		}
+		if (this.producers != null) {
+			this.writeLineConcurrent(initiator, metrics);
+			return;
+		}
 		
 		// If headers have not been written yet, write them from this row.
 		// This would happen with the first row or if the user has manually called "writeHeadersFromExample"
-		if(this.headers == null) {
+		if(this.renderer == null) {
 			this.writeHeadersFromExample(initiator);
 		}
 
-		StringBuilder sb = new StringBuilder();
-		StudyOrAssayTableObject currentObject = initiator;
-		// Loop through header groups and objects at the same time (see below where
-		// currentObject = currentObject.getNextStudyOrAssayTableObject();
-		// each header group corresponds to one object (Sample, Process ...)
-		// So a header group for a Source could for example look like this:
-		// {
-		// "Source Name" => ["Source Name"],
-		// "Characteristic[Organism]" => ["Characteristic [Organism]", "Term Source
-		// REF", "Term Accession Number"],
-		// "Characteristic[Genotype]" => ["Characteristic [Genotype]"]
-		// }
-		for (LinkedHashMap<String, String[]> currentHeaderGroup : this.headers) {
-			// This happens if we have header groups left but no more currentObjects in the
-			// line
-			Objects.requireNonNull(currentObject,
-					"This line contains fewer objects (Sources, Samples, Processes...) than were defined in the header."
-							+ "\n Please make sure your line structure is uniform (e.g. Sample->Process->Material->Process->DataFile for ALL lines) and everything is linked with Processes correctly.");
-
-			Map<String, String[]> fields = currentObject.getFields();
-
-			sb.append(currentHeaderGroup.keySet().stream().map(o -> {
-				if (currentHeaderGroup.get(o).length != fields.get(o).length)
-					throw new IllegalStateException("Object has "
-							+ (currentHeaderGroup.get(o).length > fields.get(o).length ? "fewer" : "more")
-							+ "columns than header for " + o
-							+ "\n Please make sure that every object contains the same information as the first line (or the examplary objects that were manually passed to writeHeadersFromExample)."
-							+ "This error mostly occurs when only some objects of the same column (e.g. a specific Process ParameterValue) have Term Source Refs and Term Accession numbers.");
-				String partOfLine = String.join(Symbol.TAB.toString(), fields.get(o));
-				// Now we delete the entry from fields so that we know when there's any left in
-				// the end, we are missing headers
-				fields.remove(o);
-				return partOfLine;
-			}).collect(Collectors.joining(Symbol.TAB.toString())));
-
-			if(fields.size() > 0)
-				logger.warn("{}: There were fields for Object {} that had no corresponding header. They were ignored: {}", this, currentObject, String.join(", ", fields.keySet()));
-			
-			currentObject = currentObject.getNextStudyOrAssayTableObject();
-			if (currentObject != null)
-				sb.append(Symbol.TAB.toString());
-		}
-		this.outputstreamwriter.write(sb.toString() + Symbol.ENTER);
+		// Every object of the line (Source, Process, Sample...) corresponds to one slot of the
+		// column plan and pushes its column groups into the renderer, see RowRenderer
+		render(this.renderer, initiator, this.buffer, metrics);
+		this.lineCount++;
+		if (this.buffer.size() >= FLUSH_THRESHOLD)
+			this.flushBuffer();
+	}
+
+	private void writeLineConcurrent(StudyOrAssayTableObject initiator, WriteMetrics metrics) throws IOException {
+		ColumnPlan plan = this.sharedPlan;
+		if (plan == null) {
+			synchronized (this.writeLock) {
+				if (this.renderer == null)
+					this.writeHeadersFromExample(initiator);
+				plan = this.sharedPlan;
+			}
+		}
+
+		Producer producer = this.producer.get();
+		if (producer.renderer == null)
+			producer.renderer = new RowRenderer(plan);
+		render(producer.renderer, initiator, producer.buffer, metrics);
+		if (producer.buffer.size() >= FLUSH_THRESHOLD)
+			producer.buffer = this.write(producer.buffer);
+	}
+
+	/**
+	 * Write many lines at once, rendering them in parallel on the common
+	 * {@link ForkJoinPool}. See {@link #writeLines(Iterable, ForkJoinPool)}.
+	 * 
+	 * @param initiators the first objects of the lines, in the order they should be written
+	 * @throws IOException if unable to write to the file or stream
+	 */
+	public void writeLines(Iterable<? extends StudyOrAssayTableObject> initiators) throws IOException {
+		this.writeLines(initiators.iterator(), ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Write many lines at once, rendering them in parallel on the given pool. The
+	 * lines are written in the order of the passed objects, exactly as if
+	 * {@link #writeLine(StudyOrAssayTableObject)} was called for each of them. The
+	 * objects must not be changed until this method returns.
+	 * 
+	 * If a line cannot be rendered (e.g. because it doesn't match the header), all
+	 * lines before it are written and an {@link InvalidRowException} with the index
+	 * of the line is thrown.
+	 * 
+	 * @param initiators the first objects of the lines, in the order they should be written
+	 * @param pool the pool to render the lines on
+	 * @throws IOException if unable to write to the file or stream
+	 */
+	public void writeLines(Iterable<? extends StudyOrAssayTableObject> initiators, ForkJoinPool pool) throws IOException {
+		this.writeLines(initiators.iterator(), pool);
+	}
+
+	private void writeLines(Iterator<? extends StudyOrAssayTableObject> initiators, ForkJoinPool pool) throws IOException {
+		if (this.channel == null)
+			throw new IllegalStateException("No file or stream open for writing");
+		if (this.producers != null)
+			throw new IllegalStateException("writeLines cannot be used in concurrent mode, call writeLine from several threads instead");
+		if (this.background != null)
+			this.background.checkFailure();
+		if (this.spill != null) {
+			// Lines are rendered along their own layouts one after the other
+			WriteMetrics metrics = this.metrics;
+			for (long rowIndex = 0; initiators.hasNext(); rowIndex++) {
+				try {
+					this.spill(initiators.next(), metrics);
+					if (metrics != null)
+						metrics.linesWritten(1);
+				} catch (RuntimeException e) {
+					throw new InvalidRowException(rowIndex, e);
+				}
+			}
+			return;
+		}
+		
+		// Lines are collected into batches on this thread (the iterator does not have to be thread-safe)
+		// and rendered on the pool. At most maxPending batches are in flight, they are written in order.
+		ArrayDeque<ForkJoinTask<RenderedBatch>> pending = new ArrayDeque<ForkJoinTask<RenderedBatch>>();
+		int maxPending = 2 * pool.getParallelism();
+		long rowIndex = 0;
+		try {
+			while (initiators.hasNext()) {
+				StudyOrAssayTableObject[] batch = new StudyOrAssayTableObject[BATCH_SIZE];
+				int size = 0;
+				while (size < BATCH_SIZE && initiators.hasNext())
+					batch[size++] = initiators.next();
+				
+				if (this.renderer == null) {
+					try {
+						this.writeHeadersFromExample(batch[0]);
+					} catch (RuntimeException e) {
+						throw new InvalidRowException(rowIndex, e);
+					}
+				}
+				
+				pending.add(pool.submit(new RenderTask(this.renderer.getPlan(), batch, size, rowIndex, this.metrics)));
+				rowIndex += size;
+				if (pending.size() >= maxPending)
+					this.writeBatch(pending.poll().join());
+			}
+			while (!pending.isEmpty())
+				this.writeBatch(pending.poll().join());
+		} finally {
+			for (ForkJoinTask<RenderedBatch> task : pending)
+				task.cancel(false);
+		}
+	}
+
+	/**
+	 * Write many lines at once, rendering them in parallel on the common
+	 * {@link ForkJoinPool}. See {@link #writeLines(Iterable, ForkJoinPool)}.
+	 * 
+	 * @param initiators the first objects of the lines, in the order they should be written
+	 * @throws IOException if unable to write to the file or stream
+	 */
+	public void writeLines(Stream<? extends StudyOrAssayTableObject> initiators) throws IOException {
+		this.writeLines(initiators.iterator(), ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Write lines rendered along the given plan by a {@link LineCollector}, writing
+	 * the headers from the plan if they have not been written yet
+	 */
+	void writeRendered(ColumnPlan plan, List<RenderedBatch> batches) throws IOException {
+		this.checkCollectable();
+		if (this.background != null)
+			this.background.checkFailure();
+		if (batches.isEmpty())
+			return;
+		if (this.renderer == null) {
+			this.writeHeaders(plan);
+			WriteMetrics metrics = this.metrics;
+			if (metrics != null)
+				metrics.compiled();
+		} else if (this.renderer.getPlan() != plan
+				&& !Arrays.equals(this.renderer.getPlan().getEncodedHeader(), plan.getEncodedHeader())) {
+			throw new IllegalStateException("The lines were rendered for another header than the one written to the file");
+		}
+		// Batch by batch, so that checkpoints in resume mode count the lines of the flushed bytes
+		for (RenderedBatch batch : batches)
+			this.writeBatch(batch);
+	}
+
+	/**
+	 * Hand a filled buffer over to the channel. Can be called by several threads at
+	 * once in concurrent mode.
+	 * 
+	 * @return the buffer to continue with
+	 */
+	private Utf8Buffer write(Utf8Buffer full) throws IOException {
+		WriteMetrics metrics = this.metrics;
+		long bytes = full.size();
+		long start = metrics == null ? 0 : System.nanoTime();
+		Utf8Buffer next = full;
+		if (this.background != null) {
+			next = this.background.submit(full);
+		} else {
+			BufferFlushEvent event = new BufferFlushEvent();
+			event.begin();
+			synchronized (this.writeLock) {
+				full.writeTo(this.channel);
+			}
+			event.end();
+			if (event.shouldCommit()) {
+				event.fileName = this.fileName;
+				event.bytes = bytes;
+				event.commit();
+			}
+		}
+		if (metrics != null)
+			metrics.written(bytes, System.nanoTime() - start);
+		return next;
+	}
+
+	/**
+	 * Write the successfully rendered lines of a batch and throw its failure, if any
+	 */
+	private void writeBatch(RenderedBatch batch) throws IOException {
+		this.buffer.append(batch.lines);
+		this.lineCount += batch.count;
+		WriteMetrics metrics = this.metrics;
+		if (metrics != null)
+			metrics.linesWritten(batch.count);
+		if (this.buffer.size() >= FLUSH_THRESHOLD)
+			this.flushBuffer();
+		if (batch.failure != null)
+			throw batch.failure;
+	}
+
+	/**
+	 * Render a line into the buffer, recording the time if metrics are enabled
+	 */
+	private static void render(RowRenderer renderer, StudyOrAssayTableObject initiator, Utf8Buffer buffer,
+			WriteMetrics metrics) {
+		if (metrics == null) {
+			renderer.render(initiator, buffer);
+			return;
+		}
+		long start = System.nanoTime();
+		renderer.render(initiator, buffer);
+		metrics.rendered(System.nanoTime() - start);
+	}
+
+	/**
+	 * Spill a line in late column mode, recording the time and compilations if
+	 * metrics are enabled
+	 */
+	private void spill(StudyOrAssayTableObject initiator, WriteMetrics metrics) throws IOException {
+		if (metrics == null) {
+			this.spill.add(initiator);
+			return;
+		}
+		long start = System.nanoTime();
+		boolean compiled = this.spill.add(initiator);
+		metrics.rendered(System.nanoTime() - start);
+		if (compiled)
+			metrics.compiled();
+	}
+
+	/**
+	 * Buffer and renderer of one thread in concurrent mode
+	 */
+	private static class Producer {
+		private Utf8Buffer buffer = new Utf8Buffer(BUFFER_CAPACITY);
+		private RowRenderer renderer;
+	}
+
+	/**
+	 * Result of a {@link RenderTask}: all lines up to the first failure. Also a
+	 * chunk of the lines of a {@link LineCollector}.
+	 */
+	static class RenderedBatch {
+		int count;
+		InvalidRowException failure;
+		Utf8Buffer lines;
+	}
+
+	/**
+	 * Renders a batch of lines with its own {@link RowRenderer}. Failures are not
+	 * thrown but returned with the batch, so that the lines before them can still be written.
+	 */
+	private static class RenderTask implements Callable<RenderedBatch> {
+
+		private final StudyOrAssayTableObject[] batch;
+
+		private final long firstRowIndex;
+
+		private final WriteMetrics metrics;
+
+		private final ColumnPlan plan;
+
+		private final int size;
+
+		private RenderTask(ColumnPlan plan, StudyOrAssayTableObject[] batch, int size, long firstRowIndex,
+				WriteMetrics metrics) {
+			this.plan = plan;
+			this.batch = batch;
+			this.size = size;
+			this.firstRowIndex = firstRowIndex;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public RenderedBatch call() {
+			long start = this.metrics == null ? 0 : System.nanoTime();
+			RowRenderer renderer = new RowRenderer(this.plan);
+			RenderedBatch result = new RenderedBatch();
+			result.lines = new Utf8Buffer(this.size * 256);
+			for (int i = 0; i < this.size; i++) {
+				try {
+					renderer.render(this.batch[i], result.lines);
+					result.count++;
+				} catch (RuntimeException e) {
+					result.failure = new InvalidRowException(this.firstRowIndex + i, e);
+					break;
+				}
+			}
+			if (this.metrics != null)
+				this.metrics.rendered(System.nanoTime() - start);
+			return result;
+		}
 	}
 }
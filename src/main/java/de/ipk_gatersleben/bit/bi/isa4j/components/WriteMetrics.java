@@ -0,0 +1,370 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters of the write path of a {@link Study}, {@link Assay} or
+ * {@link Investigation} file, enabled with
+ * {@link WideTableFile#enableMetrics(boolean)} or
+ * {@link Investigation#enableMetrics(boolean)}:
+ * <ul>
+ * <li>rows written (lines of Study and Assay files, without the header)</li>
+ * <li>bytes handed to the file or stream (before compression)</li>
+ * <li>header compilations, i.e. column plans compiled from example lines</li>
+ * <li>render time (building the lines) and I/O time (handing them to the file
+ * or stream; in async mode the time spent waiting for the I/O thread)</li>
+ * <li>a latency histogram of writeLine, with a precision of about 20%</li>
+ * <li>the bytes allocated per row by the writing thread, where the JVM supports
+ * measuring it</li>
+ * </ul>
+ *
+ * All counters are {@link LongAdder}s, so any number of threads can record at
+ * the same time without locking. {@link #snapshot()} reads them without stopping
+ * the writers, so the values of a snapshot may be a few rows apart. The metrics
+ * can be registered as an MBean (see {@link WriteMetricsMBean}) to watch the
+ * throughput of long exports with any JMX client.
+ */
+public class WriteMetrics implements WriteMetricsMBean {
+
+	/**
+	 * Every power of two of the latency is split into 2^SUB_BUCKET_BITS buckets
+	 */
+	private static final int SUB_BUCKET_BITS = 2;
+
+	private static final int BUCKETS = 64 << SUB_BUCKET_BITS;
+
+	private static final String DOMAIN = "de.ipk_gatersleben.bit.bi.isa4j";
+
+	private static final Logger logger = LoggerFactory.getLogger(WriteMetrics.class);
+
+	/**
+	 * Measures the allocations of threads, null if the JVM does not support it
+	 */
+	private static final com.sun.management.ThreadMXBean THREADS = allocationMeasurement();
+
+	private static com.sun.management.ThreadMXBean allocationMeasurement() {
+		try {
+			java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			if (threads instanceof com.sun.management.ThreadMXBean
+					&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+				((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+				return (com.sun.management.ThreadMXBean) threads;
+			}
+		} catch (LinkageError | UnsupportedOperationException e) {
+			logger.debug("Allocation measurement is not available: {}", e.toString());
+		}
+		return null;
+	}
+
+	/**
+	 * @return the bytes allocated by the current thread so far, -1 if unknown
+	 */
+	static long allocatedBytes() {
+		return THREADS == null ? -1 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static int bucket(long nanos) {
+		if (nanos < (1 << SUB_BUCKET_BITS))
+			return (int) Math.max(0, nanos);
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+		return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) | subBucket;
+	}
+
+	/**
+	 * @return the largest latency that falls into the bucket
+	 */
+	private static long bucketLimit(int bucket) {
+		if (bucket < (1 << SUB_BUCKET_BITS))
+			return bucket;
+		int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+		long subBucket = bucket & ((1 << SUB_BUCKET_BITS) - 1);
+		long lower = (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+		return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	private final LongAdder allocatedBytes = new LongAdder();
+
+	/**
+	 * Rows for which the allocated bytes were measured
+	 */
+	private final LongAdder allocationRows = new LongAdder();
+
+	private final LongAdder bytes = new LongAdder();
+
+	private final LongAdder compilations = new LongAdder();
+
+	private final LongAdder ioNanos = new LongAdder();
+
+	private final LongAdder[] latencies = new LongAdder[BUCKETS];
+
+	/**
+	 * Name under which the MBean is registered, null if it is not
+	 */
+	private ObjectName objectName;
+
+	private final LongAdder renderNanos = new LongAdder();
+
+	private final LongAdder rows = new LongAdder();
+
+	WriteMetrics() {
+		for (int i = 0; i < BUCKETS; i++)
+			this.latencies[i] = new LongAdder();
+	}
+
+	/**
+	 * Record that a column plan was compiled from an example line
+	 */
+	void compiled() {
+		this.compilations.increment();
+	}
+
+	@Override
+	public long getAllocatedBytesPerRow() {
+		return this.snapshot().getAllocatedBytesPerRow();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return this.bytes.sum();
+	}
+
+	@Override
+	public long getHeaderCompilations() {
+		return this.compilations.sum();
+	}
+
+	@Override
+	public long getIoTimeNanos() {
+		return this.ioNanos.sum();
+	}
+
+	@Override
+	public long getLatencyP50Nanos() {
+		return this.snapshot().getLatencyPercentile(50);
+	}
+
+	@Override
+	public long getLatencyP99Nanos() {
+		return this.snapshot().getLatencyPercentile(99);
+	}
+
+	@Override
+	public long getRenderTimeNanos() {
+		return this.renderNanos.sum();
+	}
+
+	@Override
+	public long getRowsWritten() {
+		return this.rows.sum();
+	}
+
+	/**
+	 * Record one line written by writeLine
+	 *
+	 * @param nanos          the time writeLine took
+	 * @param allocatedStart the result of {@link #allocatedBytes()} when writeLine started
+	 */
+	void lineWritten(long nanos, long allocatedStart) {
+		this.rows.increment();
+		this.latencies[bucket(nanos)].increment();
+		if (allocatedStart >= 0) {
+			this.allocatedBytes.add(allocatedBytes() - allocatedStart);
+			this.allocationRows.increment();
+		}
+	}
+
+	/**
+	 * Record lines written without writeLine, e.g. by writeLines
+	 */
+	void linesWritten(long count) {
+		this.rows.add(count);
+	}
+
+	/**
+	 * Register the metrics as an MBean with the platform MBean server
+	 *
+	 * @param type the kind of file, e.g. "Study"
+	 * @param name the name of the file
+	 */
+	synchronized void register(String type, String name) {
+		if (this.objectName != null)
+			return;
+		try {
+			ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name)
+					+ ",id=" + Integer.toHexString(System.identityHashCode(this)));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			this.objectName = objectName;
+			logger.debug("Registered MBean {}", objectName);
+		} catch (JMException e) {
+			throw new IllegalStateException("Cannot register metrics of " + name + " as MBean", e);
+		}
+	}
+
+	/**
+	 * Record the time spent rendering
+	 */
+	void rendered(long nanos) {
+		this.renderNanos.add(nanos);
+	}
+
+	/**
+	 * Set all counters back to 0, e.g. to measure each phase of a job on its own
+	 */
+	@Override
+	public void reset() {
+		this.allocatedBytes.reset();
+		this.allocationRows.reset();
+		this.bytes.reset();
+		this.compilations.reset();
+		this.ioNanos.reset();
+		this.renderNanos.reset();
+		this.rows.reset();
+		for (LongAdder latency : this.latencies)
+			latency.reset();
+	}
+
+	/**
+	 * @return the current values of all counters
+	 */
+	public Snapshot snapshot() {
+		long[] latencies = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			latencies[i] = this.latencies[i].sum();
+		long allocationRows = this.allocationRows.sum();
+		return new Snapshot(this.rows.sum(), this.bytes.sum(), this.compilations.sum(), this.renderNanos.sum(),
+				this.ioNanos.sum(), latencies, allocationRows == 0 ? -1 : this.allocatedBytes.sum() / allocationRows);
+	}
+
+	@Override
+	public String toString() {
+		return "<WriteMetrics> " + this.snapshot();
+	}
+
+	/**
+	 * Unregister the MBean if it was registered
+	 */
+	synchronized void unregister() {
+		if (this.objectName == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+		} catch (JMException e) {
+			logger.warn("Could not unregister MBean {}", this.objectName, e);
+		}
+		this.objectName = null;
+	}
+
+	/**
+	 * Record bytes handed to the file or stream
+	 */
+	void written(long bytes, long nanos) {
+		this.bytes.add(bytes);
+		this.ioNanos.add(nanos);
+	}
+
+	/**
+	 * The values of {@link WriteMetrics} at one point in time
+	 */
+	public static final class Snapshot {
+
+		private final long allocatedBytesPerRow;
+
+		private final long bytesWritten;
+
+		private final long headerCompilations;
+
+		private final long ioTimeNanos;
+
+		private final long[] latencies;
+
+		private final long renderTimeNanos;
+
+		private final long rowsWritten;
+
+		private Snapshot(long rowsWritten, long bytesWritten, long headerCompilations, long renderTimeNanos,
+				long ioTimeNanos, long[] latencies, long allocatedBytesPerRow) {
+			this.rowsWritten = rowsWritten;
+			this.bytesWritten = bytesWritten;
+			this.headerCompilations = headerCompilations;
+			this.renderTimeNanos = renderTimeNanos;
+			this.ioTimeNanos = ioTimeNanos;
+			this.latencies = latencies;
+			this.allocatedBytesPerRow = allocatedBytesPerRow;
+		}
+
+		/**
+		 * @return the average bytes allocated by writeLine, -1 if they were not measured
+		 */
+		public long getAllocatedBytesPerRow() {
+			return this.allocatedBytesPerRow;
+		}
+
+		public long getBytesWritten() {
+			return this.bytesWritten;
+		}
+
+		public long getHeaderCompilations() {
+			return this.headerCompilations;
+		}
+
+		public long getIoTimeNanos() {
+			return this.ioTimeNanos;
+		}
+
+		/**
+		 * @param percentile between 0 and 100, e.g. 99 for the p99 latency
+		 * @return an upper bound (within about 20%) of the latency of writeLine below
+		 *         which the given percentage of lines were written, 0 if no line was
+		 *         written with writeLine
+		 */
+		public long getLatencyPercentile(double percentile) {
+			if (percentile < 0 || percentile > 100)
+				throw new IllegalArgumentException("Percentile must be between 0 and 100, not " + percentile);
+			long count = 0;
+			for (long latency : this.latencies)
+				count += latency;
+			if (count == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+			long seen = 0;
+			for (int bucket = 0; bucket < this.latencies.length; bucket++) {
+				seen += this.latencies[bucket];
+				if (seen >= rank)
+					return bucketLimit(bucket);
+			}
+			return bucketLimit(this.latencies.length - 1);
+		}
+
+		public long getRenderTimeNanos() {
+			return this.renderTimeNanos;
+		}
+
+		public long getRowsWritten() {
+			return this.rowsWritten;
+		}
+
+		@Override
+		public String toString() {
+			return this.rowsWritten + " rows, " + this.bytesWritten + " bytes, " + this.headerCompilations
+					+ " header compilations, render " + this.renderTimeNanos / 1000000 + " ms, I/O "
+					+ this.ioTimeNanos / 1000000 + " ms, p50 " + this.getLatencyPercentile(50) + " ns, p99 "
+					+ this.getLatencyPercentile(99) + " ns, " + this.allocatedBytesPerRow + " bytes allocated per row";
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+/**
+ * JMX view of {@link WriteMetrics}, see there for the meaning of the values
+ */
+public interface WriteMetricsMBean {
+
+	long getAllocatedBytesPerRow();
+
+	long getBytesWritten();
+
+	long getHeaderCompilations();
+
+	long getIoTimeNanos();
+
+	long getLatencyP50Nanos();
+
+	long getLatencyP99Nanos();
+
+	long getRenderTimeNanos();
+
+	long getRowsWritten();
+
+	void reset();
+
+}
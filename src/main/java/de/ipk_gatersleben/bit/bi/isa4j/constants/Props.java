@@ -19,4 +19,24 @@ public class Props {
 
 	public static final Charset DEFAULT_CHARSET= StandardCharsets.UTF_8;
 	
+	/**
+	 * Files ending with this suffix are written block-gzip compressed
+	 */
+	public static final String GZIP_SUFFIX = ".gz";
+	
+	/**
+	 * Suffix of the line index written next to block-gzip compressed files
+	 */
+	public static final String GZIP_INDEX_SUFFIX = ".idx";
+
+	/**
+	 * Suffix of the checkpoint file written next to Study and Assay files in resume mode
+	 */
+	public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+	/**
+	 * Name of the file that marks an archive written in atomic mode as complete
+	 */
+	public static final String COMMIT_MARKER = "_COMMITTED";
+	
 }
\ No newline at end of file
@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.exceptions;
+
+/**
+ * Exception to report a line of a Study or Assay file that could not be
+ * written, e.g. because it does not match the header. Used when many lines are
+ * written at once, the original problem is available as the cause.
+ */
+public class InvalidRowException extends IllegalStateException {
+
+	private static final long serialVersionUID = -2769178302957401542L;
+
+	private final long rowIndex;
+
+	public InvalidRowException(long rowIndex, RuntimeException cause) {
+		super("Row " + rowIndex + " could not be written: " + cause.getMessage(), cause);
+		this.rowIndex = rowIndex;
+	}
+
+	/**
+	 * @return the index of the failed row (starting at 0) within the rows that were
+	 *         passed to the writing method
+	 */
+	public long getRowIndex() {
+		return rowIndex;
+	}
+
+}
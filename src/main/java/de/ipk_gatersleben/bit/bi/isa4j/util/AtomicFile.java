@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A channel to a file that only appears under its name once it is complete.
+ * Everything is written to a temporary file in the same directory, which is
+ * renamed atomically over the target file by {@link #commit()}, so readers see
+ * either the old or the complete new file, never a half-written one. If the
+ * channel is closed without a commit, the temporary file is deleted.
+ *
+ * Committing can be split into {@link #prepare()} and {@link #publish()} to
+ * publish several files together once all of them are written. The
+ * {@link FsyncPolicy} decides when the content (and, on publishing, the
+ * directory) is forced to the storage device.
+ *
+ * A channel is not thread-safe.
+ */
+public class AtomicFile implements WritableByteChannel {
+
+	/**
+	 * Create the temporary file for a target file
+	 *
+	 * @param target the file to publish to, it is replaced if it exists
+	 * @param policy when to force the content to the storage device
+	 * @return the channel to write to
+	 * @throws IOException if the temporary file cannot be created
+	 */
+	public static AtomicFile create(Path target, FsyncPolicy policy) throws IOException {
+		Objects.requireNonNull(target, "Target file cannot be null");
+		Objects.requireNonNull(policy, "Fsync policy cannot be null");
+		Path directory = target.toAbsolutePath().getParent();
+		// Not Files.createTempFile, its files are only readable by the owner. A new
+		// file gets the default permissions of the process (umask), like a file
+		// written in place.
+		while (true) {
+			Path temporary = directory.resolve("." + target.getFileName() + "."
+					+ Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+			FileChannel channel;
+			try {
+				channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			} catch (FileAlreadyExistsException e) {
+				continue;
+			}
+			try {
+				copyPermissions(target, temporary);
+				return new AtomicFile(target, temporary, channel, policy);
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				Files.deleteIfExists(temporary);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Give the temporary file the permissions of the target file if it exists, so
+	 * that replacing it does not change them
+	 */
+	private static void copyPermissions(Path target, Path temporary) throws IOException {
+		if (Files.getFileAttributeView(target, PosixFileAttributeView.class) == null)
+			return;
+		Set<PosixFilePermission> permissions;
+		try {
+			permissions = Files.getPosixFilePermissions(target);
+		} catch (NoSuchFileException e) {
+			return;
+		}
+		Files.setPosixFilePermissions(temporary, permissions);
+	}
+
+	/**
+	 * Force a directory to the storage device, where the platform supports it
+	 *
+	 * @param directory the directory
+	 */
+	public static void forceDirectory(Path directory) {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// Directories cannot be opened on some platforms (e.g. Windows), which
+			// persist renames without it
+		}
+	}
+
+	private final FileChannel channel;
+
+	private final FsyncPolicy policy;
+
+	private boolean prepared = false;
+
+	private boolean published = false;
+
+	private final Path target;
+
+	private final Path temporary;
+
+	/**
+	 * Bytes written since the content was forced the last time
+	 */
+	private long unforced = 0;
+
+	private AtomicFile(Path target, Path temporary, FileChannel channel, FsyncPolicy policy) {
+		this.target = target;
+		this.temporary = temporary;
+		this.channel = channel;
+		this.policy = policy;
+	}
+
+	/**
+	 * Close and delete the temporary file, the target file is left untouched.
+	 * Does nothing once the file is published.
+	 *
+	 * @throws IOException if the temporary file cannot be deleted
+	 */
+	public void abort() throws IOException {
+		if (this.published)
+			return;
+		try {
+			this.channel.close();
+		} finally {
+			Files.deleteIfExists(this.temporary);
+		}
+	}
+
+	/**
+	 * Aborts the file unless it was prepared or published
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!this.prepared)
+			this.abort();
+	}
+
+	/**
+	 * Prepare and publish the file
+	 *
+	 * @throws IOException if the file cannot be forced or renamed
+	 */
+	public void commit() throws IOException {
+		this.prepare();
+		this.publish();
+	}
+
+	/**
+	 * @return the file that is published
+	 */
+	public Path getTarget() {
+		return this.target;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.channel.isOpen();
+	}
+
+	/**
+	 * Finish writing: force the content if the policy says so and close the
+	 * temporary file, which is kept until it is published or aborted
+	 *
+	 * @throws IOException if the content cannot be forced
+	 */
+	public void prepare() throws IOException {
+		if (this.prepared)
+			return;
+		if (this.policy.isForcedOnClose())
+			this.channel.force(true);
+		this.channel.close();
+		this.prepared = true;
+	}
+
+	/**
+	 * Rename the prepared temporary file over the target file. If the policy forces
+	 * the content, the directory is forced as well, so the new name survives a
+	 * power loss.
+	 *
+	 * @throws IOException if the file cannot be renamed
+	 */
+	public void publish() throws IOException {
+		if (!this.prepared)
+			throw new IllegalStateException("File " + this.target + " must be prepared before it is published");
+		if (this.published)
+			return;
+		Files.move(this.temporary, this.target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		this.published = true;
+		if (this.policy.isForcedOnClose())
+			forceDirectory(this.temporary.getParent());
+	}
+
+	@Override
+	public String toString() {
+		return "<AtomicFile> '" + this.target + "' via '" + this.temporary + "'";
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		int written = this.channel.write(src);
+		this.unforced += written;
+		if (this.policy.getInterval() > 0 && this.unforced >= this.policy.getInterval()) {
+			this.channel.force(false);
+			this.unforced = 0;
+		}
+		return written;
+	}
+
+}
@@ -0,0 +1,338 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.util;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import de.ipk_gatersleben.bit.bi.isa4j.constants.Props;
+import de.ipk_gatersleben.bit.bi.isa4j.constants.Symbol;
+
+/**
+ * Channel that compresses everything written to it into independent gzip blocks
+ * in the BGZF format (as used by samtools/htslib). Every block is a complete
+ * gzip member holding at most {@link #BLOCK_SIZE} bytes of input, so the output
+ * is a standard multi-member gzip stream that can be read by any gzip tool, and
+ * reading can start at the beginning of any block.
+ *
+ * The blocks are compressed in parallel on an {@link ExecutorService} and written
+ * to the target channel in order. Optionally an index is written to a second
+ * channel: one tab separated line per block that contains the start of a line,
+ * with the number of the first line starting in the block (counting from 0,
+ * including the header line), the offset of the block in the compressed file and
+ * the offset of the line start within the uncompressed block.
+ *
+ * A channel is not thread-safe.
+ */
+public class BlockGzipChannel implements WritableByteChannel {
+
+	/**
+	 * Maximum number of uncompressed bytes per block, chosen like htslib so that
+	 * even incompressible blocks fit into the 64 KB limit of the format
+	 */
+	public static final int BLOCK_SIZE = 0xff00;
+
+	/**
+	 * The empty block that marks the end of a BGZF file
+	 */
+	private static final byte[] EOF_BLOCK = { 0x1f, (byte) 0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00,
+			(byte) 0xff, 0x06, 0x00, 0x42, 0x43, 0x02, 0x00, 0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+			0x00, 0x00, 0x00 };
+
+	private static final int HEADER_SIZE = 18;
+
+	private static final byte LINE_END = (byte) Symbol.ENTER.toString().charAt(Symbol.ENTER.toString().length() - 1);
+
+	private static final int MAX_BLOCK_SIZE = 1 << 16;
+
+	private static final int TRAILER_SIZE = 8;
+
+	/**
+	 * Compress one block into a complete gzip member with the BGZF extra field
+	 */
+	static CompressedBlock compress(byte[] data, int length) {
+		byte[] out = new byte[MAX_BLOCK_SIZE];
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			int compressedSize = deflate(deflater, data, length, out);
+			if (compressedSize < 0) {
+				// Incompressible data can grow, store it instead
+				deflater.reset();
+				deflater.setLevel(Deflater.NO_COMPRESSION);
+				compressedSize = deflate(deflater, data, length, out);
+			}
+			int blockSize = HEADER_SIZE + compressedSize + TRAILER_SIZE;
+			out[0] = 0x1f;
+			out[1] = (byte) 0x8b;
+			out[2] = 0x08; // deflate
+			out[3] = 0x04; // FEXTRA
+			out[9] = (byte) 0xff; // unknown OS
+			putShort(out, 10, 6); // XLEN
+			out[12] = 'B';
+			out[13] = 'C';
+			putShort(out, 14, 2);
+			putShort(out, 16, blockSize - 1);
+			CRC32 crc = new CRC32();
+			crc.update(data, 0, length);
+			putInt(out, HEADER_SIZE + compressedSize, (int) crc.getValue());
+			putInt(out, HEADER_SIZE + compressedSize + 4, length);
+
+			CompressedBlock block = new CompressedBlock();
+			block.bytes = out;
+			block.size = blockSize;
+			block.length = length;
+			block.lastByteIsLineEnd = data[length - 1] == LINE_END;
+			// Where lines start, needed for the index
+			for (int i = 0; i < length; i++) {
+				if (data[i] == LINE_END) {
+					if (block.lineEnds++ == 0)
+						block.firstLineEnd = i;
+				}
+			}
+			return block;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Open a file for block-gzip compressed writing, with the line index in a file of
+	 * the same name plus {@link Props#GZIP_INDEX_SUFFIX}
+	 *
+	 * @param fileName the file to write to
+	 * @return the channel, compressing on the common {@link ForkJoinPool}
+	 * @throws FileNotFoundException if one of the files cannot be opened
+	 */
+	public static BlockGzipChannel open(String fileName) throws FileNotFoundException {
+		FileChannel file = new FileOutputStream(fileName).getChannel();
+		try {
+			return new BlockGzipChannel(file, new FileOutputStream(fileName + Props.GZIP_INDEX_SUFFIX).getChannel());
+		} catch (FileNotFoundException e) {
+			try {
+				file.close();
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the compressed size or -1 if the output does not fit into one block
+	 */
+	private static int deflate(Deflater deflater, byte[] data, int length, byte[] out) {
+		int capacity = MAX_BLOCK_SIZE - HEADER_SIZE - TRAILER_SIZE;
+		deflater.setInput(data, 0, length);
+		deflater.finish();
+		int size = deflater.deflate(out, HEADER_SIZE, capacity);
+		return deflater.finished() ? size : -1;
+	}
+
+	private static void putInt(byte[] bytes, int position, int value) {
+		putShort(bytes, position, value);
+		putShort(bytes, position + 2, value >>> 16);
+	}
+
+	private static void putShort(byte[] bytes, int position, int value) {
+		bytes[position] = (byte) value;
+		bytes[position + 1] = (byte) (value >>> 8);
+	}
+
+	private byte[] block = new byte[BLOCK_SIZE];
+
+	private int blockLength = 0;
+
+	/**
+	 * Offset of the next block in the compressed output
+	 */
+	private long compressedOffset = 0;
+
+	private final ExecutorService executor;
+
+	private boolean finished = false;
+
+	private final WritableByteChannel index;
+
+	/**
+	 * Number of line ends written so far, i.e. the number of the current line
+	 */
+	private long line = 0;
+
+	/**
+	 * Whether the next block starts a new line
+	 */
+	private boolean lineStart = true;
+
+	private final int maxPending;
+
+	private boolean open = true;
+
+	private final WritableByteChannel out;
+
+	private final ArrayDeque<Future<CompressedBlock>> pending = new ArrayDeque<Future<CompressedBlock>>();
+
+	/**
+	 * Compress on the common {@link ForkJoinPool}
+	 *
+	 * @param out   the channel to write the compressed blocks to
+	 * @param index the channel to write the line index to, can be null
+	 */
+	public BlockGzipChannel(WritableByteChannel out, WritableByteChannel index) {
+		this(out, index, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+	}
+
+	/**
+	 * @param out         the channel to write the compressed blocks to
+	 * @param index       the channel to write the line index to, can be null
+	 * @param executor    the executor to compress the blocks on
+	 * @param parallelism number of threads of the executor, twice as many blocks
+	 *                    are compressed ahead before writing waits for them
+	 */
+	public BlockGzipChannel(WritableByteChannel out, WritableByteChannel index, ExecutorService executor,
+			int parallelism) {
+		this.out = Objects.requireNonNull(out, "Channel cannot be null");
+		this.index = index;
+		this.executor = Objects.requireNonNull(executor, "Executor cannot be null");
+		this.maxPending = 2 * Math.max(1, parallelism);
+	}
+
+	/**
+	 * Finishes the output (see {@link #finish()}) and closes the target and index
+	 * channels.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!this.open)
+			return;
+		try {
+			this.finish();
+		} finally {
+			this.open = false;
+			try {
+				this.out.close();
+			} finally {
+				if (this.index != null)
+					this.index.close();
+			}
+		}
+	}
+
+	/**
+	 * Compress and write all remaining data followed by the end-of-file block,
+	 * without closing the target channel. Nothing can be written afterwards.
+	 *
+	 * @throws IOException if writing fails
+	 */
+	public void finish() throws IOException {
+		if (this.finished)
+			return;
+		this.finished = true;
+		try {
+			this.submitBlock();
+			while (!this.pending.isEmpty())
+				this.writeBlock(this.pending.poll());
+			writeFully(this.out, ByteBuffer.wrap(EOF_BLOCK));
+		} finally {
+			for (Future<CompressedBlock> block : this.pending)
+				block.cancel(false);
+			this.pending.clear();
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	private void submitBlock() throws IOException {
+		if (this.blockLength == 0)
+			return;
+		byte[] data = this.block;
+		int length = this.blockLength;
+		this.pending.add(this.executor.submit(() -> compress(data, length)));
+		this.block = new byte[BLOCK_SIZE];
+		this.blockLength = 0;
+		if (this.pending.size() >= this.maxPending)
+			this.writeBlock(this.pending.poll());
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		if (!this.open || this.finished)
+			throw new ClosedChannelException();
+		int written = src.remaining();
+		while (src.hasRemaining()) {
+			int length = Math.min(src.remaining(), BLOCK_SIZE - this.blockLength);
+			src.get(this.block, this.blockLength, length);
+			this.blockLength += length;
+			if (this.blockLength == BLOCK_SIZE)
+				this.submitBlock();
+		}
+		return written;
+	}
+
+	private void writeBlock(Future<CompressedBlock> future) throws IOException {
+		CompressedBlock block;
+		try {
+			block = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing");
+		} catch (ExecutionException e) {
+			throw new IOException("Compressing a block failed", e.getCause());
+		}
+		writeFully(this.out, ByteBuffer.wrap(block.bytes, 0, block.size));
+
+		if (this.index != null) {
+			if (this.lineStart)
+				this.writeIndex(this.line + Symbol.TAB.toString() + this.compressedOffset + Symbol.TAB + 0 + Symbol.ENTER);
+			else if (block.lineEnds > 0 && block.firstLineEnd + 1 < block.length)
+				this.writeIndex((this.line + 1) + Symbol.TAB.toString() + this.compressedOffset + Symbol.TAB
+						+ (block.firstLineEnd + 1) + Symbol.ENTER);
+		}
+		this.lineStart = block.lastByteIsLineEnd;
+		this.line += block.lineEnds;
+		this.compressedOffset += block.size;
+	}
+
+	private void writeIndex(String line) throws IOException {
+		writeFully(this.index, ByteBuffer.wrap(Utf8Buffer.encode(line)));
+	}
+
+	private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	/**
+	 * A compressed block and the line ends found in its uncompressed data
+	 */
+	static class CompressedBlock {
+		private byte[] bytes;
+		private int firstLineEnd = -1;
+		private boolean lastByteIsLineEnd;
+		private int length;
+		private int lineEnds = 0;
+		private int size;
+	}
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.util;
+
+/**
+ * When an {@link AtomicFile} forces its content to the storage device. Forcing
+ * makes the published file survive a power loss, but costs throughput, so jobs
+ * that can simply be repeated may use {@link #NONE}: the files are still
+ * published atomically, but a crash of the operating system may leave an empty
+ * or truncated file behind.
+ */
+public final class FsyncPolicy {
+
+	/**
+	 * Never force the content, leave it to the operating system
+	 */
+	public static final FsyncPolicy NONE = new FsyncPolicy(-1);
+
+	/**
+	 * Force the content once before the file is published
+	 */
+	public static final FsyncPolicy ON_CLOSE = new FsyncPolicy(0);
+
+	/**
+	 * Force the content whenever the given number of bytes was written since the
+	 * last time, and before the file is published. Spreads the cost over the
+	 * whole write instead of one long pause at the end.
+	 *
+	 * @param bytes the number of bytes, e.g. 64L &lt;&lt; 20 for every 64 MB
+	 * @return the policy
+	 */
+	public static FsyncPolicy every(long bytes) {
+		if (bytes < 1)
+			throw new IllegalArgumentException("Fsync interval must be at least 1 byte, not " + bytes);
+		return new FsyncPolicy(bytes);
+	}
+
+	/**
+	 * Bytes between two forces, 0 for only on close and -1 for never
+	 */
+	private final long interval;
+
+	private FsyncPolicy(long interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * @return the number of bytes after which the content is forced while
+	 *         writing, 0 if it is only forced on close and -1 if it is never forced
+	 */
+	public long getInterval() {
+		return this.interval;
+	}
+
+	/**
+	 * @return true if the content is forced before the file is published
+	 */
+	public boolean isForcedOnClose() {
+		return this.interval >= 0;
+	}
+
+	@Override
+	public String toString() {
+		if (this.interval < 0)
+			return "<FsyncPolicy> none";
+		if (this.interval == 0)
+			return "<FsyncPolicy> on close";
+		return "<FsyncPolicy> every " + this.interval + " bytes";
+	}
+
+}
@@ -31,19 +31,48 @@ public class StringUtil {
 	}
 
 	/**
-	 * Removes Symbol.TABs and Symbol.ENTERs from an input String and replaces them
-	 * with Symbol.EMPTY. To be used on any String input by the user that ends up in
-	 * the ISATab files.
+	 * Replaces Symbol.TABs and line breaks in an input String with Symbol.SPACEs.
+	 * To be used on any String input by the user that ends up in the ISATab files.
+	 * 
+	 * Line breaks are the ones of any platform, like {@code \R} in
+	 * {@link java.util.regex.Pattern} (LF, CR, vertical tab, form feed, NEL, line
+	 * and paragraph separator), a CR LF pair is replaced by a single space. The
+	 * input is scanned once, if it contains nothing to replace it is returned as is.
 	 * 
 	 * @param input the input {@link String}
-	 * @return the cleanded {@link String}
+	 * @return the cleaned {@link String}
 	 */
 	public static String sanitize(String input) {
-		if (input == null) {
+		if (input == null)
 			return null;
-		} else {
-			return input.replaceAll(Symbol.TAB.toString(), Symbol.SPACE.toString()).replaceAll(Symbol.ENTER.toString(),
-					Symbol.SPACE.toString());
+		int length = input.length();
+		int start = 0;
+		while (start < length && !isTabOrLineBreak(input.charAt(start)))
+			start++;
+		if (start == length)
+			return input;
+
+		StringBuilder sanitized = new StringBuilder(length);
+		sanitized.append(input, 0, start);
+		for (int i = start; i < length; i++) {
+			char c = input.charAt(i);
+			if (!isTabOrLineBreak(c)) {
+				sanitized.append(c);
+			} else {
+				if (c == '\r' && i + 1 < length && input.charAt(i + 1) == '\n')
+					i++;
+				sanitized.append(Symbol.SPACE.toString());
+			}
 		}
+		return sanitized.toString();
+	}
+
+	/**
+	 * TAB, LF, vertical tab, form feed and CR are the range 0x09-0x0D
+	 */
+	private static boolean isTabOrLineBreak(char c) {
+		if (c <= '\r')
+			return c >= '\t';
+		return c == '\u0085' || c == '\u2028' || c == '\u2029';
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import de.ipk_gatersleben.bit.bi.isa4j.constants.Props;
+import de.ipk_gatersleben.bit.bi.isa4j.constants.Symbol;
+
+/**
+ * Growable byte buffer that encodes {@link String}s directly to UTF-8 (the
+ * {@link Props#DEFAULT_CHARSET}) while appending them. Pure ASCII strings, which
+ * make up almost all ISA-Tab content, are copied char by char without going
+ * through a charset encoder; constant cells can be appended as pre-encoded byte
+ * arrays (see {@link #encode(String)}).
+ *
+ * A buffer is not thread-safe, it is meant to be reused for many lines and
+ * flushed to a channel from time to time.
+ */
+public class Utf8Buffer {
+
+	private static final byte[] ENTER = encode(Symbol.ENTER.toString());
+
+	private static final byte[] NULL = encode(String.valueOf((Object) null));
+
+	private static final byte[] TAB = encode(Symbol.TAB.toString());
+
+	/**
+	 * Encode a String with the {@link Props#DEFAULT_CHARSET}.
+	 *
+	 * @param value the String to encode
+	 * @return the encoded bytes
+	 */
+	public static byte[] encode(String value) {
+		return value.getBytes(Props.DEFAULT_CHARSET);
+	}
+
+	private byte[] bytes;
+
+	private int size = 0;
+
+	/**
+	 * @param capacity initial capacity in bytes, the buffer grows if necessary
+	 */
+	public Utf8Buffer(int capacity) {
+		this.bytes = new byte[Math.max(16, capacity)];
+	}
+
+	/**
+	 * Append pre-encoded bytes, null is appended as "null"
+	 *
+	 * @param encoded the bytes to append
+	 */
+	public void append(byte[] encoded) {
+		if (encoded == null)
+			encoded = NULL;
+		this.ensureCapacity(encoded.length);
+		System.arraycopy(encoded, 0, this.bytes, this.size, encoded.length);
+		this.size += encoded.length;
+	}
+
+	/**
+	 * Append a part of an array of pre-encoded bytes
+	 *
+	 * @param encoded the bytes
+	 * @param offset  the index of the first byte to append
+	 * @param length  the number of bytes to append
+	 */
+	public void append(byte[] encoded, int offset, int length) {
+		this.ensureCapacity(length);
+		System.arraycopy(encoded, offset, this.bytes, this.size, length);
+		this.size += length;
+	}
+
+	/**
+	 * Append the contents of another buffer
+	 *
+	 * @param other the buffer to append
+	 */
+	public void append(Utf8Buffer other) {
+		this.ensureCapacity(other.size);
+		System.arraycopy(other.bytes, 0, this.bytes, this.size, other.size);
+		this.size += other.size;
+	}
+
+	/**
+	 * Append a String encoded as UTF-8, null is appended as "null" (like
+	 * {@link StringBuilder#append(String)} does)
+	 *
+	 * @param value the String to append
+	 */
+	public void append(String value) {
+		if (value == null) {
+			this.append(NULL);
+			return;
+		}
+		int length = value.length();
+		this.ensureCapacity(length);
+		byte[] bytes = this.bytes;
+		int position = this.size;
+		int i = 0;
+		// ASCII fast path
+		for (; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x80)
+				break;
+			bytes[position++] = (byte) c;
+		}
+		this.size = position;
+		if (i < length)
+			this.appendNonAscii(value, i);
+	}
+
+	/**
+	 * Encode the rest of a String starting at the first non-ASCII character.
+	 */
+	private void appendNonAscii(String value, int start) {
+		int length = value.length();
+		// At most 3 bytes per char (surrogate pairs take 4 bytes for 2 chars)
+		this.ensureCapacity((length - start) * 3);
+		byte[] bytes = this.bytes;
+		int position = this.size;
+		for (int i = start; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				bytes[position++] = (byte) c;
+			} else if (c < 0x800) {
+				bytes[position++] = (byte) (0xC0 | (c >> 6));
+				bytes[position++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+				bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				// Unpaired surrogate, replaced like String.getBytes does
+				bytes[position++] = (byte) '?';
+			} else {
+				bytes[position++] = (byte) (0xE0 | (c >> 12));
+				bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				bytes[position++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		this.size = position;
+	}
+
+	/**
+	 * Append {@link Symbol#ENTER}
+	 */
+	public void appendEnter() {
+		this.append(ENTER);
+	}
+
+	/**
+	 * Append an int as four bytes (big-endian, as read by
+	 * {@link java.io.DataInputStream#readInt()}), e.g. as a length prefix
+	 *
+	 * @param value the int to append
+	 */
+	public void appendInt(int value) {
+		this.ensureCapacity(4);
+		this.size += 4;
+		this.setInt(this.size - 4, value);
+	}
+
+	/**
+	 * Append {@link Symbol#TAB}
+	 */
+	public void appendTab() {
+		this.append(TAB);
+	}
+
+	/**
+	 * Forget all content but keep the allocated memory
+	 */
+	public void clear() {
+		this.size = 0;
+	}
+
+	private void ensureCapacity(int additional) {
+		if (this.size + additional > this.bytes.length) {
+			byte[] grown = new byte[Math.max(this.bytes.length * 2, this.size + additional)];
+			System.arraycopy(this.bytes, 0, grown, 0, this.size);
+			this.bytes = grown;
+		}
+	}
+
+	/**
+	 * Overwrite four bytes with an int like {@link #appendInt(int)}, e.g. to fill
+	 * in a length prefix once the length is known
+	 *
+	 * @param position the index of the first byte, the int must be within the buffer
+	 * @param value    the int to write
+	 */
+	public void setInt(int position, int value) {
+		if (position < 0 || position + 4 > this.size)
+			throw new IndexOutOfBoundsException("Cannot write int at " + position + " into buffer of size " + this.size);
+		this.bytes[position] = (byte) (value >>> 24);
+		this.bytes[position + 1] = (byte) (value >>> 16);
+		this.bytes[position + 2] = (byte) (value >>> 8);
+		this.bytes[position + 3] = (byte) value;
+	}
+
+	/**
+	 * @return the number of bytes in the buffer
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return a copy of the content
+	 */
+	public byte[] toByteArray() {
+		byte[] copy = new byte[this.size];
+		System.arraycopy(this.bytes, 0, copy, 0, this.size);
+		return copy;
+	}
+
+	@Override
+	public String toString() {
+		return new String(this.bytes, 0, this.size, Props.DEFAULT_CHARSET);
+	}
+
+	/**
+	 * Cut the buffer back to a previous size, e.g. to discard a partially written
+	 * line
+	 *
+	 * @param size the size to go back to, cannot be larger than the current size
+	 */
+	public void truncate(int size) {
+		if (size < 0 || size > this.size)
+			throw new IndexOutOfBoundsException("Cannot truncate buffer of size " + this.size + " to " + size);
+		this.size = size;
+	}
+
+	/**
+	 * Write the whole content to the channel and clear the buffer afterwards
+	 *
+	 * @param channel the channel to write to
+	 * @throws IOException if writing fails
+	 */
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(this.bytes, 0, this.size);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		this.size = 0;
+	}
+
+}
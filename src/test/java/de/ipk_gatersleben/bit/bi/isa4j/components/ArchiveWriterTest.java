@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.ipk_gatersleben.bit.bi.isa4j.constants.Props;
+import de.ipk_gatersleben.bit.bi.isa4j.util.FsyncPolicy;
+
+public class ArchiveWriterTest {
+
+	private static List<Sample> createLines(String prefix, int nRows) {
+		Protocol protocol = new Protocol("Sequencing");
+		List<Sample> lines = new ArrayList<Sample>();
+		for (int i = 0; i < nRows; i++) {
+			Sample sample = new Sample(prefix + "-sample-" + i);
+			Process process = new Process(protocol);
+			process.setInput(sample);
+			process.setOutput(new DataFile("Raw Data File", prefix + "-data-" + i));
+			lines.add(sample);
+		}
+		return lines;
+	}
+
+	@Test
+	void testWrite(@TempDir Path directory) throws IOException {
+		Investigation investigation = new Investigation("i1");
+		Study study = new Study("s1", directory.resolve("s_study.txt").toString());
+		investigation.addStudy(study);
+		List<Source> studyLines = new ArrayList<Source>();
+		for (int i = 0; i < 1000; i++) {
+			Source source = new Source("source-" + i);
+			Process process = new Process(new Protocol("Collection"));
+			process.setInput(source);
+			process.setOutput(new Sample("sample-" + i));
+			studyLines.add(source);
+		}
+
+		ArchiveWriter writer = new ArchiveWriter(investigation);
+		writer.setLines(study, studyLines);
+		List<Assay> assays = new ArrayList<Assay>();
+		for (int a = 0; a < 5; a++) {
+			Assay assay = new Assay(directory.resolve("a_assay" + a + ".txt").toString());
+			study.addAssay(assay);
+			writer.setLines(assay, createLines("a" + a, 2000));
+			assays.add(assay);
+		}
+		assertThrows(IllegalArgumentException.class, () -> writer.setLines(new Assay("a_other.txt"), List.of()));
+
+		String investigationFile = directory.resolve("i_investigation.txt").toString();
+		Map<String, Duration> timings = writer.write(investigationFile, 3);
+		assertEquals(7, timings.size());
+		timings.values().forEach(duration -> assertNotNull(duration));
+
+		// Same content as writing one after the other
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		investigation.writeToStream(expected);
+		assertArrayEquals(expected.toByteArray(), Files.readAllBytes(Path.of(investigationFile)));
+		for (int a = 0; a < assays.size(); a++) {
+			expected = new ByteArrayOutputStream();
+			Assay serial = new Assay("a_assay.txt");
+			serial.setOutputStream(expected);
+			for (Sample sample : createLines("a" + a, 2000))
+				serial.writeLine(sample);
+			serial.releaseStream();
+			assertArrayEquals(expected.toByteArray(), Files.readAllBytes(Path.of(assays.get(a).getFileName())));
+		}
+	}
+
+	@Test
+	void testWriteAtomic(@TempDir Path directory) throws IOException {
+		Investigation investigation = new Investigation("i1");
+		Study study = new Study("s1", directory.resolve("s_study.txt").toString());
+		investigation.addStudy(study);
+		Assay assay = new Assay(directory.resolve("a_assay.txt").toString());
+		study.addAssay(assay);
+		String investigationFile = directory.resolve("i_investigation.txt").toString();
+
+		ArchiveWriter writer = new ArchiveWriter(investigation);
+		writer.setAtomicPublication(FsyncPolicy.ON_CLOSE);
+		writer.setLines(assay, createLines("a", 1000));
+		writer.write(investigationFile, 2);
+		assertEquals(List.of("a_assay.txt", "i_investigation.txt"),
+				Files.readAllLines(directory.resolve(Props.COMMIT_MARKER)));
+		byte[] assayContent = Files.readAllBytes(Path.of(assay.getFileName()));
+
+		// A failing archive removes the marker and leaves the previous files
+		List<Sample> lines = createLines("b", 100);
+		((Process) lines.get(50).getNextStudyOrAssayTableObject()).setOutput(null);
+		writer.setLines(assay, lines);
+		assertThrows(NullPointerException.class, () -> writer.write(investigationFile, 2));
+		assertFalse(Files.exists(directory.resolve(Props.COMMIT_MARKER)));
+		assertArrayEquals(assayContent, Files.readAllBytes(Path.of(assay.getFileName())));
+		assertEquals(2, directory.toFile().list().length);
+	}
+
+	@Test
+	void testWriteRelativeNames(@TempDir Path directory) throws IOException {
+		// File names as they appear in the investigation file, relative to its directory
+		Investigation investigation = new Investigation("i1");
+		Study study = new Study("s1", "s_study.txt");
+		investigation.addStudy(study);
+		Assay assay = new Assay("a_assay.txt");
+		study.addAssay(assay);
+
+		ArchiveWriter writer = new ArchiveWriter(investigation);
+		writer.setAtomicPublication(FsyncPolicy.ON_CLOSE);
+		writer.setLines(assay, createLines("a", 100));
+		String investigationFile = directory.resolve("i_investigation.txt").toString();
+		writer.write(investigationFile, 2);
+
+		assertFalse(Files.exists(Path.of("a_assay.txt")));
+		assertEquals(101, Files.readAllLines(directory.resolve("a_assay.txt")).size());
+		assertEquals(List.of("a_assay.txt", "i_investigation.txt"),
+				Files.readAllLines(directory.resolve(Props.COMMIT_MARKER)));
+		assertTrue(Files.readAllLines(Path.of(investigationFile)).contains("Study File Name\ts_study.txt"));
+
+		// Assays of different Studies with the same name would be written to one file
+		Study other = new Study("s2", "s_other.txt");
+		investigation.addStudy(other);
+		Assay sameName = new Assay("a_assay.txt");
+		other.addAssay(sameName);
+		writer.setLines(sameName, createLines("b", 100));
+		assertThrows(IllegalArgumentException.class, () -> writer.write(investigationFile, 2));
+		sameName.setFileName("./a_assay.txt");
+		assertThrows(IllegalArgumentException.class, () -> writer.write(investigationFile, 2));
+		sameName.setFileName("i_investigation.txt");
+		assertThrows(IllegalArgumentException.class, () -> writer.write(investigationFile, 2));
+		// Nothing was touched
+		assertTrue(Files.exists(directory.resolve(Props.COMMIT_MARKER)));
+		assertEquals(101, Files.readAllLines(directory.resolve("a_assay.txt")).size());
+	}
+
+	@Test
+	void testWriteFailure(@TempDir Path directory) {
+		Investigation investigation = new Investigation("i1");
+		Study study = new Study("s1", directory.resolve("s_study.txt").toString());
+		investigation.addStudy(study);
+		Assay assay = new Assay(directory.resolve("a_assay.txt").toString());
+		study.addAssay(assay);
+
+		ArchiveWriter writer = new ArchiveWriter(investigation);
+		// Never ending lines for the study, failing lines for the assay
+		Iterable<Source> endless = () -> new Iterator<Source>() {
+			public boolean hasNext() {
+				return true;
+			}
+
+			public Source next() {
+				Source source = new Source("source");
+				Process process = new Process(new Protocol("Collection"));
+				process.setInput(source);
+				process.setOutput(new Sample("sample"));
+				return source;
+			}
+		};
+		writer.setLines(study, endless);
+		List<Sample> lines = createLines("a", 100);
+		((Process) lines.get(50).getNextStudyOrAssayTableObject()).setOutput(null);
+		writer.setLines(assay, lines);
+
+		// Fails fast instead of waiting for the study forever
+		assertThrows(NullPointerException.class, () -> writer.write(directory.resolve("i_investigation.txt").toString(), 3));
+	}
+
+}
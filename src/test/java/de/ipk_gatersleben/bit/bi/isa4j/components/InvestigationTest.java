@@ -20,14 +20,18 @@ import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.Month;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import de.ipk_gatersleben.bit.bi.isa4j.components.Characteristic;
 import de.ipk_gatersleben.bit.bi.isa4j.components.Comment;
 import de.ipk_gatersleben.bit.bi.isa4j.components.Factor;
 import de.ipk_gatersleben.bit.bi.isa4j.components.Investigation;
@@ -37,11 +41,17 @@ import de.ipk_gatersleben.bit.bi.isa4j.components.Person;
 import de.ipk_gatersleben.bit.bi.isa4j.components.Protocol;
 import de.ipk_gatersleben.bit.bi.isa4j.components.ProtocolParameter;
 import de.ipk_gatersleben.bit.bi.isa4j.components.Publication;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Source;
 import de.ipk_gatersleben.bit.bi.isa4j.components.Study;
 import de.ipk_gatersleben.bit.bi.isa4j.constants.InvestigationAttribute;
 import de.ipk_gatersleben.bit.bi.isa4j.constants.Symbol;
 import de.ipk_gatersleben.bit.bi.isa4j.exceptions.RedundantItemException;
 import de.ipk_gatersleben.bit.bi.isa4j.util.StringUtil;
+import de.ipk_gatersleben.bit.bi.isa4j.util.Utf8Buffer;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 public class InvestigationTest {
 	
@@ -77,7 +87,65 @@ public class InvestigationTest {
     	Study study4 = new Study("study4", "s_study1.txt");
     	assertThrows(RedundantItemException.class, () -> this.investigation.addStudy(study4));
     }
-    
+
+    @Test
+    void testAddStudyAfterChanges() {
+    	Study study1 = new Study("study1", "s_study1.txt");
+    	this.investigation.addStudy(study1);
+
+    	// A renamed study frees its old identifier
+    	study1.setIdentifier("renamed");
+    	this.investigation.addStudy(new Study("study1", "s_other.txt"));
+    	assertThrows(RedundantItemException.class, () -> this.investigation.addStudy(new Study("renamed", "s_new.txt")));
+
+    	// Studies removed through the list are forgotten as well
+    	this.investigation.getStudies().remove(study1);
+    	this.investigation.addStudy(new Study("renamed", "s_study1.txt"));
+    	assertEquals(2, this.investigation.getStudies().size());
+
+    	// Many studies
+    	for (int i = 0; i < 1000; i++)
+    		this.investigation.addStudy(new Study("many" + i, "s_many" + i + ".txt"));
+    	assertThrows(RedundantItemException.class, () -> this.investigation.addStudy(new Study("many500", "s_x.txt")));
+    	assertThrows(RedundantItemException.class, () -> this.investigation.addStudy(new Study("x", "s_many999.txt")));
+
+    	// A new identifier is taken right away, also if the old one was never looked up
+    	this.investigation.getStudies().get(10).setIdentifier("taken");
+    	assertThrows(RedundantItemException.class, () -> this.investigation.addStudy(new Study("taken", "s_taken.txt")));
+
+    	// Protocol parameters are indexed by their name annotation, which is compared by identity
+    	Protocol protocol = new Protocol("Watering");
+    	OntologyAnnotation volume = new OntologyAnnotation("Volume");
+    	protocol.addParameter(new ProtocolParameter(volume));
+    	protocol.addParameter(new ProtocolParameter("Volume"));
+    	protocol.addParameter(new ProtocolParameter("Volume"));
+    	volume.setTerm("Amount");
+    	assertThrows(RedundantItemException.class, () -> protocol.addParameter(new ProtocolParameter(volume)));
+
+    	// A renamed characteristic only affects the index of its own Source
+    	Source plant = new Source("plant");
+    	Source other = new Source("other");
+    	Characteristic organism = new Characteristic("Organism", new OntologyAnnotation("Arabidopsis thaliana"));
+    	plant.addCharacteristic(organism);
+    	other.addCharacteristic(new Characteristic("Organism", new OntologyAnnotation("Hordeum vulgare")));
+    	organism.setCategory("Species");
+    	plant.addCharacteristic(new Characteristic("Organism", new OntologyAnnotation("Arabidopsis thaliana")));
+    	assertThrows(RedundantItemException.class,
+    			() -> plant.addCharacteristic(new Characteristic("Species", new OntologyAnnotation("Arabidopsis"))));
+    	assertThrows(RedundantItemException.class,
+    			() -> other.addCharacteristic(new Characteristic("Organism", new OntologyAnnotation("Hordeum"))));
+
+    	// Changing annotations does not invalidate any index
+    	Ontology uo = new Ontology("UO", null, null, null);
+    	for (int i = 0; i < 40000; i++) {
+    		OntologyAnnotation value = new OntologyAnnotation(String.valueOf(i));
+    		value.setSourceREF(uo);
+    		other.addCharacteristic(new Characteristic("c" + i, value));
+    	}
+    	assertThrows(RedundantItemException.class,
+    			() -> other.addCharacteristic(new Characteristic("c39999", new OntologyAnnotation("0"))));
+    }
+
     @Test
     void testSetStudies() {
     	// Previously saved studies should be erased by SetStudies
@@ -109,30 +177,46 @@ public class InvestigationTest {
     	assertThrows(RedundantItemException.class, () -> this.investigation.setStudies(newStudies));
     }
     
+    /**
+     * Write a section of one line per name with the given cells
+     */
+    private static String section(String[] names, Consumer<SectionLines> cells) {
+    	SectionLines lines = new SectionLines();
+    	lines.begin(names);
+    	cells.accept(lines);
+    	Utf8Buffer buffer = new Utf8Buffer(16);
+    	lines.writeTo(buffer);
+    	return buffer.toString();
+    }
+
     @Test
-    void testLineFromList() throws MalformedURLException {
+    void testSectionLineCells() throws MalformedURLException {
     	List<Ontology> ontologies = new ArrayList<Ontology>();
     	Ontology ontology1 = new Ontology("Ontology1", new URL("http://ontology1.com/"), null, "Description 1");
     	Ontology ontology2 = new Ontology("Ontology2", new URL("http://ontology2.com/"), "Version 2", "Description 2");
     	Ontology ontology3 = new Ontology("Ontology3", new URL("http://ontology3.com/"), null, "Description 3");
+    	String[] names = { "LineName" };
     	
     	// Should return correctly formatted line
     	ontologies.add(ontology1);
-    	assertEquals("LineName" + Symbol.TAB + "Ontology1" + Symbol.ENTER, Investigation.lineFromList("LineName", ontologies, o -> o.getName()));
+    	assertEquals("LineName" + Symbol.TAB + "Ontology1" + Symbol.ENTER,
+    			section(names, lines -> ontologies.forEach(o -> lines.cell(0, o.getName()))));
     	
     	ontologies.add(ontology2);
-    	assertEquals("LineName" + Symbol.TAB + "Ontology1" + Symbol.TAB + "Ontology2" + Symbol.ENTER, Investigation.lineFromList("LineName", ontologies, o -> o.getName()));
+    	assertEquals("LineName" + Symbol.TAB + "Ontology1" + Symbol.TAB + "Ontology2" + Symbol.ENTER,
+    			section(names, lines -> ontologies.forEach(o -> lines.cell(0, o.getName()))));
     	
     	// Should replace nulls by empty strings
     	ontologies.add(ontology3);
-    	assertEquals("LineName" + Symbol.TAB + Symbol.EMPTY + Symbol.TAB + "Version 2" + Symbol.TAB + Symbol.EMPTY + Symbol.ENTER, Investigation.lineFromList("LineName", ontologies, o -> o.getVersion()));
+    	assertEquals("LineName" + Symbol.TAB + Symbol.EMPTY + Symbol.TAB + "Version 2" + Symbol.TAB + Symbol.EMPTY + Symbol.ENTER,
+    			section(names, lines -> ontologies.forEach(o -> lines.cell(0, o.getVersion()))));
 
     	// Should only return linename and enter for an empty list, no TABs
-    	assertEquals("LineName" + Symbol.ENTER, Investigation.lineFromList("LineName", new ArrayList<Ontology>(), o -> o.getName()));
+    	assertEquals("LineName" + Symbol.ENTER, section(names, lines -> {}));
     }
 
     @Test
-    void testOntologyLinesFromList() {
+    void testSectionOntologyCells() {
     	List<Publication> publications = new ArrayList<Publication>();
     	Publication publication1 = new Publication(Symbol.EMPTY.toString(), null);
     	Publication publication2 = new Publication(Symbol.EMPTY.toString(), null);
@@ -147,23 +231,61 @@ public class InvestigationTest {
     	publications.add(publication3);
     	publications.add(publication4);
     	
-    	String result = Investigation.ontologyLinesFromList("PubStatus", publications, p -> p.getStatus());
+    	String lineName1 = "PubStatus";
+    	String lineName2 = "PubStatus" + Symbol.SPACE + InvestigationAttribute.TERM_ACCESSION_NUMBER;
+    	String lineName3 = "PubStatus" + Symbol.SPACE + InvestigationAttribute.TERM_SOURCE_REF;
+    	String result = section(new String[] { lineName1, lineName2, lineName3 },
+    			lines -> publications.forEach(p -> lines.ontologyCells(0, p.getStatus())));
     	
     	// Result should (always) have 3 lines
     	assertEquals(3, result.split(Symbol.ENTER.toString()).length);
     	// Result should have 3 * 4 tabs (1 LineName + 4 Publications columns over 3 lines)
     	assertEquals(12, result.split(Symbol.TAB.toString()).length - 1);
     	// Result should be containing the correct information
-    	String lineName1 = "PubStatus" + Symbol.TAB;
-    	String lineName2 = "PubStatus" + Symbol.SPACE + InvestigationAttribute.TERM_ACCESSION_NUMBER + Symbol.TAB;
-    	String lineName3 = "PubStatus" + Symbol.SPACE + InvestigationAttribute.TERM_SOURCE_REF+ Symbol.TAB;
     	assertEquals(
-    			lineName1 + "Status1" + Symbol.TAB + Symbol.EMPTY + Symbol.TAB + "Status3" + Symbol.TAB + Symbol.EMPTY + Symbol.ENTER
-    		+	lineName2 + Symbol.EMPTY + Symbol.TAB + Symbol.EMPTY + Symbol.TAB + "Accession 3" + Symbol.TAB + Symbol.EMPTY + Symbol.ENTER
-    		+	lineName3 + Symbol.EMPTY + Symbol.TAB + Symbol.EMPTY + Symbol.TAB + Symbol.EMPTY + Symbol.TAB + "Ontology1" + Symbol.ENTER,
+    			lineName1 + Symbol.TAB + "Status1" + Symbol.TAB + Symbol.EMPTY + Symbol.TAB + "Status3" + Symbol.TAB + Symbol.EMPTY + Symbol.ENTER
+    		+	lineName2 + Symbol.TAB + Symbol.EMPTY + Symbol.TAB + Symbol.EMPTY + Symbol.TAB + "Accession 3" + Symbol.TAB + Symbol.EMPTY + Symbol.ENTER
+    		+	lineName3 + Symbol.TAB + Symbol.EMPTY + Symbol.TAB + Symbol.EMPTY + Symbol.TAB + Symbol.EMPTY + Symbol.TAB + "Ontology1" + Symbol.ENTER,
     			result);
     }
     
+    @Test
+    void testSectionLines() {
+    	List<Person> people = new ArrayList<Person>();
+    	Person person1 = new Person("LN", null, null, null, null);
+    	person1.addRole(new OntologyAnnotation("Role1", "Accession 1", new Ontology("Ontology1", null, null, null)));
+    	person1.addRole(new OntologyAnnotation("Role2"));
+    	Person person2 = new Person("LN2", "FN2", null, null, null);
+    	people.add(person1);
+    	people.add(person2);
+    	
+    	// All lines of a section are written in one pass over the objects
+    	SectionLines lines = new SectionLines();
+    	lines.begin(new String[] { "Name", "First Name", "Roles", "Status", "Status Term Accession Number", "Status Term Source REF" });
+    	for (Person person : people) {
+    		lines.cell(0, person.getLastName());
+    		lines.cell(1, person.getFirstName());
+    		lines.joinedCell(2, person.getRoles(), r -> r.getTerm());
+    		lines.ontologyCells(3, person.getRoles().isEmpty() ? null : person.getRoles().get(0));
+    	}
+    	Utf8Buffer buffer = new Utf8Buffer(16);
+    	lines.writeTo(buffer);
+    	assertEquals(
+    			"Name" + Symbol.TAB + "LN" + Symbol.TAB + "LN2" + Symbol.ENTER
+    		+	"First Name" + Symbol.TAB + Symbol.EMPTY + Symbol.TAB + "FN2" + Symbol.ENTER
+    		+	"Roles" + Symbol.TAB + "Role1" + Symbol.SEMICOLON + "Role2" + Symbol.TAB + Symbol.EMPTY + Symbol.ENTER
+    		+	"Status" + Symbol.TAB + "Role1" + Symbol.TAB + Symbol.EMPTY + Symbol.ENTER
+    		+	"Status Term Accession Number" + Symbol.TAB + "Accession 1" + Symbol.TAB + Symbol.EMPTY + Symbol.ENTER
+    		+	"Status Term Source REF" + Symbol.TAB + "Ontology1" + Symbol.TAB + Symbol.EMPTY + Symbol.ENTER,
+    			buffer.toString());
+    	
+    	// A section reused for fewer lines only writes those
+    	lines.begin(new String[] { "Name" });
+    	buffer.clear();
+    	lines.writeTo(buffer);
+    	assertEquals("Name" + Symbol.ENTER, buffer.toString());
+    }
+    
     @Test
     void testFormatSimpleComments() {
     	List<Comment> comments = new ArrayList<Comment>();
@@ -183,6 +305,8 @@ public class InvestigationTest {
     	  + StringUtil.putNameInAttribute(InvestigationAttribute.COMMENT, "Comment Type 2") + Symbol.TAB + "Comment Value 2" + Symbol.ENTER
     	  + StringUtil.putNameInAttribute(InvestigationAttribute.COMMENT, "Comment Type 3") + Symbol.TAB + "Comment Value 3" + Symbol.ENTER, 
     	  Investigation.formatSimpleComments(comments));
+    	// The passed list itself must not be sorted
+    	assertEquals("Comment Type 3", comments.get(1).getName());
 
     }
 
@@ -207,6 +331,29 @@ public class InvestigationTest {
 	   	  Investigation.formatComments(people));   	
     }
     
+    @Test
+    void testFormatCommentsManyTypes() {
+    	// Many comment types spread over many objects, each object only has some of them
+    	List<Person> people = new ArrayList<Person>();
+    	for (int i = 0; i < 200; i++) {
+    		Person person = new Person("LN" + i, null, null, null, null);
+    		for (int type = i % 3; type < 25; type += 3)
+    			person.comments().add(new Comment("Type " + type, "value " + i + "/" + type));
+    		people.add(person);
+    	}
+    	String[] lines = Investigation.formatComments(people).split(Symbol.ENTER.toString());
+    	assertEquals(25, lines.length);
+    	// Types in the order of their first appearance
+    	assertTrue(lines[0].startsWith(StringUtil.putNameInAttribute(InvestigationAttribute.COMMENT, "Type 0") + Symbol.TAB));
+    	assertTrue(lines[9].startsWith(StringUtil.putNameInAttribute(InvestigationAttribute.COMMENT, "Type 1") + Symbol.TAB));
+    	String[] type1 = lines[9].split(Symbol.TAB.toString(), -1);
+    	assertEquals(201, type1.length);
+    	assertEquals(Symbol.EMPTY.toString(), type1[1]);
+    	assertEquals("value 1/1", type1[2]);
+    	assertEquals(Symbol.EMPTY.toString(), type1[3]);
+    	assertEquals("value 4/1", type1[5]);
+    }
+    
     @Test
     void testWriteToStream() throws IOException {
     	// We have created an Investigation File with the python API (python code is in the resources folder) and we'll try to create
@@ -303,4 +450,35 @@ public class InvestigationTest {
     	ourFile.close();
     	
     }
-}
\ No newline at end of file
+    @Test
+    void testSectionEvents(@TempDir Path directory) throws IOException {
+    	this.investigation.addContact(new Person("Doe", "John", null, null, null));
+    	this.investigation.addStudy(new Study("S1", "s_1.txt"));
+    	this.investigation.addStudy(new Study("S2", "s_2.txt"));
+    	Path dump = directory.resolve("investigation.jfr");
+    	try (Recording recording = new Recording()) {
+    		recording.enable(InvestigationSectionEvent.class);
+    		recording.start();
+    		this.investigation.writeToStream(new ByteArrayOutputStream());
+    		recording.stop();
+    		recording.dump(dump);
+    	}
+    	
+    	List<String> sections = new ArrayList<String>();
+    	long bytes = 0;
+    	for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+    		if (!event.getEventType().getName().endsWith(".InvestigationSection"))
+    			continue;
+    		sections.add(event.getString("section"));
+    		bytes += event.getLong("bytes");
+    		if (event.getString("section").equals(InvestigationAttribute.INVESTIGATION_CONTACTS.toString()))
+    			assertEquals(1, event.getInt("items"));
+    	}
+    	assertEquals(List.of("ONTOLOGY SOURCE REFERENCE", "INVESTIGATION", "INVESTIGATION PUBLICATIONS",
+    			"INVESTIGATION CONTACTS", "STUDY S1", "STUDY S2"), sections);
+    	ByteArrayOutputStream os = new ByteArrayOutputStream();
+    	this.investigation.writeToStream(os);
+    	assertEquals(os.size(), bytes);
+    }
+
+}
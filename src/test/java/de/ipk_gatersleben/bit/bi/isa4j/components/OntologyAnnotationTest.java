@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.components;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class OntologyAnnotationTest {
+
+	@Test
+	void testEquals() {
+		// Annotations can be changed and are compared by identity
+		Ontology uo = new Ontology("UO", null, null, "Units of Measurement Ontology");
+		OntologyAnnotation gram = new OntologyAnnotation("g", "http://purl.obolibrary.org/obo/UO_0000021", uo);
+		assertEquals(gram, gram);
+		assertNotEquals(gram, new OntologyAnnotation("g", "http://purl.obolibrary.org/obo/UO_0000021", uo));
+		assertNotEquals(OntologyAnnotation.of("g"), new OntologyAnnotation("g"));
+	}
+
+	@Test
+	void testShared() {
+		Ontology uo = new Ontology("UO", null, null, null);
+		OntologyAnnotation gram = OntologyAnnotation.of("g", "UO_0000021", uo);
+		assertTrue(gram.isShared());
+		assertSame(gram, OntologyAnnotation.of(new String("g"), "UO_0000021", uo));
+		assertNotSame(gram, OntologyAnnotation.of("g", "UO_0000021", new Ontology("UO", null, null, null)));
+		// Changing the Ontology does not lose the pooled annotation
+		uo.setName("Units");
+		assertSame(gram, OntologyAnnotation.of("g", "UO_0000021", uo));
+		assertNotSame(gram, OntologyAnnotation.of("g"));
+		assertFalse(new OntologyAnnotation("g").isShared());
+
+		// Shared annotations cannot be changed
+		assertThrows(IllegalStateException.class, () -> gram.setTerm("kg"));
+		assertThrows(IllegalStateException.class, () -> gram.setTermAccession(null));
+		assertThrows(IllegalStateException.class, () -> gram.setSourceREF(null));
+		assertThrows(IllegalStateException.class, () -> gram.comments().add(new Comment("Note", "value")));
+		assertThrows(UnsupportedOperationException.class, () -> gram.comments().getAll().clear());
+
+		// Values of numbers and Strings get annotations of their own, sharing is opt-in
+		ProtocolParameter volume = new ProtocolParameter("Volume");
+		ParameterValue value = new ParameterValue(volume, 80.4);
+		assertFalse(value.getValue().isShared());
+		assertNotSame(value.getValue(), new ParameterValue(volume, 80.4).getValue());
+		value.getValue().setTerm("80.5");
+		value.setValue("pot");
+		assertFalse(value.getValue().isShared());
+		value.getValue().comments().add(new Comment("Note", "value"));
+		value.setValue(OntologyAnnotation.of("pot"));
+		assertSame(OntologyAnnotation.of("pot"), new ParameterValue(volume, OntologyAnnotation.of("pot")).getValue());
+	}
+
+}
@@ -7,19 +7,66 @@
  */
 package de.ipk_gatersleben.bit.bi.isa4j.components;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import de.ipk_gatersleben.bit.bi.isa4j.constants.Props;
+import de.ipk_gatersleben.bit.bi.isa4j.constants.StudyAssayAttribute;
 import de.ipk_gatersleben.bit.bi.isa4j.constants.Symbol;
+import de.ipk_gatersleben.bit.bi.isa4j.exceptions.InvalidRowException;
+import de.ipk_gatersleben.bit.bi.isa4j.util.AtomicFile;
+import de.ipk_gatersleben.bit.bi.isa4j.util.FsyncPolicy;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 public class WideTableFileTest {
 	
@@ -104,4 +151,847 @@ public class WideTableFileTest {
     	this.study.releaseStream();
 	}
 
+	@Test
+	void testColumnPlanReuse() throws IOException {
+		Source source = new Source("Source Name");
+		source.addCharacteristic(new Characteristic("Size", new OntologyAnnotation("m", "accession", new Ontology("Ontology", null, null, null))));
+		Sample sample = new Sample("Sample Name");
+		Process process = new Process(new Protocol("ProtocolName"));
+		process.setInput(source);
+		process.setOutput(sample);
+		
+		assertNull(study.getColumnPlan());
+		ByteArrayOutputStream os1 = new ByteArrayOutputStream();
+		study.setOutputStream(os1);
+		study.writeLine(source);
+		ColumnPlan plan = study.getColumnPlan();
+		assertEquals(3, plan.getSlotCount());
+		assertEquals(6, plan.getColumnCount());
+		study.releaseStream();
+		
+		// Another file with the same schema can reuse the compiled plan and produces the same output
+		Assay assay = new Assay("a_assay.txt");
+		ByteArrayOutputStream os2 = new ByteArrayOutputStream();
+		assay.setOutputStream(os2);
+		assay.writeHeaders(plan);
+		assertThrows(IllegalStateException.class, () -> assay.writeHeaders(plan));
+		assay.writeLine(source);
+		assay.releaseStream();
+		
+		assertEquals(os1.toString(), os2.toString());
+	}
+
+	@Test
+	void testColumnKeys() {
+		ColumnKey key = ColumnKey.of(StudyAssayAttribute.CHARACTERISTICS, "Organism");
+		assertEquals("Characteristics[Organism]", key.getHeader());
+		assertSame(key, ColumnKey.of(StudyAssayAttribute.CHARACTERISTICS, new String("Organism")));
+		assertNotEquals(key, ColumnKey.of(StudyAssayAttribute.COMMENT, "Organism"));
+
+		// The plan holds the canonical header Strings, so objects of later lines match by identity
+		Source source = new Source("Source Name");
+		source.addCharacteristic(new Characteristic(new String("Organism"), new OntologyAnnotation("thaliana")));
+		ColumnPlan plan = ColumnPlan.compile(source);
+		assertSame(key.getHeader(), plan.getKeys(0)[1]);
+	}
+
+	@Test
+	void testWriteLineDifferentOrder() throws IOException {
+		Source source1 = new Source("Source 1");
+		source1.addCharacteristic(new Characteristic("Beauty", new OntologyAnnotation("Very Beautiful")));
+		source1.addCharacteristic(new Characteristic("Size", new OntologyAnnotation("Big")));
+		Source source2 = new Source("Source 2");
+		source2.addCharacteristic(new Characteristic("Size", new OntologyAnnotation("Small")));
+		source2.addCharacteristic(new Characteristic("Beauty", new OntologyAnnotation("Ugly")));
+		
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		study.setOutputStream(os);
+		study.writeLine(source1);
+		// Columns are matched by name, not by position, if an object deviates from the header structure
+		study.writeLine(source2);
+		study.releaseStream();
+		
+		assertEquals(
+			"Source Name" + Symbol.TAB + "Characteristics[Beauty]" + Symbol.TAB + "Characteristics[Size]" + Symbol.ENTER
+		  + "Source 1" + Symbol.TAB + "Very Beautiful" + Symbol.TAB + "Big" + Symbol.ENTER
+		  + "Source 2" + Symbol.TAB + "Ugly" + Symbol.TAB + "Small" + Symbol.ENTER,
+		  os.toString()
+		);
+	}
+
+	@Test
+	void testWriteLineLateColumns() throws IOException {
+		Protocol watering = new Protocol("Watering");
+		ProtocolParameter volume = new ProtocolParameter("Volume");
+		watering.addParameter(volume);
+
+		Source source1 = new Source("Source 1");
+		source1.addCharacteristic(new Characteristic("Beauty", new OntologyAnnotation("Nice")));
+		Process process1 = new Process(watering);
+		process1.addParameterValue(new ParameterValue(volume, 80.4));
+		process1.setInput(source1);
+		process1.setOutput(new Sample("Sample 1"));
+
+		Source source2 = new Source("Source 2");
+		source2.addCharacteristic(new Characteristic("Beauty", new OntologyAnnotation("Ugly")));
+		source2.addCharacteristic(new Characteristic("Size", new OntologyAnnotation("m", "accession", new Ontology("UO", null, null, null))));
+		Process process2 = new Process(watering);
+		process2.addParameterValue(new ParameterValue(volume, 2.0, new OntologyAnnotation("l")));
+		process2.setInput(source2);
+		process2.setOutput(new Sample("Sample 2"));
+
+		Source source3 = new Source("Source 3");
+		source3.addCharacteristic(new Characteristic("Size", new OntologyAnnotation("Small")));
+		source3.comments().add(new Comment("Note", "late"));
+		Process process3 = new Process(watering);
+		process3.setInput(source3);
+		process3.setOutput(new Sample("Sample 3"));
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		study.setOutputStreamWithLateColumns(os);
+		study.writeLine(source1);
+		study.writeLine(source2);
+		study.writeLine(source3);
+		study.writeLine(source1);
+		// Lines must still consist of the same objects
+		assertThrows(IllegalStateException.class, () -> study.writeLine(new Source("Source 4")));
+		assertEquals(0, os.size());
+		study.releaseStream();
+
+		// Every line gets empty cells for the columns it does not have
+		assertEquals(
+			"Source Name" + Symbol.TAB + "Characteristics[Beauty]" + Symbol.TAB + "Characteristics[Size]" + Symbol.TAB + "Term Source REF" + Symbol.TAB + "Term Accession Number" + Symbol.TAB + "Comment[Note]"
+				+ Symbol.TAB + "Protocol REF" + Symbol.TAB + "Parameter Value[Volume]" + Symbol.TAB + "Unit" + Symbol.TAB + "Sample Name" + Symbol.ENTER
+		  + "Source 1" + Symbol.TAB + "Nice" + Symbol.TAB + Symbol.TAB + Symbol.TAB + Symbol.TAB
+				+ Symbol.TAB + "Watering" + Symbol.TAB + "80.4" + Symbol.TAB + Symbol.TAB + "Sample 1" + Symbol.ENTER
+		  + "Source 2" + Symbol.TAB + "Ugly" + Symbol.TAB + "m" + Symbol.TAB + "UO" + Symbol.TAB + "accession" + Symbol.TAB
+				+ Symbol.TAB + "Watering" + Symbol.TAB + "2.0" + Symbol.TAB + "l" + Symbol.TAB + "Sample 2" + Symbol.ENTER
+		  + "Source 3" + Symbol.TAB + Symbol.TAB + "Small" + Symbol.TAB + Symbol.TAB + Symbol.TAB + "late"
+				+ Symbol.TAB + "Watering" + Symbol.TAB + Symbol.TAB + Symbol.TAB + "Sample 3" + Symbol.ENTER
+		  + "Source 1" + Symbol.TAB + "Nice" + Symbol.TAB + Symbol.TAB + Symbol.TAB + Symbol.TAB
+				+ Symbol.TAB + "Watering" + Symbol.TAB + "80.4" + Symbol.TAB + Symbol.TAB + "Sample 1" + Symbol.ENTER,
+		  os.toString()
+		);
+
+		// Uniform lines are written as without late columns
+		ByteArrayOutputStream uniform = new ByteArrayOutputStream();
+		study.setOutputStreamWithLateColumns(uniform);
+		study.writeLine(source1);
+		study.writeLine(source1);
+		study.releaseStream();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		study.setOutputStream(expected);
+		study.writeLine(source1);
+		study.writeLine(source1);
+		study.releaseStream();
+		assertEquals(expected.toString(), uniform.toString());
+	}
+
+	@Test
+	void testWriteLineEncoding() throws IOException {
+		// Non-ASCII content (umlauts, CJK, surrogate pairs) must end up as valid UTF-8
+		Source source = new Source("Pflanze Gr\u00f6\u00dfe \u690d\u7269 \ud83c\udf31");
+		source.addCharacteristic(new Characteristic("Stra\u00dfe", new OntologyAnnotation("\u00e9t\u00e9", "acc\u00e8s", new Ontology("\u00d6ntology", null, null, null))));
+		
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		study.setOutputStream(os);
+		study.writeLine(source);
+		study.releaseStream();
+		
+		String expected = "Source Name" + Symbol.TAB + "Characteristics[Stra\u00dfe]" + Symbol.TAB + "Term Source REF" + Symbol.TAB + "Term Accession Number" + Symbol.ENTER
+			+ "Pflanze Gr\u00f6\u00dfe \u690d\u7269 \ud83c\udf31" + Symbol.TAB + "\u00e9t\u00e9" + Symbol.TAB + "\u00d6ntology" + Symbol.TAB + "acc\u00e8s" + Symbol.ENTER;
+		assertArrayEquals(expected.getBytes(Props.DEFAULT_CHARSET), os.toByteArray());
+	}
+
+	private static List<Source> createLines(int nRows) {
+		Protocol protocol = new Protocol("Watering");
+		ProtocolParameter volume = new ProtocolParameter("Volume");
+		OntologyAnnotation unit = new OntologyAnnotation("g", "http://purl.obolibrary.org/obo/UO_0000021", new Ontology("UO", null, null, null));
+		List<Source> lines = new ArrayList<Source>();
+		for (int i = 0; i < nRows; i++) {
+			Source source = new Source("Plant " + i);
+			source.addCharacteristic(new Characteristic("Height", new OntologyAnnotation(String.valueOf(i))));
+			Sample sample = new Sample("Sample " + i);
+			Process process = new Process(protocol);
+			process.addParameterValue(new ParameterValue(volume, i * 0.5, unit));
+			process.setInput(source);
+			process.setOutput(sample);
+			lines.add(source);
+		}
+		return lines;
+	}
+	
+	@Test
+	void testRowCursor() throws IOException {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		study.setOutputStream(expected);
+		for (Source source : createLines(100))
+			study.writeLine(source);
+		study.releaseStream();
+
+		// Same lines, written with one set of objects
+		Source source = createLines(1).get(0);
+		RowCursor cursor = new RowCursor(study, source);
+		assertEquals(3, cursor.getSlotCount());
+		assertThrows(IllegalArgumentException.class, () -> cursor.getSlot(1, Sample.class));
+		Characteristic height = source.getCharacteristics().get(0);
+		ParameterValue volume = cursor.getSlot(1, Process.class).getParameterValues().get(0);
+		Sample sample = cursor.getSlot(2, Sample.class);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		study.setOutputStream(os);
+		for (int i = 0; i < 100; i++) {
+			source.setName("Plant " + i);
+			height.setValue(OntologyAnnotation.of(String.valueOf(i)));
+			volume.setValue(i * 0.5);
+			sample.setName("Sample " + i);
+			cursor.write();
+		}
+
+		// The line must keep its structure
+		cursor.getSlot(1, Process.class).setOutput(new Sample("other"));
+		assertThrows(IllegalStateException.class, () -> cursor.write());
+		study.releaseStream();
+		assertEquals(expected.toString(), os.toString());
+	}
+
+	@Test
+	void testWriteColumns() throws IOException {
+		Protocol protocol = new Protocol("Sequencing");
+		ProtocolParameter volume = new ProtocolParameter("Volume");
+		ProtocolParameter reads = new ProtocolParameter("Reads");
+		ProtocolParameter machine = new ProtocolParameter("Machine");
+		OntologyAnnotation unit = new OntologyAnnotation("ml", "http://purl.obolibrary.org/obo/UO_0000098", new Ontology("UO", null, null, null));
+		Ontology ncit = new Ontology("NCIT", null, null, null);
+		Ontology ncbi = new Ontology("NCBITaxon", null, null, null);
+		int nRows = 500;
+		String[] names = new String[nRows];
+		String[] organisms = new String[nRows];
+		double[] volumes = new double[nRows];
+		long[] readCounts = new long[nRows];
+		String[] machines = new String[nRows];
+		String[] paths = new String[nRows];
+		String[] notes = new String[nRows];
+		for (int i = 0; i < nRows; i++) {
+			names[i] = "Sample " + i;
+			organisms[i] = i % 2 == 0 ? "thaliana" : "lyrata";
+			volumes[i] = i * 0.25;
+			readCounts[i] = 3000000000L + i;
+			machines[i] = "HiSeq " + (i % 3);
+			paths[i] = "reads/" + i + ".fastq.gz";
+			notes[i] = i % 5 == 0 ? "checked" : "";
+		}
+
+		// One line of objects per row
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		study.setOutputStream(expected);
+		for (int i = 0; i < nRows; i++) {
+			Sample sample = new Sample(names[i]);
+			sample.addCharacteristic(new Characteristic("Organism", new OntologyAnnotation(organisms[i], "NCBITaxon_3701", ncbi)));
+			sample.addCharacteristic(new Characteristic("Tissue", new OntologyAnnotation("leaf")));
+			Process process = new Process(protocol);
+			process.addParameterValue(new ParameterValue(volume, volumes[i], unit));
+			process.addParameterValue(new ParameterValue(reads, new OntologyAnnotation(String.valueOf(readCounts[i]), "NCIT_C25463", ncit)));
+			process.addParameterValue(new ParameterValue(machine, new OntologyAnnotation(machines[i], "NCIT_C25728", ncit)));
+			process.comments().add(new Comment("Note", notes[i]));
+			process.setInput(sample);
+			process.setOutput(new DataFile("Raw Data File", paths[i]));
+			study.writeLine(sample);
+		}
+		study.releaseStream();
+
+		// The same lines as columns
+		Sample sample = new Sample("template");
+		// Columns keep the source REF and accession of the template
+		sample.addCharacteristic(new Characteristic("Organism", new OntologyAnnotation("template", "NCBITaxon_3701", ncbi)));
+		sample.addCharacteristic(new Characteristic("Tissue", new OntologyAnnotation("leaf")));
+		Process process = new Process(protocol);
+		process.addParameterValue(new ParameterValue(volume, 0, unit));
+		process.addParameterValue(new ParameterValue(reads, new OntologyAnnotation("0", "NCIT_C25463", ncit)));
+		process.addParameterValue(new ParameterValue(machine, new OntologyAnnotation("template", "NCIT_C25728", ncit)));
+		process.comments().add(new Comment("Note", "template"));
+		process.setInput(sample);
+		process.setOutput(new DataFile("Raw Data File", "template"));
+		ColumnarLines lines = new ColumnarLines(sample);
+		lines.setNames(0, names);
+		lines.setCharacteristics(0, "Organism", organisms);
+		lines.setParameterValues(1, volume, volumes);
+		lines.setParameterValues(1, reads, readCounts);
+		lines.setParameterValues(1, machine, machines);
+		lines.setComments(1, "Note", notes);
+		lines.setNames(2, paths);
+		assertEquals(nRows, lines.getRowCount());
+		assertThrows(IllegalArgumentException.class, () -> lines.setNames(0, new String[1]));
+		assertThrows(IllegalArgumentException.class, () -> lines.setNames(1, names));
+		assertThrows(IllegalArgumentException.class, () -> lines.setCharacteristics(0, "Height", organisms));
+		assertThrows(IllegalArgumentException.class, () -> lines.setParameterValues(1, new ProtocolParameter("Volume"), volumes));
+
+		Study columnar = new Study("Study ID", "s_study.txt");
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		columnar.setOutputStream(os);
+		columnar.writeColumns(lines);
+		columnar.releaseStream();
+		assertEquals(expected.toString(), os.toString());
+		assertTrue(os.toString().contains("NCBITaxon_3701"));
+
+		// A failing line is reported with its index
+		names[250] = null;
+		columnar.setOutputStream(new ByteArrayOutputStream());
+		InvalidRowException e = assertThrows(InvalidRowException.class, () -> columnar.writeColumns(lines));
+		assertEquals(250, e.getRowIndex());
+		columnar.releaseStream();
+	}
+
+	@Test
+	void testWriteLines() throws IOException {
+		List<Source> lines = createLines(1000);
+		
+		ByteArrayOutputStream serial = new ByteArrayOutputStream();
+		study.setOutputStream(serial);
+		for (Source source : lines)
+			study.writeLine(source);
+		study.releaseStream();
+		
+		// Parallel rendering must produce exactly the same file, in the same order
+		ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+		study.setOutputStream(parallel);
+		study.writeLines(lines);
+		study.releaseStream();
+		assertArrayEquals(serial.toByteArray(), parallel.toByteArray());
+		
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		study.setOutputStream(stream);
+		study.writeLines(lines.stream());
+		study.releaseStream();
+		assertArrayEquals(serial.toByteArray(), stream.toByteArray());
+	}
+	
+	@Test
+	void testWriteLinesFailure() throws IOException {
+		List<Source> lines = createLines(1000);
+		// Line 700 is missing the Sample
+		((Process) lines.get(700).getNextStudyOrAssayTableObject()).setOutput(null);
+		
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		study.setOutputStream(os);
+		InvalidRowException e = assertThrows(InvalidRowException.class, () -> study.writeLines(lines));
+		assertEquals(700, e.getRowIndex());
+		assertTrue(e.getCause() instanceof NullPointerException);
+		study.releaseStream();
+		
+		// Header and all lines before the failure are written
+		assertEquals(701, os.toString().split(Symbol.ENTER.toString()).length);
+
+		// Also if the header cannot be taken from the first line
+		study.setOutputStream(new ByteArrayOutputStream());
+		e = assertThrows(InvalidRowException.class, () -> study.writeLines(Arrays.asList((Source) null)));
+		assertEquals(0, e.getRowIndex());
+		assertTrue(e.getCause() instanceof NullPointerException);
+		study.releaseStream();
+	}
+
+	@Test
+	void testCollectLines() throws IOException {
+		List<Source> lines = createLines(5000);
+		
+		ByteArrayOutputStream serial = new ByteArrayOutputStream();
+		study.setOutputStream(serial);
+		for (Source source : lines)
+			study.writeLine(source);
+		study.releaseStream();
+		
+		// Parallel streams must produce exactly the same file, in encounter order
+		ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+		study.setOutputStream(parallel);
+		assertEquals(5000, study.collectLines(lines.parallelStream()));
+		study.releaseStream();
+		assertArrayEquals(serial.toByteArray(), parallel.toByteArray());
+		
+		// Also with the headers written before and the collector used directly
+		ByteArrayOutputStream collected = new ByteArrayOutputStream();
+		study.setOutputStream(collected);
+		study.writeHeadersFromExample(lines.get(0));
+		assertEquals(2000, lines.parallelStream().limit(2000).collect(study.lineCollector()));
+		assertEquals(3000, lines.parallelStream().skip(2000).collect(study.lineCollector()));
+		study.releaseStream();
+		assertArrayEquals(serial.toByteArray(), collected.toByteArray());
+		
+		ByteArrayOutputStream empty = new ByteArrayOutputStream();
+		study.setOutputStream(empty);
+		assertEquals(0, study.collectLines(Stream.empty()));
+		study.releaseStream();
+		assertEquals(0, empty.size());
+		
+		assertThrows(IllegalStateException.class, () -> study.lineCollector());
+		study.setOutputStreamConcurrent(new ByteArrayOutputStream());
+		assertThrows(IllegalStateException.class, () -> study.lineCollector());
+		study.releaseStream();
+	}
+	
+	@Test
+	void testCollectLinesFailure() throws IOException {
+		List<Source> lines = createLines(5000);
+		// Line 3700 is missing the Sample
+		((Process) lines.get(3700).getNextStudyOrAssayTableObject()).setOutput(null);
+		
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		study.setOutputStream(os);
+		InvalidRowException e = assertThrows(InvalidRowException.class, () -> study.collectLines(lines.parallelStream()));
+		assertEquals(3700, e.getRowIndex());
+		study.releaseStream();
+		
+		// Header and all lines before the failure are written
+		assertEquals(3701, os.toString().split(Symbol.ENTER.toString()).length);
+	}
+
+	@Test
+	void testCollectLinesSplit() throws Exception {
+		// Same characteristics, but every other line adds them in the other order
+		List<Source> lines = new ArrayList<Source>();
+		for (int i = 0; i < 20000; i++) {
+			Source source = new Source("Plant " + i);
+			Characteristic a = new Characteristic("A", new OntologyAnnotation("a" + i));
+			Characteristic b = new Characteristic("B", new OntologyAnnotation("b" + i));
+			if (i % 2 == 0) {
+				source.addCharacteristic(a);
+				source.addCharacteristic(b);
+			} else {
+				source.addCharacteristic(b);
+				source.addCharacteristic(a);
+			}
+			lines.add(source);
+		}
+
+		ByteArrayOutputStream serial = new ByteArrayOutputStream();
+		study.setOutputStream(serial);
+		for (Source source : lines)
+			study.writeLine(source);
+		study.releaseStream();
+
+		// Split the stream deterministically, the second part starts with B,A
+		ByteArrayOutputStream split = new ByteArrayOutputStream();
+		study.setOutputStream(split);
+		LineCollector collector = (LineCollector) study.lineCollector();
+		LineCollector.Chunks first = collector.supplier().get();
+		LineCollector.Chunks second = collector.supplier().get();
+		for (Source source : lines.subList(0, 10001))
+			collector.accumulator().accept(first, source);
+		for (Source source : lines.subList(10001, 20000))
+			collector.accumulator().accept(second, source);
+		assertEquals(20000, collector.finisher().apply(collector.combiner().apply(first, second)));
+		study.releaseStream();
+		assertArrayEquals(serial.toByteArray(), split.toByteArray());
+
+		// And with as many parts as a pool of 8 threads makes, independent of the CPUs of the machine
+		ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+		study.setOutputStream(parallel);
+		ForkJoinPool pool = new ForkJoinPool(8);
+		try {
+			assertEquals(20000, pool.submit(() -> study.collectLines(lines.parallelStream())).get());
+		} finally {
+			pool.shutdown();
+		}
+		study.releaseStream();
+		assertArrayEquals(serial.toByteArray(), parallel.toByteArray());
+	}
+	
+	@Test
+	void testSubscriber() throws Exception {
+		List<Source> lines = createLines(5000);
+		
+		ByteArrayOutputStream serial = new ByteArrayOutputStream();
+		study.setOutputStream(serial);
+		for (Source source : lines)
+			study.writeLine(source);
+		study.releaseStream();
+		
+		// A small publisher buffer, so that submit has to wait for the demand of the subscriber
+		ByteArrayOutputStream subscribed = new ByteArrayOutputStream();
+		study.setOutputStream(subscribed);
+		LineSubscriber subscriber = study.subscriber();
+		try (SubmissionPublisher<StudyOrAssayTableObject> publisher = new SubmissionPublisher<StudyOrAssayTableObject>(ForkJoinPool.commonPool(), 16)) {
+			publisher.subscribe(subscriber);
+			for (Source source : lines)
+				publisher.submit(source);
+		}
+		assertEquals(5000, subscriber.getCompletion().get(10, TimeUnit.SECONDS));
+		assertArrayEquals(serial.toByteArray(), subscribed.toByteArray());
+		// The file is closed on completion
+		assertFalse(study.hasWrittenHeaders());
+		assertThrows(IllegalStateException.class, () -> study.subscriber());
+		
+		// The demand is sized to the lines that fill one buffer
+		List<Long> requests = new ArrayList<Long>();
+		study.setOutputStream(new ByteArrayOutputStream());
+		LineSubscriber direct = study.subscriber(Runnable::run);
+		direct.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(long n) {
+				requests.add(n);
+			}
+			
+			@Override
+			public void cancel() {
+			}
+		});
+		for (Source source : lines)
+			direct.onNext(source);
+		direct.onComplete();
+		assertEquals(5000, direct.getCompletion().get());
+		assertEquals(512, requests.get(0));
+		long linesPerBuffer = requests.get(requests.size() - 1);
+		assertTrue(linesPerBuffer > 512, "Lines per buffer: " + linesPerBuffer);
+		// Never more than two buffers ahead
+		assertTrue(requests.stream().mapToLong(Long::longValue).sum() <= 5000 + 2 * linesPerBuffer);
+	}
+	
+	@Test
+	void testSubscriberFailure() throws Exception {
+		List<Source> lines = createLines(1000);
+		// Line 700 is missing the Sample
+		((Process) lines.get(700).getNextStudyOrAssayTableObject()).setOutput(null);
+		
+		// A line that cannot be written cancels the upstream, later lines are ignored
+		AtomicBoolean cancelled = new AtomicBoolean();
+		study.setOutputStream(new ByteArrayOutputStream());
+		LineSubscriber subscriber = study.subscriber(Runnable::run);
+		subscriber.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(long n) {
+			}
+			
+			@Override
+			public void cancel() {
+				cancelled.set(true);
+			}
+		});
+		for (Source source : lines)
+			subscriber.onNext(source);
+		subscriber.onComplete();
+		assertTrue(cancelled.get());
+		ExecutionException e = assertThrows(ExecutionException.class, () -> subscriber.getCompletion().get());
+		assertTrue(e.getCause() instanceof NullPointerException);
+		assertThrows(IllegalStateException.class, () -> study.writeLine(lines.get(0)));
+		
+		// An error of the publisher closes the file
+		study.setOutputStream(new ByteArrayOutputStream());
+		LineSubscriber failed = study.subscriber();
+		try (SubmissionPublisher<StudyOrAssayTableObject> publisher = new SubmissionPublisher<StudyOrAssayTableObject>()) {
+			publisher.subscribe(failed);
+			publisher.submit(lines.get(0));
+			publisher.closeExceptionally(new IllegalStateException("Upstream failed"));
+		}
+		e = assertThrows(ExecutionException.class, () -> failed.getCompletion().get(10, TimeUnit.SECONDS));
+		assertEquals("Upstream failed", e.getCause().getMessage());
+		assertThrows(IllegalStateException.class, () -> study.writeLine(lines.get(0)));
+	}
+
+	@Test
+	void testWriteLineAsync() throws IOException {
+		List<Source> lines = createLines(5000);
+		
+		ByteArrayOutputStream sync = new ByteArrayOutputStream();
+		study.setOutputStream(sync);
+		for (Source source : lines)
+			study.writeLine(source);
+		study.releaseStream();
+		
+		// releaseStream has to wait for the I/O thread, so everything must be there afterwards
+		ByteArrayOutputStream async = new ByteArrayOutputStream();
+		study.setOutputStreamAsync(async, 1);
+		for (Source source : lines)
+			study.writeLine(source);
+		study.releaseStream();
+		assertArrayEquals(sync.toByteArray(), async.toByteArray());
+		
+		assertThrows(IllegalArgumentException.class, () -> study.setOutputStreamAsync(async, 0));
+		assertThrows(IllegalStateException.class, () -> study.writeLine(lines.get(0)));
+	}
+	
+	@Test
+	void testWriteLineAsyncFailure() throws IOException {
+		List<Source> lines = createLines(5000);
+		OutputStream broken = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("Disk full");
+			}
+		};
+		
+		// The error of the I/O thread is thrown by writeLine or at the latest by releaseStream
+		study.setOutputStreamAsync(broken, 2);
+		IOException e = assertThrows(IOException.class, () -> {
+			for (Source source : lines)
+				study.writeLine(source);
+			study.releaseStream();
+		});
+		assertEquals("Disk full", e.getCause().getMessage());
+	}
+
+	@Test
+	void testWriteLineConcurrent() throws Exception {
+		int nThreads = 8;
+		List<Source> lines = createLines(4000);
+		
+		ByteArrayOutputStream serial = new ByteArrayOutputStream();
+		study.setOutputStream(serial);
+		for (Source source : lines)
+			study.writeLine(source);
+		study.releaseStream();
+		
+		// All threads start writing at once and race for the headers
+		ByteArrayOutputStream concurrent = new ByteArrayOutputStream();
+		study.setOutputStreamConcurrent(concurrent);
+		CyclicBarrier start = new CyclicBarrier(nThreads);
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int t = 0; t < nThreads; t++) {
+			int offset = t;
+			futures.add(executor.submit(() -> {
+				start.await();
+				for (int i = offset; i < lines.size(); i += nThreads)
+					study.writeLine(lines.get(i));
+				return null;
+			}));
+		}
+		for (Future<?> future : futures)
+			future.get();
+		executor.shutdown();
+		study.releaseStream();
+		
+		// Headers first, then the same lines in any order
+		String[] expected = serial.toString(Props.DEFAULT_CHARSET).split(Symbol.ENTER.toString());
+		String[] actual = concurrent.toString(Props.DEFAULT_CHARSET).split(Symbol.ENTER.toString());
+		assertEquals(expected[0], actual[0]);
+		Arrays.sort(expected);
+		Arrays.sort(actual);
+		assertArrayEquals(expected, actual);
+	}
+
+	@Test
+	void testWriteCompressed(@TempDir Path directory) throws IOException {
+		List<Source> lines = createLines(20000);
+		
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		study.setOutputStream(plain);
+		for (Source source : lines)
+			study.writeLine(source);
+		study.releaseStream();
+		
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		study.setOutputStreamCompressed(compressed);
+		for (Source source : lines)
+			study.writeLine(source);
+		study.releaseStream();
+		assertArrayEquals(plain.toByteArray(), new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray())).readAllBytes());
+		
+		// A .gz file is compressed automatically and gets a line index
+		Path file = directory.resolve("s_study.txt.gz");
+		Study compressedStudy = new Study("Study ID", file.toString());
+		compressedStudy.openFile();
+		for (Source source : lines)
+			compressedStudy.writeLine(source);
+		compressedStudy.closeFile();
+		byte[] fileContent = Files.readAllBytes(file);
+		assertArrayEquals(compressed.toByteArray(), fileContent);
+		
+		// Every index entry points to the start of its line
+		String[] expectedLines = plain.toString(Props.DEFAULT_CHARSET).split(Symbol.ENTER.toString());
+		List<String> index = Files.readAllLines(directory.resolve("s_study.txt.gz" + Props.GZIP_INDEX_SUFFIX));
+		assertTrue(index.size() > 10);
+		for (String entry : index) {
+			String[] fields = entry.split(Symbol.TAB.toString());
+			int line = Integer.parseInt(fields[0]);
+			int blockOffset = Integer.parseInt(fields[1]);
+			int offsetInBlock = Integer.parseInt(fields[2]);
+			GZIPInputStream block = new GZIPInputStream(new ByteArrayInputStream(fileContent, blockOffset, fileContent.length - blockOffset));
+			block.readNBytes(offsetInBlock);
+			String firstLine = new BufferedReader(new InputStreamReader(block, Props.DEFAULT_CHARSET)).readLine();
+			assertEquals(expectedLines[line], firstLine);
+		}
+	}
+
+	@Test
+	void testAtomicPublication(@TempDir Path directory) throws IOException {
+		List<Source> lines = createLines(2000);
+		Path file = directory.resolve("s_study.txt.gz");
+		Files.write(file, "previous".getBytes(Props.DEFAULT_CHARSET));
+		Study atomic = new Study("Study ID", file.toString());
+		atomic.setAtomicPublication(FsyncPolicy.every(1 << 16));
+
+		atomic.openFile();
+		for (Source source : lines)
+			atomic.writeLine(source);
+		// Nothing is published before the file is complete
+		assertEquals("previous", Files.readString(file));
+		assertFalse(Files.exists(directory.resolve("s_study.txt.gz" + Props.GZIP_INDEX_SUFFIX)));
+		atomic.closeFile();
+		String[] published = directory.toFile().list();
+		Arrays.sort(published);
+		assertArrayEquals(new String[] { "s_study.txt.gz", "s_study.txt.gz" + Props.GZIP_INDEX_SUFFIX }, published);
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		study.setOutputStream(expected);
+		for (Source source : lines)
+			study.writeLine(source);
+		study.releaseStream();
+		assertArrayEquals(expected.toByteArray(), new GZIPInputStream(Files.newInputStream(file)).readAllBytes());
+
+		// A failed file leaves the previous one untouched
+		Path plain = directory.resolve("s_plain.txt");
+		Files.write(plain, "previous".getBytes(Props.DEFAULT_CHARSET));
+		Study failing = new Study("Study ID", plain.toString());
+		failing.setAtomicPublication(FsyncPolicy.NONE);
+		failing.openFile();
+		failing.writeLine(lines.get(0));
+		List<AtomicFile> prepared = failing.closeFile(false);
+		AtomicChannels.abort(prepared, new IOException());
+		assertEquals("previous", Files.readString(plain));
+		assertEquals(3, directory.toFile().list().length);
+	}
+
+	@Test
+	void testAtomicPublicationPermissions(@TempDir Path directory) throws IOException {
+		assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+		Source line = createLines(1).get(0);
+
+		// A new file gets the default permissions, like a file written in place
+		Path inPlace = Files.createFile(directory.resolve("s_in_place.txt"));
+		Study created = new Study("Study ID", directory.resolve("s_created.txt").toString());
+		created.setAtomicPublication(FsyncPolicy.NONE);
+		created.openFile();
+		created.writeLine(line);
+		created.closeFile();
+		assertEquals(Files.getPosixFilePermissions(inPlace), Files.getPosixFilePermissions(directory.resolve("s_created.txt")));
+
+		// A replaced file keeps its permissions
+		Path existing = directory.resolve("s_existing.txt");
+		Files.write(existing, "previous".getBytes(Props.DEFAULT_CHARSET));
+		Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+		Files.setPosixFilePermissions(existing, permissions);
+		Study replaced = new Study("Study ID", existing.toString());
+		replaced.setAtomicPublication(FsyncPolicy.NONE);
+		replaced.openFile();
+		replaced.writeLine(line);
+		replaced.closeFile();
+		assertEquals(permissions, Files.getPosixFilePermissions(existing));
+	}
+
+	@Test
+	void testResumeFile(@TempDir Path directory) throws IOException {
+		List<Source> lines = createLines(12000);
+		ColumnPlan plan = ColumnPlan.compile(lines.get(0));
+		Path file = directory.resolve("s_study.txt");
+		Path sidecar = directory.resolve("s_study.txt" + Props.CHECKPOINT_SUFFIX);
+		Study resumed = new Study("Study ID", file.toString());
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		study.setOutputStream(expected);
+		for (Source source : lines)
+			study.writeLine(source);
+		study.releaseStream();
+
+		// A new file gets the header
+		assertEquals(0, resumed.resumeFile(plan));
+		resumed.setCheckpointInterval(1);
+		for (Source source : lines.subList(0, 8000))
+			resumed.writeLine(source);
+		Checkpoint checkpoint = resumed.readCheckpoint().get();
+		assertTrue(checkpoint.getRowCount() > 0 && checkpoint.getRowCount() < 8000);
+		assertEquals(Checkpoint.schemaHash(plan), checkpoint.getSchemaHash());
+		resumed.closeFile();
+		assertFalse(Files.exists(sidecar));
+
+		// An interrupted line is removed, the complete lines are counted
+		Files.write(file, "Source 8000\tCharacte".getBytes(Props.DEFAULT_CHARSET), StandardOpenOption.APPEND);
+		assertEquals(8000, resumed.resumeFile(plan));
+		for (Source source : lines.subList(8000, 10000))
+			resumed.writeLine(source);
+		resumed.closeFile();
+
+		// Lines are counted from the checkpoint on
+		new Checkpoint(1000, plan.getEncodedHeader().length, Checkpoint.schemaHash(plan)).write(sidecar);
+		assertEquals(11000, resumed.resumeFile(plan));
+		resumed.closeFile();
+		assertFalse(resumed.readCheckpoint().isPresent());
+
+		resumed.resumeFile(plan);
+		for (Source source : lines.subList(10000, 12000))
+			resumed.writeLine(source);
+		resumed.closeFile();
+		assertEquals(expected.toString(Props.DEFAULT_CHARSET), Files.readString(file, Props.DEFAULT_CHARSET));
+
+		// The header must match the lines to write
+		Source other = new Source("Source");
+		other.addCharacteristic(new Characteristic("Size", new OntologyAnnotation("Big")));
+		assertThrows(IllegalStateException.class, () -> resumed.resumeFile(ColumnPlan.compile(other)));
+		resumed.openFile();
+		resumed.closeFile();
+	}
+
+	@Test
+	void testMetrics() throws Exception {
+		assertNull(study.getMetrics());
+		WriteMetrics metrics = study.enableMetrics(true);
+		assertSame(metrics, study.getMetrics());
+		ObjectName names = new ObjectName("de.ipk_gatersleben.bit.bi.isa4j:type=Study,*");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		assertEquals(1, server.queryNames(names, null).size());
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		study.setOutputStream(os);
+		for (Source source : createLines(1000))
+			study.writeLine(source);
+		study.writeLines(createLines(1000));
+		study.releaseStream();
+
+		WriteMetrics.Snapshot snapshot = metrics.snapshot();
+		assertEquals(2000, snapshot.getRowsWritten());
+		assertEquals(os.size(), snapshot.getBytesWritten());
+		assertEquals(1, snapshot.getHeaderCompilations());
+		assertTrue(snapshot.getRenderTimeNanos() > 0);
+		assertTrue(snapshot.getLatencyPercentile(50) > 0);
+		assertTrue(snapshot.getLatencyPercentile(50) <= snapshot.getLatencyPercentile(99));
+		assertThrows(IllegalArgumentException.class, () -> snapshot.getLatencyPercentile(101));
+		ObjectName name = server.queryNames(names, null).iterator().next();
+		assertEquals(2000L, server.getAttribute(name, "RowsWritten"));
+
+		metrics.reset();
+		assertEquals(0, metrics.snapshot().getRowsWritten());
+		assertEquals(0, metrics.snapshot().getLatencyPercentile(99));
+		study.disableMetrics();
+		assertNull(study.getMetrics());
+		assertTrue(server.queryNames(names, null).isEmpty());
+	}
+
+	@Test
+	void testFlightRecorderEvents(@TempDir Path directory) throws IOException {
+		Path dump = directory.resolve("write.jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable(HeaderCompilationEvent.class);
+			recording.enable(RowRenderEvent.class);
+			recording.enable(BufferFlushEvent.class);
+			recording.start();
+			study.setOutputStream(new ByteArrayOutputStream());
+			for (Source source : createLines(2 * RowRenderEvent.SAMPLE_INTERVAL))
+				study.writeLine(source);
+			study.releaseStream();
+			recording.stop();
+			recording.dump(dump);
+		}
+
+		List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+		List<RecordedEvent> compilations = events.stream().filter(event -> event.getEventType().getName().endsWith(".HeaderCompilation"))
+				.collect(Collectors.toList());
+		assertEquals(1, compilations.size());
+		assertEquals(3, compilations.get(0).getInt("slots"));
+		List<RecordedEvent> renders = events.stream().filter(event -> event.getEventType().getName().endsWith(".RowRender"))
+				.collect(Collectors.toList());
+		assertEquals(2, renders.size());
+		assertTrue(renders.get(0).getLong("bytes") > 0);
+		long flushed = events.stream().filter(event -> event.getEventType().getName().endsWith(".BufferFlush"))
+				.mapToLong(event -> event.getLong("bytes")).sum();
+		assertTrue(flushed > 2 * RowRenderEvent.SAMPLE_INTERVAL * renders.get(0).getLong("bytes") / 2);
+	}
+
 }
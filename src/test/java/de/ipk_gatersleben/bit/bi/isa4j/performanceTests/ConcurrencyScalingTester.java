@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.performanceTests;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.ipk_gatersleben.bit.bi.isa4j.components.Characteristic;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Ontology;
+import de.ipk_gatersleben.bit.bi.isa4j.components.OntologyAnnotation;
+import de.ipk_gatersleben.bit.bi.isa4j.components.ParameterValue;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Process;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Protocol;
+import de.ipk_gatersleben.bit.bi.isa4j.components.ProtocolParameter;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Sample;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Source;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Study;
+
+/**
+ * Measures how the throughput of the concurrent mode of a Study file
+ * ({@link Study#openFileConcurrent()}) scales with the number of producer
+ * threads. Every thread builds and writes its share of the lines, the wall clock
+ * time for all of them is written to a CSV file (one line per run).
+ */
+public class ConcurrencyScalingTester {
+
+	/**
+	 * Write nRows lines with nThreads producer threads
+	 * @return wall clock time in nanoseconds
+	 */
+	public static long measureConcurrent(int nThreads, int nRows) throws Exception {
+		Study study = new Study("s1", "s_study.txt");
+		Protocol growth = new Protocol("Growth");
+		ProtocolParameter volume = new ProtocolParameter("Volume");
+		Ontology uo = new Ontology("UO", null, null, "Units of Measurement Ontology");
+		OntologyAnnotation gram = new OntologyAnnotation("g", "http://purl.obolibrary.org/obo/UO_0000021", uo);
+		Characteristic species = new Characteristic("Species", new OntologyAnnotation("thaliana"));
+
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		long startingTime = System.nanoTime();
+		study.openFileConcurrent();
+		List<Future<?>> producers = new ArrayList<Future<?>>();
+		for (int t = 0; t < nThreads; t++) {
+			int offset = t;
+			producers.add(executor.submit(() -> {
+				for (int i = offset; i < nRows; i += nThreads) {
+					Source source = new Source("Plant_" + i);
+					source.addCharacteristic(species);
+					Sample sample = new Sample("1135FA-" + i);
+					Process process = new Process(growth);
+					process.addParameterValue(new ParameterValue(volume, 80.4, gram));
+					process.setInput(source);
+					process.setOutput(sample);
+					study.writeLine(source);
+				}
+				return null;
+			}));
+		}
+		for (Future<?> producer : producers)
+			producer.get();
+		study.closeFile();
+		long time = System.nanoTime() - startingTime;
+		executor.shutdown();
+		return time;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int numberOfRuns = 10;
+		int nRows = 1000000;
+
+		BufferedWriter writer = new BufferedWriter(new FileWriter("isa4J_concurrency_results.csv"));
+
+		// Warm up (discarded)
+		measureConcurrent(1, 100000);
+
+		for (int nThreads = 1; nThreads <= Runtime.getRuntime().availableProcessors(); nThreads *= 2) {
+			System.out.println("concurrent; nThreads = " + nThreads);
+			for (int x = 0; x < numberOfRuns; x++) {
+				writer.write("isa4J,concurrent," + nThreads + "," + nRows + "," + measureConcurrent(nThreads, nRows) + "," + LocalDateTime.now() + "\n");
+				System.gc();
+			}
+		}
+
+		writer.close();
+		new File("s_study.txt").delete();
+	}
+
+}
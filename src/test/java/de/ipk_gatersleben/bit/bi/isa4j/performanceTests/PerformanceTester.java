@@ -38,6 +38,7 @@ import de.ipk_gatersleben.bit.bi.isa4j.components.ParameterValue;
 import de.ipk_gatersleben.bit.bi.isa4j.components.Process;
 import de.ipk_gatersleben.bit.bi.isa4j.components.Protocol;
 import de.ipk_gatersleben.bit.bi.isa4j.components.ProtocolParameter;
+import de.ipk_gatersleben.bit.bi.isa4j.components.RowCursor;
 import de.ipk_gatersleben.bit.bi.isa4j.components.Sample;
 import de.ipk_gatersleben.bit.bi.isa4j.components.Source;
 import de.ipk_gatersleben.bit.bi.isa4j.components.Study;
@@ -90,6 +91,57 @@ public class PerformanceTester {
 		return bean.getCurrentThreadCpuTime() - startingTime;
 	}
 	
+	/**
+	 * Like measureMinimal, but every file is written with one set of objects
+	 * through a RowCursor instead of creating the objects of every line anew
+	 */
+	public static long measureMinimalCursor(ThreadMXBean bean, int nRows) throws IOException {
+		long startingTime = bean.getCurrentThreadCpuTime();
+		
+		Investigation investigation = new Investigation("i1");
+		Study study = new Study("s1", "s_study.txt");
+		investigation.addStudy(study);
+		
+		Protocol protocol = new Protocol("sample collection");
+		study.addProtocol(protocol);
+		
+		study.openFile();
+		Source source = new Source("source_material");
+		Sample sample = new Sample("sample_material");
+		Process process = new Process(protocol);
+		process.setInput(source);
+		process.setOutput(sample);
+		RowCursor studyCursor = new RowCursor(study, source);
+		for(int i = 0; i < nRows; i++) {
+			source.setName("source_material-"+i);
+			sample.setName("sample_material-"+i);
+			studyCursor.write();
+		}
+		study.closeFile();
+		
+		Assay assay = new Assay("a_assay.txt");
+		Protocol sequencingProtocol = new Protocol("material sequencing");
+		study.addAssay(assay);
+		
+		assay.openFile();
+		DataFile dataFile = new DataFile("Raw Data File", "sequenced-data");
+		Process sequencing = new Process(sequencingProtocol);
+		sequencing.setInput(sample);
+		sequencing.setOutput(dataFile);
+		RowCursor assayCursor = new RowCursor(assay, sample);
+		for(int i = 0; i < nRows; i++) {
+			sample.setName("sample_material-"+i);
+			dataFile.setPath("sequenced-data-"+i);
+			assayCursor.write();
+		}
+		assay.closeFile();
+		
+		// Also write Investigation File (because python does it, too)
+		investigation.writeToFile("i_investigation.txt");
+		
+		return bean.getCurrentThreadCpuTime() - startingTime;
+	}
+	
 	public static long measureReduced(ThreadMXBean bean, int nRows) throws IOException {
 		long startingTime = bean.getCurrentThreadCpuTime();
 		
@@ -518,6 +570,14 @@ public class PerformanceTester {
             }
         }
         
+        for(int nRows : rows) {
+            System.out.println("minimal_cursor; nRows = " + nRows);
+			for(int x = 0; x < numberOfRuns; x++) {
+				writer.write("isa4J,minimal_cursor,"+nRows+","+measureMinimalCursor(threadBean, nRows)+",-1,"+LocalDateTime.now()+"\n");
+				System.gc();
+            }
+        }
+        
         for(int nRows : rows) {
             System.out.println("reduced; nRows = " + nRows);
 			for(int x = 0; x < numberOfRuns; x++) {
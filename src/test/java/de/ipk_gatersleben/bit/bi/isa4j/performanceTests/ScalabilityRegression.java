@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.performanceTests;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Scalability regression check, run by the Gradle task scalabilityRegression:
+ * runs the minimal, reduced and real world scenarios of
+ * {@link PerformanceTester} over a ladder of row counts and records CPU time,
+ * wall time, peak heap and bytes per row. The results are written in the schema
+ * of docs/performance_data.csv (time.in.ns is the CPU time, memory.usage.in.mb
+ * the peak heap), followed by the columns wall.time.in.ns and bytes.per.row.
+ *
+ * The medians of every scenario and row count are compared with a stored
+ * baseline of the same schema: the check fails if the throughput (rows per CPU
+ * second) drops or the peak heap grows beyond the thresholds. Baselines are
+ * only comparable on the same machine, so none is shipped: a baseline is
+ * recorded explicitly with scalability.record=true, and the check fails if the
+ * baseline does not exist.
+ *
+ * Arguments: the result file and the baseline file. System properties:
+ * scalability.record (write the results to the baseline file instead of
+ * comparing, default false), scalability.rows (comma separated row counts,
+ * default 10000,100000,1000000,5000000), scalability.runs (runs per row count,
+ * default 3), scalability.maxSlowdown (default 0.15) and
+ * scalability.maxMemoryGrowth (default 0.25).
+ */
+public class ScalabilityRegression {
+
+	private static final String HEADER = "platform,row.complexity,n.rows,time.in.ns,memory.usage.in.mb,date.test.performed,wall.time.in.ns,bytes.per.row";
+
+	/**
+	 * The files written by the scenarios of {@link PerformanceTester}, relative to the working directory
+	 */
+	private static final String[] FILES = { "i_investigation.txt", "s_study.txt", "a_assay.txt" };
+
+	/**
+	 * Peak heap below this many MB more than the baseline is never a regression, small runs are dominated by GC timing
+	 */
+	private static final double MEMORY_SLACK_MB = 16;
+
+	private static final String PLATFORM = "isa4J";
+
+	/**
+	 * Compare the medians of the current results with the baseline
+	 *
+	 * @return a message for every regression, empty if there is none
+	 */
+	static List<String> compare(Map<String, Median> baseline, Map<String, Median> current, double maxSlowdown,
+			double maxMemoryGrowth) {
+		List<String> regressions = new ArrayList<String>();
+		for (Map.Entry<String, Median> entry : current.entrySet()) {
+			Median before = baseline.get(entry.getKey());
+			Median now = entry.getValue();
+			if (before == null) {
+				System.out.println(entry.getKey() + ": no baseline");
+				continue;
+			}
+			double throughputChange = now.rowsPerSecond() / before.rowsPerSecond() - 1;
+			double memoryChange = now.memoryMb / before.memoryMb - 1;
+			System.out.println(String.format("%s: %.0f rows/s (%+.1f%%), %.1f MB peak heap (%+.1f%%), %.1f bytes/row",
+					entry.getKey(), now.rowsPerSecond(), 100 * throughputChange, now.memoryMb, 100 * memoryChange,
+					now.bytesPerRow));
+			if (throughputChange < -maxSlowdown)
+				regressions.add(String.format("%s: throughput dropped by %.1f%% (%.0f -> %.0f rows/s)", entry.getKey(),
+						-100 * throughputChange, before.rowsPerSecond(), now.rowsPerSecond()));
+			// Memory is -1 where it was not measured, e.g. in docs/performance_data.csv
+			if (before.memoryMb > 0 && memoryChange > maxMemoryGrowth && now.memoryMb - before.memoryMb > MEMORY_SLACK_MB)
+				regressions.add(String.format("%s: peak heap grew by %.1f%% (%.1f -> %.1f MB)", entry.getKey(),
+						100 * memoryChange, before.memoryMb, now.memoryMb));
+		}
+		return regressions;
+	}
+
+	private static long filesSize() throws IOException {
+		long size = 0;
+		for (String file : FILES)
+			size += Files.size(Paths.get(file));
+		return size;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2)
+			throw new IllegalArgumentException("Usage: ScalabilityRegression <result file> <baseline file>");
+		Path resultFile = Paths.get(args[0]);
+		Path baselineFile = Paths.get(args[1]);
+		boolean record = Boolean.parseBoolean(System.getProperty("scalability.record", "false"));
+		if (!record && !Files.exists(baselineFile))
+			throw new IllegalArgumentException("Baseline " + baselineFile
+					+ " does not exist, record one on this machine with scalability.record=true");
+		int[] rows = Arrays.stream(System.getProperty("scalability.rows", "10000,100000,1000000,5000000").split(","))
+				.mapToInt(row -> Integer.parseInt(row.trim())).toArray();
+		int runs = Integer.parseInt(System.getProperty("scalability.runs", "3"));
+		double maxSlowdown = Double.parseDouble(System.getProperty("scalability.maxSlowdown", "0.15"));
+		double maxMemoryGrowth = Double.parseDouble(System.getProperty("scalability.maxMemoryGrowth", "0.25"));
+
+		Map<String, Scenario> scenarios = new LinkedHashMap<String, Scenario>();
+		scenarios.put("minimal", PerformanceTester::measureMinimal);
+		scenarios.put("reduced", PerformanceTester::measureReduced);
+		scenarios.put("real_world", PerformanceTester::measureRealWorld);
+
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		// Warm up (discarded)
+		for (Scenario scenario : scenarios.values())
+			scenario.measure(threadBean, 10000);
+
+		List<String> lines = new ArrayList<String>();
+		try {
+			for (Map.Entry<String, Scenario> scenario : scenarios.entrySet()) {
+				for (int nRows : rows) {
+					System.out.println(scenario.getKey() + "; nRows = " + nRows);
+					for (int x = 0; x < runs; x++)
+						lines.add(measure(threadBean, scenario.getKey(), scenario.getValue(), nRows));
+				}
+			}
+		} finally {
+			for (String file : FILES)
+				new File(file).delete();
+		}
+
+		Files.createDirectories(resultFile.toAbsolutePath().getParent());
+		try (BufferedWriter writer = Files.newBufferedWriter(resultFile, StandardCharsets.UTF_8)) {
+			writer.write(HEADER + "\n");
+			for (String line : lines)
+				writer.write(line + "\n");
+		}
+		System.out.println("Results written to " + resultFile);
+
+		if (record) {
+			Files.createDirectories(baselineFile.toAbsolutePath().getParent());
+			Files.copy(resultFile, baselineFile, StandardCopyOption.REPLACE_EXISTING);
+			System.out.println("Recorded the results as baseline " + baselineFile);
+			return;
+		}
+		List<String> regressions = compare(medians(Files.readAllLines(baselineFile, StandardCharsets.UTF_8)),
+				medians(lines), maxSlowdown, maxMemoryGrowth);
+		if (!regressions.isEmpty()) {
+			regressions.forEach(System.err::println);
+			System.exit(1);
+		}
+		System.out.println("No scalability regressions against " + baselineFile);
+	}
+
+	/**
+	 * Run a scenario once
+	 *
+	 * @return the line of the result file
+	 */
+	private static String measure(ThreadMXBean threadBean, String complexity, Scenario scenario, int nRows)
+			throws IOException {
+		List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+				.filter(pool -> pool.getType() == MemoryType.HEAP).collect(Collectors.toList());
+		System.gc();
+		heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+		long wallStart = System.nanoTime();
+		long cpuTime = scenario.measure(threadBean, nRows);
+		long wallTime = System.nanoTime() - wallStart;
+
+		// The pools peak at different times, so the sum is an upper bound of the peak heap
+		long peakHeap = 0;
+		for (MemoryPoolMXBean pool : heapPools)
+			peakHeap += pool.getPeakUsage().getUsed();
+		double bytesPerRow = filesSize() / (double) nRows;
+		return PLATFORM + "," + complexity + "," + nRows + "," + cpuTime + "," + peakHeap / 1024.0 / 1024.0 + ","
+				+ LocalDateTime.now() + "," + wallTime + "," + bytesPerRow;
+	}
+
+	/**
+	 * Group the lines of a result file by scenario and row count and take the
+	 * medians. Lines of other platforms (e.g. isatools in
+	 * docs/performance_data.csv) and the header are skipped.
+	 *
+	 * @return the medians by "complexity/rows"
+	 */
+	static Map<String, Median> medians(List<String> lines) {
+		Map<String, List<String[]>> groups = new LinkedHashMap<String, List<String[]>>();
+		for (String line : lines) {
+			String[] columns = line.split(",");
+			if (columns.length < 5 || !columns[0].equals(PLATFORM))
+				continue;
+			groups.computeIfAbsent(columns[1] + "/" + columns[2], key -> new ArrayList<String[]>()).add(columns);
+		}
+		Map<String, Median> medians = new LinkedHashMap<String, Median>();
+		for (Map.Entry<String, List<String[]>> group : groups.entrySet()) {
+			List<String[]> runs = group.getValue();
+			medians.put(group.getKey(), new Median(Integer.parseInt(runs.get(0)[2]), median(runs, 3), median(runs, 4),
+					runs.get(0).length > 7 ? median(runs, 7) : Double.NaN));
+		}
+		return medians;
+	}
+
+	private static double median(List<String[]> runs, int column) {
+		double[] values = runs.stream().mapToDouble(run -> Double.parseDouble(run[column])).sorted().toArray();
+		int middle = values.length / 2;
+		return values.length % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+	}
+
+	/**
+	 * The medians of the runs of one scenario and row count
+	 */
+	static final class Median {
+
+		private final double bytesPerRow;
+
+		private final double cpuNanos;
+
+		private final double memoryMb;
+
+		private final int nRows;
+
+		Median(int nRows, double cpuNanos, double memoryMb, double bytesPerRow) {
+			this.nRows = nRows;
+			this.cpuNanos = cpuNanos;
+			this.memoryMb = memoryMb;
+			this.bytesPerRow = bytesPerRow;
+		}
+
+		double rowsPerSecond() {
+			return this.nRows / (this.cpuNanos / 1e9);
+		}
+	}
+
+	/**
+	 * A scenario of {@link PerformanceTester}
+	 */
+	private interface Scenario {
+		/**
+		 * @return the CPU time in nanoseconds
+		 */
+		long measure(ThreadMXBean bean, int nRows) throws IOException;
+	}
+
+}
@@ -0,0 +1,407 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.performanceTests;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import de.ipk_gatersleben.bit.bi.isa4j.components.Assay;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Characteristic;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Comment;
+import de.ipk_gatersleben.bit.bi.isa4j.components.CommentCollection;
+import de.ipk_gatersleben.bit.bi.isa4j.components.DataFile;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Investigation;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Material;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Ontology;
+import de.ipk_gatersleben.bit.bi.isa4j.components.OntologyAnnotation;
+import de.ipk_gatersleben.bit.bi.isa4j.components.ParameterValue;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Process;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Protocol;
+import de.ipk_gatersleben.bit.bi.isa4j.components.ProtocolParameter;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Sample;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Source;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Study;
+import de.ipk_gatersleben.bit.bi.isa4j.components.StudyOrAssayTableObject;
+import de.ipk_gatersleben.bit.bi.isa4j.components.WideTableFile;
+import de.ipk_gatersleben.bit.bi.isa4j.constants.Props;
+
+/**
+ * Generates synthetic ISA-Tab archives of any size from a compact spec, for
+ * load tests and as a workload for profiling the write path, run by the Gradle
+ * task syntheticArchive. The spec is a properties file (all keys optional,
+ * defaults in brackets):
+ * <ul>
+ * <li>seed [42]: the same seed and spec always give the same archive</li>
+ * <li>studies [1], assays [1] (per study), rows [100000] (per Study and Assay
+ * file)</li>
+ * <li>study.chain [Source&gt;Process&gt;Sample] and assay.chain
+ * [Sample&gt;Process&gt;Material&gt;Process&gt;DataFile]: the objects of a
+ * line, alternating between Source, Sample, Material or DataFile and
+ * Process</li>
+ * <li>characteristics [2] per Source, Sample and Material, parameters [2] per
+ * Process, of which units [1] are numeric with a unit, comments [1] per
+ * object</li>
+ * <li>cardinality [1000]: the number of distinct values of every characteristic,
+ * parameter value and comment column</li>
+ * <li>threads [available processors] and compress [false] to write block-gzip
+ * compressed files</li>
+ * </ul>
+ * Every key can be overridden with a system property prefixed with
+ * "synthetic.", e.g. -Dsynthetic.rows=10000000.
+ *
+ * The Study and Assay files are written in parallel, the lines of every file
+ * are rendered in parallel on a shared pool. The values of a line only depend
+ * on the seed, the file and the line, so the archive does not depend on the
+ * number of threads. Samples of the Assay files have the names of the Samples
+ * on the same line of their Study file. At the end the rows and bytes per second
+ * are reported.
+ *
+ * Arguments: the output directory and optionally the spec file.
+ */
+public class SyntheticArchiveGenerator {
+
+	private static final String INVESTIGATION_FILE = "i_investigation.txt";
+
+	private static final Ontology UO = new Ontology("UO", null, null, "Units of Measurement Ontology");
+
+	private static final OntologyAnnotation[] UNITS = {
+			OntologyAnnotation.of("gram", "http://purl.obolibrary.org/obo/UO_0000021", UO),
+			OntologyAnnotation.of("milliliter", "http://purl.obolibrary.org/obo/UO_0000098", UO),
+			OntologyAnnotation.of("hour", "http://purl.obolibrary.org/obo/UO_0000032", UO),
+			OntologyAnnotation.of("degree Celsius", "http://purl.obolibrary.org/obo/UO_0000027", UO),
+			OntologyAnnotation.of("micromolar", "http://purl.obolibrary.org/obo/UO_0000064", UO) };
+
+	private static List<String> chain(Properties spec, String key) {
+		List<String> chain = new ArrayList<String>();
+		for (String type : spec.getProperty(key).split(">"))
+			chain.add(type.trim());
+		for (int i = 0; i < chain.size(); i++) {
+			String type = chain.get(i);
+			boolean process = i % 2 == 1;
+			if (process != type.equals("Process")
+					|| !process && !type.equals("Source") && !type.equals("Sample") && !type.equals("Material") && !type.equals("DataFile"))
+				throw new IllegalArgumentException(key + " must alternate between Source, Sample, Material or DataFile and Process, not " + spec.getProperty(key));
+		}
+		if (chain.size() % 2 == 0)
+			throw new IllegalArgumentException(key + " must end with Source, Sample, Material or DataFile, not " + spec.getProperty(key));
+		return chain;
+	}
+
+	private static int count(Properties spec, String key, int minimum) {
+		int value = Integer.parseInt(spec.getProperty(key).trim());
+		if (value < minimum)
+			throw new IllegalArgumentException(key + " must be at least " + minimum + ", not " + value);
+		return value;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1 || args.length > 2)
+			throw new IllegalArgumentException("Usage: SyntheticArchiveGenerator <output directory> [spec file]");
+		Path directory = Paths.get(args[0]);
+		Properties spec = new Properties();
+		spec.setProperty("seed", "42");
+		spec.setProperty("studies", "1");
+		spec.setProperty("assays", "1");
+		spec.setProperty("rows", "100000");
+		spec.setProperty("study.chain", "Source>Process>Sample");
+		spec.setProperty("assay.chain", "Sample>Process>Material>Process>DataFile");
+		spec.setProperty("characteristics", "2");
+		spec.setProperty("parameters", "2");
+		spec.setProperty("units", "1");
+		spec.setProperty("comments", "1");
+		spec.setProperty("cardinality", "1000");
+		spec.setProperty("threads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+		spec.setProperty("compress", "false");
+		if (args.length == 2) {
+			try (Reader reader = Files.newBufferedReader(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+				spec.load(reader);
+			}
+		}
+		for (String key : System.getProperties().stringPropertyNames()) {
+			if (key.startsWith("synthetic."))
+				spec.setProperty(key.substring("synthetic.".length()), System.getProperty(key));
+		}
+
+		SyntheticArchiveGenerator generator = new SyntheticArchiveGenerator(spec);
+		Files.createDirectories(directory);
+		System.out.println("Generating " + generator.files.size() + " Study/Assay files with " + generator.rows
+				+ " rows each in " + directory.toAbsolutePath() + " with " + generator.threads + " threads");
+		generator.generate(directory);
+	}
+
+	private final int cardinality;
+
+	private final int characteristics;
+
+	private final int comments;
+
+	private final boolean compress;
+
+	/**
+	 * The Study and Assay files, Study files before their Assay files
+	 */
+	private final List<GeneratedFile> files = new ArrayList<GeneratedFile>();
+
+	private final Investigation investigation = new Investigation("i1");
+
+	private final int parameters;
+
+	private final long rows;
+
+	private final long seed;
+
+	private final int threads;
+
+	private final int units;
+
+	SyntheticArchiveGenerator(Properties spec) {
+		this.seed = Long.parseLong(spec.getProperty("seed").trim());
+		this.rows = Long.parseLong(spec.getProperty("rows").trim());
+		if (this.rows < 1)
+			throw new IllegalArgumentException("rows must be at least 1, not " + this.rows);
+		this.characteristics = count(spec, "characteristics", 0);
+		this.parameters = count(spec, "parameters", 0);
+		this.units = count(spec, "units", 0);
+		if (this.units > this.parameters)
+			throw new IllegalArgumentException("units cannot be more than parameters (" + this.parameters + "), not " + this.units);
+		this.comments = count(spec, "comments", 0);
+		this.cardinality = count(spec, "cardinality", 1);
+		this.threads = count(spec, "threads", 1);
+		this.compress = Boolean.parseBoolean(spec.getProperty("compress").trim());
+		List<String> studyChain = chain(spec, "study.chain");
+		List<String> assayChain = chain(spec, "assay.chain");
+		int studies = count(spec, "studies", 1);
+		int assays = count(spec, "assays", 0);
+
+		String suffix = this.compress ? ".txt" + Props.GZIP_SUFFIX : ".txt";
+		for (int s = 0; s < studies; s++) {
+			Study study = new Study("s" + s, "s_s" + s + suffix);
+			this.investigation.addStudy(study);
+			this.files.add(new GeneratedFile(study, studyChain, this.protocols(study, "Study", studyChain), s, "s" + s));
+			List<Protocol> assayProtocols = this.protocols(study, "Assay", assayChain);
+			for (int a = 0; a < assays; a++) {
+				Assay assay = new Assay("a_s" + s + "_a" + a + suffix);
+				study.addAssay(assay);
+				this.files.add(new GeneratedFile(assay, assayChain, assayProtocols, s, "s" + s + "-a" + a));
+			}
+		}
+	}
+
+	/**
+	 * Build a line, drawing its values from the random numbers of the line
+	 *
+	 * @return the first object of the line
+	 */
+	private StudyOrAssayTableObject build(GeneratedFile file, long row, SplittableRandom random) {
+		List<String> chain = file.chain;
+		StudyOrAssayTableObject[] objects = new StudyOrAssayTableObject[chain.size()];
+		for (int i = 0; i < objects.length; i += 2) {
+			String type = chain.get(i);
+			String name = file.names[i] + row;
+			Source node;
+			switch (type) {
+			case "DataFile":
+				DataFile dataFile = new DataFile("Raw Data File", name + ".raw");
+				this.comment(dataFile.comments(), random);
+				objects[i] = dataFile;
+				continue;
+			case "Material":
+				node = new Material("Extract Name", name);
+				break;
+			case "Sample":
+				node = new Sample(name);
+				break;
+			default:
+				node = new Source(name);
+			}
+			for (int c = 0; c < this.characteristics; c++)
+				node.addCharacteristic(new Characteristic("Characteristic " + (c + 1), this.value("trait", c, random)));
+			this.comment(node.comments(), random);
+			objects[i] = node;
+		}
+		for (int i = 1; i < objects.length; i += 2) {
+			Protocol protocol = file.protocols.get(i / 2);
+			Process process = new Process(protocol);
+			List<ProtocolParameter> parameters = protocol.getParameters();
+			for (int p = 0; p < parameters.size(); p++) {
+				if (p < this.units)
+					process.addParameterValue(new ParameterValue(parameters.get(p), random.nextInt(this.cardinality) / 4.0, UNITS[p % UNITS.length]));
+				else
+					process.addParameterValue(new ParameterValue(parameters.get(p), this.value("level", p, random)));
+			}
+			this.comment(process.comments(), random);
+			process.setInput(objects[i - 1]);
+			process.setOutput(objects[i + 1]);
+		}
+		return objects[0];
+	}
+
+	private void comment(CommentCollection comments, SplittableRandom random) {
+		for (int c = 0; c < this.comments; c++)
+			comments.add(new Comment("Comment " + (c + 1), "note-" + c + "-" + random.nextInt(this.cardinality)));
+	}
+
+	/**
+	 * Write the archive into the directory and report the throughput
+	 */
+	void generate(Path directory) throws IOException, InterruptedException {
+		ForkJoinPool renderPool = new ForkJoinPool(this.threads);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.threads, this.files.size()));
+		long start = System.nanoTime();
+		List<Future<Long>> tasks = new ArrayList<Future<Long>>();
+		try {
+			for (GeneratedFile file : this.files)
+				tasks.add(executor.submit(() -> this.write(file, directory, renderPool)));
+			this.investigation.writeToFile(directory.resolve(INVESTIGATION_FILE).toString());
+			for (Future<Long> task : tasks)
+				task.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+			renderPool.shutdownNow();
+		}
+		long nanos = System.nanoTime() - start;
+
+		long bytes = Files.size(directory.resolve(INVESTIGATION_FILE));
+		for (GeneratedFile file : this.files)
+			bytes += Files.size(directory.resolve(file.table.getFileName()));
+		long totalRows = this.rows * this.files.size();
+		System.out.println(String.format("%d rows, %.1f MB in %.1f s: %.0f rows/s, %.1f MB/s", totalRows,
+				bytes / 1e6, nanos / 1e9, totalRows / (nanos / 1e9), bytes / 1e6 / (nanos / 1e9)));
+	}
+
+	/**
+	 * Add one protocol per Process of the chain to the study, with the parameters
+	 * of the spec
+	 */
+	private List<Protocol> protocols(Study study, String prefix, List<String> chain) {
+		List<Protocol> protocols = new ArrayList<Protocol>();
+		for (int i = 1; i < chain.size(); i += 2) {
+			Protocol protocol = new Protocol(prefix + " Protocol " + (i / 2 + 1));
+			for (int p = 0; p < this.parameters; p++)
+				protocol.addParameter(new ProtocolParameter("Parameter " + (p + 1)));
+			study.addProtocol(protocol);
+			protocols.add(protocol);
+		}
+		return protocols;
+	}
+
+	private OntologyAnnotation value(String prefix, int column, SplittableRandom random) {
+		return OntologyAnnotation.of(prefix + "-" + column + "-" + random.nextInt(this.cardinality));
+	}
+
+	/**
+	 * Write all lines of a file
+	 *
+	 * @return the time taken in nanoseconds
+	 */
+	private long write(GeneratedFile file, Path directory, ForkJoinPool renderPool) throws IOException {
+		long start = System.nanoTime();
+		WideTableFile table = file.table;
+		try (OutputStream os = Files.newOutputStream(directory.resolve(table.getFileName()))) {
+			if (this.compress)
+				table.setOutputStreamCompressed(os);
+			else
+				table.setOutputStream(os);
+			table.writeLines(this.lines(file), renderPool);
+			table.releaseStream();
+		}
+		long nanos = System.nanoTime() - start;
+		System.out.println(String.format("%s: %d rows in %.1f s, %.0f rows/s", table.getFileName(), this.rows,
+				nanos / 1e9, this.rows / (nanos / 1e9)));
+		return nanos;
+	}
+
+	/**
+	 * The lines of a file, built while they are iterated. Every line has random
+	 * numbers of its own, derived from the seed, the study, the file and the row.
+	 */
+	private Iterable<StudyOrAssayTableObject> lines(GeneratedFile file) {
+		long fileSeed = new SplittableRandom(this.seed ^ file.tag.hashCode() * 0x9E3779B97F4A7C15L).nextLong();
+		return () -> new Iterator<StudyOrAssayTableObject>() {
+
+			private long row = 0;
+
+			@Override
+			public boolean hasNext() {
+				return this.row < SyntheticArchiveGenerator.this.rows;
+			}
+
+			@Override
+			public StudyOrAssayTableObject next() {
+				if (!this.hasNext())
+					throw new NoSuchElementException();
+				long row = this.row++;
+				return SyntheticArchiveGenerator.this.build(file, row, new SplittableRandom(fileSeed + row * 0x9E3779B97F4A7C15L));
+			}
+		};
+	}
+
+	/**
+	 * A Study or Assay file of the archive
+	 */
+	private static final class GeneratedFile {
+
+		private final List<String> chain;
+
+		/**
+		 * The names of the objects of the chain without the row, null for Processes
+		 */
+		private final String[] names;
+
+		private final List<Protocol> protocols;
+
+		private final WideTableFile table;
+
+		/**
+		 * Identifies the file in names and seeds, e.g. "s0-a1"
+		 */
+		private final String tag;
+
+		private GeneratedFile(WideTableFile table, List<String> chain, List<Protocol> protocols, int study, String tag) {
+			this.table = table;
+			this.chain = chain;
+			this.protocols = protocols;
+			this.tag = tag;
+			this.names = new String[chain.size()];
+			for (int i = 0; i < chain.size(); i += 2) {
+				String type = chain.get(i);
+				// Samples are named after the study only, so the lines of the Assay files continue those of the Study file
+				String name = type.toLowerCase() + "-" + (type.equals("Sample") ? "s" + study : tag);
+				int repeated = 0;
+				for (int j = 0; j < i; j += 2) {
+					if (chain.get(j).equals(type))
+						repeated++;
+				}
+				this.names[i] = (repeated == 0 ? name : name + "." + repeated) + "-";
+			}
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.performanceTests;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.time.LocalDateTime;
+
+import de.ipk_gatersleben.bit.bi.isa4j.components.Characteristic;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Comment;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Investigation;
+import de.ipk_gatersleben.bit.bi.isa4j.components.OntologyAnnotation;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Source;
+import de.ipk_gatersleben.bit.bi.isa4j.components.Study;
+
+/**
+ * Measures the time to add many Characteristics and Comments to one object and
+ * many Studies to one Investigation, i.e. the cost of the uniqueness checks of
+ * the add methods. Results are written to a CSV file (one line per run).
+ */
+public class UniquenessCheckTester {
+
+	/**
+	 * Add nItems Characteristics and nItems Comments to a Source
+	 * @return time in nanoseconds
+	 */
+	public static long measureSource(int nItems) {
+		OntologyAnnotation value = new OntologyAnnotation("value");
+		long startingTime = System.nanoTime();
+		Source source = new Source("source");
+		for (int i = 0; i < nItems; i++) {
+			source.addCharacteristic(new Characteristic("Characteristic " + i, value));
+			source.comments().add(new Comment("Comment " + i, "value"));
+		}
+		return System.nanoTime() - startingTime;
+	}
+
+	/**
+	 * Add nItems Studies to an Investigation
+	 * @return time in nanoseconds
+	 */
+	public static long measureInvestigation(int nItems) {
+		long startingTime = System.nanoTime();
+		Investigation investigation = new Investigation("i1");
+		for (int i = 0; i < nItems; i++)
+			investigation.addStudy(new Study("s" + i));
+		return System.nanoTime() - startingTime;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int numberOfRuns = 10;
+		int[] nItems = { 10, 100, 1000, 10000 };
+
+		BufferedWriter writer = new BufferedWriter(new FileWriter("isa4J_uniqueness_results.csv"));
+
+		// Warm up (discarded)
+		for (int i = 0; i < 100; i++) {
+			measureSource(1000);
+			measureInvestigation(1000);
+		}
+
+		for (int n : nItems) {
+			System.out.println("nItems = " + n);
+			for (int x = 0; x < numberOfRuns; x++) {
+				writer.write("isa4J,source," + n + "," + measureSource(n) + "," + LocalDateTime.now() + "\n");
+				writer.write("isa4J,investigation," + n + "," + measureInvestigation(n) + "," + LocalDateTime.now() + "\n");
+			}
+		}
+
+		writer.close();
+	}
+
+}
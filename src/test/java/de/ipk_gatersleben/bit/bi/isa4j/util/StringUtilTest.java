@@ -0,0 +1,38 @@
+/**
+ * Copyright (c) 2020 Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany.
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the MIT License (https://spdx.org/licenses/MIT.html)
+ *
+ * Contributors:
+ *      Leibniz Institute of Plant Genetics and Crop Plant Research (IPK), Gatersleben, Germany
+ */
+package de.ipk_gatersleben.bit.bi.isa4j.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+public class StringUtilTest {
+
+	@Test
+	void testSanitize() {
+		assertNull(StringUtil.sanitize(null));
+
+		// Nothing to replace, same instance
+		String clean = "Plant 1: Arabidopsis thaliana (Col-0) äöü";
+		assertSame(clean, StringUtil.sanitize(clean));
+		assertSame("", StringUtil.sanitize(""));
+
+		assertEquals("a b c", StringUtil.sanitize("a\tb\nc"));
+		assertEquals(" a ", StringUtil.sanitize("\ta\n"));
+		assertEquals("  ", StringUtil.sanitize("\t\t"));
+
+		// Line breaks of all platforms, CR LF is one line break
+		assertEquals("a b c d", StringUtil.sanitize("a\r\nb\rc\nd"));
+		assertEquals("a  b", StringUtil.sanitize("a\n\rb"));
+		assertEquals("a b c d e f", StringUtil.sanitize("a\u000Bb\fc\u0085d e f"));
+		assertEquals("a ", StringUtil.sanitize("a\r"));
+	}
+
+}